@@ -0,0 +1,60 @@
+package hudson.plugins.disk_usage;
+
+import hudson.os.PosixAPI;
+import java.io.File;
+
+/**
+ * Reads size which a file really occupies on disk (number of allocated blocks), it can be lower than
+ * length of the file for sparse files and higher for small files.
+ *
+ * java.nio.file does not provide number of allocated blocks, so it is read by native lstat. If native
+ * access is not available (e.g. on Windows), length of the file is rounded up to whole blocks of
+ * {@link #BLOCK_SIZE_PROPERTY} bytes.
+ */
+public class AllocatedSize {
+
+    public static final String BLOCK_SIZE_PROPERTY = AllocatedSize.class.getName() + ".blockSize";
+
+    // lstat reports number of 512-byte blocks independently of block size of the file system
+    private static final long STAT_BLOCK_SIZE = 512;
+
+    private static final long BLOCK_SIZE = Long.getLong(BLOCK_SIZE_PROPERTY, 4096);
+
+    private static volatile boolean nativeAvailable = true;
+
+    /**
+     * @param f file or directory, symlinks are not followed
+     * @param length apparent size of the file which is used if allocated size can not be read
+     * @return allocated size in bytes
+     */
+    public static long get(File f, long length){
+        if(nativeAvailable){
+            try{
+                long blocks = PosixAPI.get().lstat(f.getPath()).blocks();
+                if(blocks >= 0)
+                    return blocks * STAT_BLOCK_SIZE;
+            }
+            catch(LinkageError e){
+                disableNative(e);
+            }
+            catch(RuntimeException e){
+                //file was removed or lstat is not implemented on this platform
+                if(!f.exists() && !DiskUsageUtil.isSymlink(f))
+                    return 0;
+                disableNative(e);
+            }
+        }
+        return roundUp(length, BLOCK_SIZE);
+    }
+
+    static long roundUp(long length, long blockSize){
+        if(length <= 0)
+            return 0;
+        return ((length - 1) / blockSize + 1) * blockSize;
+    }
+
+    private static void disableNative(Throwable t){
+        nativeAvailable = false;
+        DiskUsageWalker.LOGGER.info("Allocated size of files can not be read natively, it is estimated from length of files: " + t);
+    }
+}
@@ -6,26 +6,135 @@ import hudson.model.BuildBadgeAction;
 import hudson.model.ItemGroup;
 import hudson.model.ProminentProjectAction;
 import hudson.model.Run;
+import jenkins.model.Jenkins;
 
 /**
- * Disk usage information for a single build
+ * Disk usage information for a single build. Sizes are stored in {@link BuildSizeIndex} of the job, so recording
+ * them does not save the build. Sizes which older versions stored in build.xml are moved to the index when they
+ * are read for the first time.
  * @author dvrzalik
  */
 //TODO really implementsProminentProjectAction???
 public class BuildDiskUsageAction implements ProminentProjectAction, BuildBadgeAction {
 
+    // sizes stored in build.xml by older versions, they are null once they were moved to BuildSizeIndex
+    @Deprecated
     Long buildDiskUsage;
+    @Deprecated
+    Long uniqueDiskUsage;
+    @Deprecated
+    Long allocatedDiskUsage;
     AbstractBuild build;
     @Deprecated
     DiskUsage diskUsage;
 
     public BuildDiskUsageAction(AbstractBuild build, long diskUsage) {
-        this.buildDiskUsage = diskUsage;
         this.build = build;
+        record(diskUsage, diskUsage, diskUsage);
     }
         
     public void setDiskUsage(Long diskUsage){
-        this.buildDiskUsage=diskUsage;
+        BuildSizeIndex.Entry entry = getEntry();
+        long size = getSize(diskUsage);
+        if(entry==null){
+            record(size, size, size);
+        }
+        else{
+            //unique and allocated sizes which were not counted separately follow the apparent size
+            record(size, entry.getUniqueSize()==entry.getSize() ? size : entry.getUniqueSize(), entry.getAllocatedSize()==entry.getSize() ? size : entry.getAllocatedSize());
+        }
+    }
+    
+    public void setUniqueDiskUsage(Long uniqueDiskUsage){
+        BuildSizeIndex.Entry entry = getEntry();
+        long size = entry==null ? 0 : entry.getSize();
+        record(size, uniqueDiskUsage==null ? size : uniqueDiskUsage, entry==null ? size : entry.getAllocatedSize());
+    }
+    
+    public void setAllocatedDiskUsage(Long allocatedDiskUsage){
+        BuildSizeIndex.Entry entry = getEntry();
+        long size = entry==null ? 0 : entry.getSize();
+        record(size, entry==null ? size : entry.getUniqueSize(), allocatedDiskUsage==null ? size : allocatedDiskUsage);
+    }
+    
+    private static long getSize(Long size){
+        return size==null ? 0 : size;
+    }
+    
+    /**
+     * @return entry of the build in {@link BuildSizeIndex}, sizes stored in build.xml by older versions are moved 
+     * to the index if it does not contain the build yet
+     */
+    private BuildSizeIndex.Entry getEntry(){
+        if(build==null)
+            return null;
+        BuildSizeIndex index = BuildSizeIndex.get(build.getProject());
+        BuildSizeIndex.Entry entry = index.get(build.getNumber());
+        if(entry==null){
+            entry = migrateLegacySizes();
+            if(entry!=null){
+                record(entry);
+                //next save of the build does not store the sizes in build.xml any more
+                index.flush();
+            }
+        }
+        else if(buildDiskUsage!=null){
+            //sizes were read from build.xml when the index was created, they are not saved with the build again
+            migrateLegacySizes();
+        }
+        return entry;
+    }
+    
+    /**
+     * @return entry created from sizes stored in build.xml by older versions, null if there are no such sizes; 
+     * the sizes are removed from the action, so they are not saved with the build again
+     */
+    synchronized BuildSizeIndex.Entry migrateLegacySizes(){
+        if(build==null || buildDiskUsage==null)
+            return null;
+        BuildSizeIndex.Entry entry = new BuildSizeIndex.Entry(build.getNumber(), build.getTimeInMillis(), buildDiskUsage, 
+                uniqueDiskUsage==null ? buildDiskUsage : uniqueDiskUsage, allocatedDiskUsage==null ? buildDiskUsage : allocatedDiskUsage, build.isKeepLog());
+        buildDiskUsage = null;
+        uniqueDiskUsage = null;
+        allocatedDiskUsage = null;
+        return entry;
+    }
+    
+    private void record(long size, long unique, long allocated){
+        if(build==null)
+            return;
+        record(new BuildSizeIndex.Entry(build.getNumber(), build.getTimeInMillis(), size, unique, allocated, build.isKeepLog()));
+    }
+    
+    /**
+     * Stores the entry in {@link BuildSizeIndex} and reports difference against the previous entry to the global 
+     * totals, see {@link GlobalDiskUsage}.
+     */
+    private void record(BuildSizeIndex.Entry entry){
+        BuildSizeIndex.Entry previous = BuildSizeIndex.get(build.getProject()).put(entry);
+        if(previous==null)
+            report(entry.getSize(), entry.getUniqueSize(), entry.getAllocatedSize());
+        else
+            report(entry.getSize() - previous.getSize(), entry.getUniqueSize() - previous.getUniqueSize(), entry.getAllocatedSize() - previous.getAllocatedSize());
+    }
+    
+    /**
+     * Subtracts the build from the global totals, it is called when the build is deleted.
+     */
+    void removeFromTotals(){
+        BuildSizeIndex.Entry entry = getEntry();
+        if(entry!=null)
+            report(-entry.getSize(), -entry.getUniqueSize(), -entry.getAllocatedSize());
+    }
+    
+    private void report(long sizeDelta, long uniqueDelta, long allocatedDelta){
+        if(build==null || Jenkins.getInstance()==null)
+            return;
+        DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
+        GlobalDiskUsage global = plugin==null ? null : plugin.getGlobalDiskUsageIfCounted();
+        if(global==null)
+            return;
+        global.addBuild(build.getProject().getFullName(), sizeDelta, uniqueDelta, allocatedDelta, build.isKeepLog() ? sizeDelta : 0);
     }
 
         public String getIconFileName() {
@@ -44,11 +153,30 @@ public class BuildDiskUsageAction implements ProminentProjectAction, BuildBadgeA
      * @return Disk usage of the build (included child builds)
      */
     public Long getDiskUsage() {
-        return buildDiskUsage;
+        BuildSizeIndex.Entry entry = getEntry();
+        return entry==null ? null : entry.getSize();
+    }
+    
+    /**
+     * @return Disk usage of the build without hard-linked files which are counted by other builds, 
+     * it is the same as apparent disk usage if hard links are not counted only once
+     */
+    public Long getUniqueDiskUsage() {
+        BuildSizeIndex.Entry entry = getEntry();
+        return entry==null ? null : entry.getUniqueSize();
+    }
+    
+    /**
+     * @return Size of blocks allocated on disk by the build, it is the same as apparent disk usage 
+     * if allocated size is not counted
+     */
+    public Long getAllocatedDiskUsage() {
+        BuildSizeIndex.Entry entry = getEntry();
+        return entry==null ? null : entry.getAllocatedSize();
     }
     
     public Long getAllDiskUsage(){
-        Long buildsDiskUsage = buildDiskUsage;
+        Long buildsDiskUsage = getSize(getDiskUsage());
         AbstractProject project = build.getProject();
         if(project instanceof ItemGroup){
            buildsDiskUsage += getBuildsDiskUsageAllSubItems((ItemGroup)project);
@@ -67,10 +195,10 @@ public class BuildDiskUsageAction implements ProminentProjectAction, BuildBadgeA
                 buildsDiskUsage += getBuildsDiskUsageAllSubItems((ItemGroup)item);
             }
             if(item instanceof AbstractProject){
-                AbstractProject project = (AbstractProject) item;
-                AbstractBuild b = (AbstractBuild) project.getBuildByNumber(build.getNumber());
-                if(b!=null && b.getAction(BuildDiskUsageAction.class)!=null)
-                    buildsDiskUsage += b.getAction(BuildDiskUsageAction.class).buildDiskUsage;
+                //sizes of sub-builds are read from the index, so the sub-builds are not loaded
+                BuildSizeIndex.Entry entry = BuildSizeIndex.get((AbstractProject) item).get(build.getNumber());
+                if(entry!=null)
+                    buildsDiskUsage += entry.getSize();
             }
         }
         return buildsDiskUsage;
@@ -2,11 +2,8 @@ package hudson.plugins.disk_usage;
 
 import antlr.ANTLRException;
 import hudson.Extension;
-import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.AperiodicWork;
-import hudson.model.Item;
-import hudson.model.ItemGroup;
 import hudson.model.TaskListener;
 import hudson.scheduler.CronTab;
 import java.io.IOException;
@@ -38,31 +35,42 @@ public class BuildDiskUsageCalculationThread extends DiskUsageCalculation {
     }   
     
     @Override
-    public void execute(TaskListener listener) throws IOException, InterruptedException { 
+    protected void execute(TaskListener listener, boolean requested) throws IOException, InterruptedException { 
         DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
         if(plugin.getConfiguration().isCalculationBuildsEnabled()  && !isExecuting()){
             executing = true;
             try{
-                List<Item> items = new ArrayList<Item>();
-                ItemGroup<? extends Item> itemGroup = Jenkins.getInstance();
-                items.addAll(DiskUsageUtil.getAllProjects(itemGroup));
-
-                for (Object item : items) {
-                    if (item instanceof AbstractProject) {
-                        AbstractProject project = (AbstractProject) item;
+                //hard-linked files are counted only once during one scan - into the first build which contains them
+                InodeRegistry registry = new InodeRegistry();
+                boolean fullRescan = plugin.getConfiguration().isFullRescanOfBuilds();
+                //all builds have to be walked if hard-linked files are counted only once
+                boolean audit = fullRescan || plugin.getConfiguration().isCountHardLinksOnce() || plugin.getConfiguration().isBuildsAuditDue();
+                List<DiskUsageScanScheduler.Unit> units = new ArrayList<DiskUsageScanScheduler.Unit>();
+                long targetPeriod = getTargetPeriod();
+                if(plugin.getConfiguration().isSinglePassCalculation() && plugin.getConfiguration().isCalculationJobsEnabled()){
+                    //jobs are calculated together with their builds
+                    for(AbstractProject project : DiskUsageUtil.getTopLevelProjects(Jenkins.getInstance())){
+                        units.add(new JobTreeUnit(project, registry, fullRescan, audit, targetPeriod, DiskUsageScanScheduler.PRIORITY_BUILDS));
+                    }
+                    DiskUsageScanScheduler.getInstance().scan(getUnitsToCalculate(units, requested || audit));
+                    if(plugin.getConfiguration().warnAboutAllJobsExceetedSize()){
+                        DiskUsageUtil.controlAllJobsExceedSize();
+                    }
+                }
+                else{
+                    for(AbstractProject project : DiskUsageUtil.getAllProjects(Jenkins.getInstance())){
                         if (!project.isBuilding()) {
-
-                            List<AbstractBuild> builds = project.getBuilds();
-                            for(AbstractBuild build : builds){  
-                                try{
-                                    DiskUsageUtil.calculateDiskUsageForBuild(build);  
-                                }
-                                catch(Exception e){
-                                    logger.log(Level.WARNING, "Error when recording disk usage for " + project.getName(), e);
-                                }
-                            }
+                            units.add(new BuildsUnit(project, registry, fullRescan, audit, targetPeriod, DiskUsageScanScheduler.PRIORITY_BUILDS));
                         }
                     }
+                    DiskUsageScanScheduler.getInstance().scan(getUnitsToCalculate(units, requested || audit));
+                }
+                if(audit){
+                    //global totals are counted again to correct changes which were not reported (e.g. locking of builds)
+                    plugin.refreshGlobalInformation();
+                    plugin.getConfiguration().setFullRescanOfBuilds(false);
+                    plugin.getConfiguration().setLastBuildsAudit(System.currentTimeMillis());
+                    plugin.getConfiguration().save();
                 }
             } catch (Exception ex) {
                 logger.log(Level.WARNING, "Error when recording disk usage for builds", ex);
@@ -71,6 +79,73 @@ public class BuildDiskUsageCalculationThread extends DiskUsageCalculation {
         }
     }
     
+    /**
+     * @param all if true (the run is requested or all builds have to be walked by an audit), fresh units are not skipped
+     */
+    private static List<DiskUsageScanScheduler.Unit> getUnitsToCalculate(List<DiskUsageScanScheduler.Unit> units, boolean all){
+        if(all)
+            return units;
+        return DiskUsageScanScheduler.getInstance().getStale(units);
+    }
+    
+    /**
+     * Calculation of builds of one job
+     */
+    static class BuildsUnit extends DiskUsageScanScheduler.Unit {
+        
+        private final AbstractProject project;
+        private final InodeRegistry registry;
+        private final boolean fullRescan;
+        private final boolean audit;
+        
+        public BuildsUnit(AbstractProject project, InodeRegistry registry, boolean fullRescan, boolean audit, long targetPeriod, int priority){
+            super("builds:" + project.getFullName(), getExpectedSize(project), targetPeriod, priority);
+            this.project = project;
+            this.registry = registry;
+            this.fullRescan = fullRescan;
+            this.audit = audit;
+        }
+        
+        @Override
+        protected void calculate() throws Exception {
+            //the job could start building while the unit was waiting
+            if(!project.isBuilding())
+                DiskUsageUtil.calculateDiskUsageForBuilds(project, registry, fullRescan, audit);
+        }
+    }
+    
+    /**
+     * Calculation of one top level job together with its builds and sub-jobs
+     */
+    static class JobTreeUnit extends DiskUsageScanScheduler.Unit {
+        
+        private final AbstractProject project;
+        private final InodeRegistry registry;
+        private final boolean fullRescan;
+        private final boolean audit;
+        
+        public JobTreeUnit(AbstractProject project, InodeRegistry registry, boolean fullRescan, boolean audit, long targetPeriod, int priority){
+            super("builds:" + project.getFullName(), getExpectedSize(project), targetPeriod, priority);
+            this.project = project;
+            this.registry = registry;
+            this.fullRescan = fullRescan;
+            this.audit = audit;
+        }
+        
+        @Override
+        protected void calculate() throws Exception {
+            DiskUsageUtil.calculateDiskUsageForJobTree(project, registry, fullRescan, audit);
+        }
+    }
+    
+    private static long getExpectedSize(AbstractProject project){
+        ProjectDiskUsageAction action = (ProjectDiskUsageAction) project.getAction(ProjectDiskUsageAction.class);
+        if(action==null)
+            return 0;
+        Long size = action.getAllBuildsDiskUsage();
+        return size==null ? 0 : size;
+    }
+    
     public CronTab getCronTab() throws ANTLRException{
         String cron = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration().getCountIntervalForBuilds();
         CronTab tab = new CronTab(cron);
@@ -0,0 +1,172 @@
+package hudson.plugins.disk_usage;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.util.DaemonThreadFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Calculates disk usage of finished builds and their workspaces in background threads, so completion of a build
+ * (release of its executor, triggering of downstream jobs) does not wait for walking of its directories.
+ *
+ * Builds of the same job which ran in the same workspace are coalesced - if a build is queued while an earlier one
+ * is still waiting, both build directories are calculated but calculation of the workspace is requested only once,
+ * after the latest build. Workspaces are walked by {@link DiskUsageCalculationQueue}, which merges requests of
+ * builds finished shortly one after another. If the queue is full, the build is left for the periodic calculation.
+ *
+ * A short summary is appended to the log file of the build when its calculation is finished (the build does not
+ * write into it any more).
+ */
+public class BuildDiskUsageQueue {
+
+    public static final String THREADS_PROPERTY = BuildDiskUsageQueue.class.getName() + ".threads";
+
+    public static final String CAPACITY_PROPERTY = BuildDiskUsageQueue.class.getName() + ".capacity";
+
+    private static final int THREADS = Integer.getInteger(THREADS_PROPERTY, 2);
+
+    private static final int CAPACITY = Integer.getInteger(CAPACITY_PROPERTY, 500);
+
+    // waiting calculations by job and workspace
+    private final Map<String,Request> pending = new HashMap<String,Request>();
+
+    private final ThreadPoolExecutor executor;
+
+    public BuildDiskUsageQueue(){
+        this(THREADS, CAPACITY);
+    }
+
+    public BuildDiskUsageQueue(int threads, int capacity){
+        threads = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, capacity)), new DaemonThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues calculation of the given build and its workspace.
+     *
+     * @return false if the queue is full and the build is not calculated
+     */
+    public boolean add(AbstractBuild build){
+        String key = getKey(build);
+        Request request;
+        synchronized(this){
+            if(executor.isShutdown())
+                return false;
+            request = pending.get(key);
+            if(request!=null){
+                request.builds.add(build);
+                return true;
+            }
+            request = new Request(key, build);
+            pending.put(key, request);
+        }
+        try{
+            executor.execute(request);
+            return true;
+        }
+        catch(RejectedExecutionException e){
+            synchronized(this){
+                pending.remove(key);
+            }
+            LOGGER.warning("Queue of disk usage calculations is full, build " + build.getFullDisplayName() + " is left for the periodic calculation.");
+            return false;
+        }
+    }
+
+    /**
+     * @return number of calculations which are waiting or running
+     */
+    public synchronized int getSize(){
+        return pending.size() + executor.getActiveCount();
+    }
+
+    /**
+     * Stops all threads, waiting calculations are discarded.
+     */
+    public void shutdown(){
+        executor.shutdownNow();
+    }
+
+    private static String getKey(AbstractBuild build){
+        FilePath workspace = build.getWorkspace();
+        String node = build.getBuiltOnStr();
+        return build.getProject().getFullName() + "|" + (node==null ? "" : node) + "|" + (workspace==null ? "" : workspace.getRemote());
+    }
+
+    private class Request implements Runnable {
+
+        private final String key;
+        private final List<AbstractBuild> builds = new ArrayList<AbstractBuild>();
+
+        public Request(String key, AbstractBuild build){
+            this.key = key;
+            builds.add(build);
+        }
+
+        public void run(){
+            List<AbstractBuild> toCalculate;
+            synchronized(BuildDiskUsageQueue.this){
+                //builds queued from now on start a new request
+                pending.remove(key);
+                toCalculate = new ArrayList<AbstractBuild>(builds);
+            }
+            AbstractBuild latest = toCalculate.get(toCalculate.size() - 1);
+            for(AbstractBuild build : toCalculate){
+                if(Thread.currentThread().isInterrupted())
+                    return;
+                try{
+                    appendToLog(build, calculate(build, build==latest));
+                }
+                catch(Exception e){
+                    LOGGER.log(Level.WARNING, "Disk usage plugin fails during build calculation disk space of job " + build.getParent().getDisplayName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates disk usage of the build and requests calculation of its workspace.
+     *
+     * @param includeWorkspace true if the build is the latest build of its request
+     * @return summary of the calculation
+     */
+    protected String calculate(AbstractBuild build, boolean includeWorkspace) throws Exception {
+        return DiskUsageBuildListener.calculate(build, includeWorkspace);
+    }
+
+    private static void appendToLog(AbstractBuild build, String summary){
+        File log = build.getLogFile();
+        //compressed log can not be appended
+        if(!log.exists() || log.getName().endsWith(".gz"))
+            return;
+        try{
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(log, true), build.getCharset()));
+            try{
+                writer.println(summary);
+            }
+            finally{
+                writer.close();
+            }
+        }
+        catch(IOException e){
+            LOGGER.log(Level.INFO, "Failed to write disk usage of build " + build.getFullDisplayName() + " to its log", e);
+        }
+    }
+
+    public static final Logger LOGGER = Logger.getLogger(BuildDiskUsageQueue.class.getName());
+}
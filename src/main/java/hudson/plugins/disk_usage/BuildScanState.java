@@ -0,0 +1,129 @@
+package hudson.plugins.disk_usage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Remembers state of build directories of one job at the time of their last calculation, so the next calculation
+ * can skip builds which have not changed. A build is dirty if it was not calculated yet, if modification time of its
+ * root directory changed (a file was added or removed, e.g. build.xml was saved because the build finished or
+ * keeping of its log was toggled) or if modification time of its archive directory changed (artifacts were
+ * added or deleted).
+ *
+ * Changes deeper in the build directory are not found, they are found by the periodic full audit.
+ */
+public class BuildScanState {
+
+    public static final String FILE_NAME = "disk-usage-builds";
+
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    private final Map<String,long[]> entries;
+
+    // entries of builds which exist, only they are saved
+    private final Map<String,long[]> current = new HashMap<String,long[]>();
+
+    private BuildScanState(File file, Map<String,long[]> entries){
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * Loads state of builds stored in the given directory (root directory of a job). If it can not be read,
+     * all builds are dirty.
+     */
+    public static BuildScanState load(File base){
+        File file = new File(base, FILE_NAME);
+        Map<String,long[]> entries = new HashMap<String,long[]>();
+        if(file.exists()){
+            try{
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try{
+                    if(in.readInt()==VERSION){
+                        int count = in.readInt();
+                        for(int i=0; i<count; i++){
+                            String id = in.readUTF();
+                            entries.put(id, new long[]{in.readLong(), in.readLong()});
+                        }
+                    }
+                }
+                finally{
+                    in.close();
+                }
+            }
+            catch(IOException e){
+                DiskUsageUtil.LOGGER.log(Level.WARNING, "Failed to load " + file + ", all builds will be calculated", e);
+                entries.clear();
+            }
+        }
+        return new BuildScanState(file, entries);
+    }
+
+    private static long[] getState(File buildDir){
+        return new long[]{buildDir.lastModified(), new File(buildDir, "archive").lastModified()};
+    }
+
+    /**
+     * @param buildDir root directory of a build
+     * @return true if the build changed since its last calculation
+     */
+    public boolean isDirty(File buildDir){
+        long[] state = entries.get(buildDir.getName());
+        if(state==null)
+            return true;
+        long[] now = getState(buildDir);
+        return state[0]!=now[0] || state[1]!=now[1];
+    }
+
+    /**
+     * Records current state of the build, it has to be called after the build is calculated and saved.
+     */
+    public void markClean(File buildDir){
+        current.put(buildDir.getName(), getState(buildDir));
+    }
+
+    /**
+     * Keeps previous state of the build which was not calculated, so it stays dirty if it was.
+     */
+    public void keep(File buildDir){
+        long[] state = entries.get(buildDir.getName());
+        if(state!=null)
+            current.put(buildDir.getName(), state);
+    }
+
+    /**
+     * Saves state of builds which were marked clean or kept, states of removed builds are dropped.
+     */
+    public void save() throws IOException{
+        File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try{
+            out.writeInt(VERSION);
+            out.writeInt(current.size());
+            for(Map.Entry<String,long[]> entry : current.entrySet()){
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+        }
+        finally{
+            out.close();
+        }
+        if(!tmp.renameTo(file)){
+            file.delete();
+            if(!tmp.renameTo(file))
+                throw new IOException("Failed to rename " + tmp + " to " + file);
+        }
+    }
+}
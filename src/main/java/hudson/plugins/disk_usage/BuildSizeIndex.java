@@ -0,0 +1,371 @@
+package hudson.plugins.disk_usage;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Job;
+import hudson.model.Run;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sizes of all builds of one job (number, timestamp, sizes and keeping of log), stored in a compact file
+ * {@link #FILE_NAME} in the root directory of the job next to disk-usage.xml. It is the only place where sizes
+ * of builds are stored - {@link BuildDiskUsageAction} reads and writes them here, so builds are not saved when
+ * their size changes, and aggregations of sizes of builds do not load build records of the job.
+ *
+ * The index is updated when sizes of a build are changed, when keeping of log of a build is changed and when
+ * a build is deleted. If the file does not exist yet, it is created from sizes which older versions stored
+ * in build.xml of builds, the files are read without loading the builds (see {@link LegacyBuildSizeReader}).
+ * Index of a deleted or renamed job is removed from memory by {@link DiskUsageItemListener}.
+ * Changes are kept in memory until {@link #flush()} is called - at the end of every calculation of builds,
+ * when a saved build changed the index and it was not saved for a while, and when the plugin is stopped.
+ */
+public class BuildSizeIndex {
+
+    public static final String FILE_NAME = "disk-usage-build-sizes";
+
+    public static final String FLUSH_INTERVAL_PROPERTY = BuildSizeIndex.class.getName() + ".flushInterval";
+
+    private static final long FLUSH_INTERVAL = Long.getLong(FLUSH_INTERVAL_PROPERTY, 10000);
+
+    private static final int VERSION = 1;
+
+    // indexes which are in memory, index of a deleted job is removed by forget(Job)
+    private static final Map<Job,BuildSizeIndex> indexes = new HashMap<Job,BuildSizeIndex>();
+
+    private final Job job;
+
+    // build number -> entry, sorted by number
+    private final TreeMap<Integer,Entry> entries = new TreeMap<Integer,Entry>();
+
+    private boolean dirty;
+
+    private boolean loaded;
+
+    private long lastFlush;
+
+    /**
+     * Size record of one build.
+     */
+    public static class Entry {
+
+        private final int number;
+        private final long timestamp;
+        private final long size;
+        private final long uniqueSize;
+        private final long allocatedSize;
+        private final boolean keepLog;
+
+        public Entry(int number, long timestamp, long size, long uniqueSize, long allocatedSize, boolean keepLog){
+            this.number = number;
+            this.timestamp = timestamp;
+            this.size = size;
+            this.uniqueSize = uniqueSize;
+            this.allocatedSize = allocatedSize;
+            this.keepLog = keepLog;
+        }
+
+        public int getNumber(){
+            return number;
+        }
+
+        public long getTimestamp(){
+            return timestamp;
+        }
+
+        public long getSize(){
+            return size;
+        }
+
+        public long getUniqueSize(){
+            return uniqueSize;
+        }
+
+        public long getAllocatedSize(){
+            return allocatedSize;
+        }
+
+        public boolean isKeepLog(){
+            return keepLog;
+        }
+
+        private boolean isSame(Entry e){
+            return e!=null && number==e.number && timestamp==e.timestamp && size==e.size && uniqueSize==e.uniqueSize
+                    && allocatedSize==e.allocatedSize && keepLog==e.keepLog;
+        }
+    }
+
+    BuildSizeIndex(Job job){
+        this.job = job;
+    }
+
+    /**
+     * @return index of the given job, it is loaded (or created from builds of the job) if it is not in memory yet
+     */
+    public static BuildSizeIndex get(Job job){
+        BuildSizeIndex index;
+        synchronized(indexes){
+            index = indexes.get(job);
+            if(index==null){
+                index = new BuildSizeIndex(job);
+                indexes.put(job, index);
+            }
+        }
+        synchronized(index){
+            if(!index.loaded){
+                index.loaded = true;
+                if(!index.load())
+                    index.rebuild();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Removes index of the given job from memory, e.g. when the job is deleted.
+     */
+    public static void forget(Job job){
+        synchronized(indexes){
+            indexes.remove(job);
+        }
+    }
+
+    /**
+     * Saves changes of index of the given job and removes it from memory, e.g. when the job is renamed. The index is
+     * loaded again from the new directory of the job when it is needed.
+     */
+    public static void evict(Job job){
+        BuildSizeIndex index;
+        synchronized(indexes){
+            index = indexes.remove(job);
+        }
+        if(index!=null)
+            index.flush();
+    }
+
+    public File getFile(){
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+    /**
+     * @return false if the file does not exist or it can not be read
+     */
+    synchronized boolean load(){
+        File file = getFile();
+        if(!file.exists())
+            return false;
+        try{
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try{
+                if(in.readInt()!=VERSION)
+                    return false;
+                int count = in.readInt();
+                for(int i=0; i<count; i++){
+                    Entry entry = new Entry(in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readBoolean());
+                    entries.put(entry.number, entry);
+                }
+                return true;
+            }
+            finally{
+                in.close();
+            }
+        }
+        catch(IOException e){
+            LOGGER.log(Level.WARNING, "Failed to load " + file + ", it will be created from builds", e);
+            entries.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Creates the index from sizes which older versions stored in build.xml of builds and saves it. The files are read
+     * directly from build directories of the job, so builds are not loaded.
+     */
+    synchronized void rebuild(){
+        entries.clear();
+        File[] dirs = job.getBuildDir().listFiles();
+        if(dirs!=null){
+            for(File dir : dirs){
+                if(!dir.isDirectory())
+                    continue;
+                //a build can have more directories (its id and a link named by its number), the first one is used
+                Entry entry = LegacyBuildSizeReader.read(dir);
+                if(entry!=null && !entries.containsKey(entry.number))
+                    entries.put(entry.number, entry);
+            }
+        }
+        dirty = true;
+        flush();
+    }
+
+    /**
+     * Updates keeping of log in the entry of the given saved build, or moves sizes stored in its build.xml by older
+     * versions to the index if the index does not contain the build.
+     *
+     * @return true if the entry changed
+     */
+    public synchronized boolean update(AbstractBuild build){
+        Entry entry = entries.get(build.getNumber());
+        if(entry==null){
+            entry = createEntry(build);
+            if(entry==null)
+                return false;
+        }
+        else{
+            if(entry.keepLog==build.isKeepLog())
+                return false;
+            entry = new Entry(entry.number, entry.timestamp, entry.size, entry.uniqueSize, entry.allocatedSize, build.isKeepLog());
+        }
+        entries.put(entry.number, entry);
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Sets entry of a build, it is used by {@link BuildDiskUsageAction} when sizes of its build change.
+     *
+     * @return previous entry of the build, null if there was none
+     */
+    public synchronized Entry put(Entry entry){
+        Entry previous = entries.get(entry.number);
+        if(entry.isSame(previous))
+            return previous;
+        entries.put(entry.number, entry);
+        dirty = true;
+        return previous;
+    }
+
+    public synchronized boolean remove(int number){
+        if(entries.remove(number)==null)
+            return false;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Removes entries of builds which are not in the given numbers, e.g. builds removed outside of Jenkins.
+     *
+     * @return true if some entry was removed
+     */
+    public synchronized boolean retain(Collection<Integer> numbers){
+        if(!entries.keySet().retainAll(numbers))
+            return false;
+        dirty = true;
+        return true;
+    }
+
+    public synchronized Entry get(int number){
+        return entries.get(number);
+    }
+
+    /**
+     * @return entries sorted by build number
+     */
+    public synchronized List<Entry> getEntries(){
+        return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+    }
+
+    /**
+     * @param older only builds started before this time are counted, null means all
+     * @param younger only builds started after this time are counted, null means all
+     * @return sizes of builds - apparent, unique, allocated and size of builds with kept log
+     */
+    public synchronized long[] sum(Long older, Long younger){
+        long[] sum = new long[4];
+        for(Entry entry : entries.values()){
+            if(older!=null && entry.timestamp >= older)
+                continue;
+            if(younger!=null && entry.timestamp <= younger)
+                continue;
+            sum[0] += entry.size;
+            sum[1] += entry.uniqueSize;
+            sum[2] += entry.allocatedSize;
+            if(entry.keepLog)
+                sum[3] += entry.size;
+        }
+        return sum;
+    }
+
+    /**
+     * Saves the index if it changed since it was saved the last time.
+     */
+    public synchronized void flush(){
+        if(!dirty)
+            return;
+        File file = getFile();
+        if(!file.getParentFile().exists())
+            return;
+        try{
+            File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try{
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for(Entry entry : entries.values()){
+                    out.writeInt(entry.number);
+                    out.writeLong(entry.timestamp);
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.uniqueSize);
+                    out.writeLong(entry.allocatedSize);
+                    out.writeBoolean(entry.keepLog);
+                }
+            }
+            finally{
+                out.close();
+            }
+            if(!tmp.renameTo(file)){
+                file.delete();
+                if(!tmp.renameTo(file))
+                    throw new IOException("Failed to rename " + tmp + " to " + file);
+            }
+            dirty = false;
+            lastFlush = System.currentTimeMillis();
+        }
+        catch(IOException e){
+            LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+        }
+    }
+
+    /**
+     * Updates index of the job of the given saved build. The index is saved if it was not saved for
+     * {@link #FLUSH_INTERVAL} milliseconds, so saving of many builds during a calculation does not save it every time.
+     */
+    public static void buildSaved(Run run){
+        if(!(run instanceof AbstractBuild))
+            return;
+        BuildSizeIndex index = get(run.getParent());
+        synchronized(index){
+            if(index.update((AbstractBuild) run) && System.currentTimeMillis() - index.lastFlush > FLUSH_INTERVAL)
+                index.flush();
+        }
+    }
+
+    /**
+     * Saves all changed indexes which are in memory.
+     */
+    public static void flushAll(){
+        List<BuildSizeIndex> all;
+        synchronized(indexes){
+            all = new ArrayList<BuildSizeIndex>(indexes.values());
+        }
+        for(BuildSizeIndex index : all){
+            index.flush();
+        }
+    }
+
+    public static final Logger LOGGER = Logger.getLogger(BuildSizeIndex.class.getName());
+}
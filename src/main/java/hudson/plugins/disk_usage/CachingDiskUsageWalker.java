@@ -0,0 +1,194 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Walker which does not list directories whose modification time has not changed since the previous walk,
+ * it uses size of their files from {@link DirectoryCache} instead. Only sub-directories of such
+ * directories are checked, so a walk of an unchanged tree costs one stat call per directory.
+ *
+ * The cache is used only if no files are excluded and no {@link InodeRegistry} is set (hard-linked files
+ * can be counted only if every file is visited), otherwise the tree is walked by {@link StreamingDiskUsageWalker}.
+ *
+ * This class must not be loaded if java.nio.file is not available - see {@link DiskUsageWalker#isNioAvailable()}.
+ */
+public class CachingDiskUsageWalker extends DiskUsageWalker {
+
+    private final DirectoryCache cache;
+
+    public CachingDiskUsageWalker(DirectoryCache cache){
+        this.cache = cache;
+    }
+
+    public DirectoryCache getCache(){
+        return cache;
+    }
+
+    @Override
+    public Long getFileSize(File f, ExcludedPaths excluded) throws IOException {
+        return walk(f, excluded).getSize();
+    }
+
+    @Override
+    public DiskUsageWalkResult walk(File f, ExcludedPaths excluded) throws IOException {
+        if(!excluded.isEmpty() || getInodeRegistry()!=null){
+            DiskUsageWalker walker = new StreamingDiskUsageWalker();
+            walker.setInodeRegistry(getInodeRegistry());
+            walker.setCountAllocatedSize(isCountAllocatedSize());
+            walker.setDeadline(getDeadline());
+            return walker.walk(f, excluded);
+        }
+        Path root = f.getAbsoluteFile().toPath();
+        BasicFileAttributes attributes;
+        try{
+            attributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch(NoSuchFileException e){
+            return new DiskUsageWalkResult(0, false);
+        }
+        if(attributes.isSymbolicLink()){
+            return new DiskUsageWalkResult(f.length(), false);
+        }
+        if(!attributes.isDirectory()){
+            long allocatedSize = getAllocatedSize(isCountAllocatedSize(), root.toFile(), attributes.size());
+            return new DiskUsageWalkResult(attributes.size(), attributes.size(), allocatedSize, false);
+        }
+        Walk walk = new Walk(cache.getBase().getAbsoluteFile().toPath(), isCountAllocatedSize());
+        walk.run(root, attributes);
+        return new DiskUsageWalkResult(walk.size, walk.size, walk.allocatedSize, walk.partial);
+    }
+
+    private class Walk {
+
+        private final Path base;
+        private final boolean countAllocatedSize;
+        private final Deque<Directory> pending = new ArrayDeque<Directory>();
+        private long size;
+        private long allocatedSize;
+        private boolean partial;
+        private final Thread caller = Thread.currentThread();
+        private long entries;
+
+        public Walk(Path base, boolean countAllocatedSize){
+            this.base = base;
+            this.countAllocatedSize = countAllocatedSize;
+        }
+
+        public void run(Path root, BasicFileAttributes attributes){
+            pending.push(new Directory(root, attributes));
+            while(!pending.isEmpty()){
+                if(isStopped(caller)){
+                    LOGGER.warning("Walking of " + root + " was stopped, its size is counted only partially.");
+                    partial = true;
+                    return;
+                }
+                Directory dir = pending.pop();
+                entries++;
+                reportProgress(dir.path.toString(), dir.path.getNameCount() - root.getNameCount(), size, entries);
+                size += dir.attributes.size();
+                allocatedSize += getAllocatedSize(countAllocatedSize, dir.path.toFile(), dir.attributes.size());
+                String key = base.relativize(dir.path).toString();
+                long lastModified = dir.attributes.lastModifiedTime().toMillis();
+                DirectoryCache.Entry entry = cache.get(key);
+                if(entry!=null && entry.getLastModified()==lastModified && (!countAllocatedSize || entry.getFilesAllocatedSize() >= 0)){
+                    reuse(dir, key, entry);
+                }
+                else{
+                    list(dir, key, lastModified);
+                }
+            }
+        }
+
+        private void reuse(Directory dir, String key, DirectoryCache.Entry entry){
+            size += entry.getFilesSize();
+            allocatedSize += countAllocatedSize ? entry.getFilesAllocatedSize() : entry.getFilesSize();
+            for(String name : entry.getDirectories()){
+                Path child = dir.path.resolve(name);
+                try{
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if(attrs.isDirectory())
+                        pending.push(new Directory(child, attrs));
+                }
+                catch(IOException e){
+                    LOGGER.info("Failed to read attributes of " + child + " - ignoring");
+                }
+            }
+            cache.keep(key, entry);
+        }
+
+        private void list(Directory dir, String key, long lastModified){
+            long filesSize = 0;
+            long filesAllocatedSize = 0;
+            List<String> directories = new ArrayList<String>();
+            boolean complete = true;
+            try{
+                DirectoryStream<Path> stream = Files.newDirectoryStream(dir.path);
+                try{
+                    for(Path child : stream){
+                        BasicFileAttributes attrs;
+                        try{
+                            attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        }
+                        catch(IOException e){
+                            long length = child.toFile().length();
+                            size += length;
+                            allocatedSize += length;
+                            complete = false;
+                            LOGGER.info("Failed to read attributes of " + child + " - ignoring");
+                            continue;
+                        }
+                        if(attrs.isSymbolicLink())
+                            continue;
+                        if(attrs.isDirectory()){
+                            directories.add(child.getFileName().toString());
+                            pending.push(new Directory(child, attrs));
+                        }
+                        else{
+                            filesSize += attrs.size();
+                            filesAllocatedSize += getAllocatedSize(countAllocatedSize, child.toFile(), attrs.size());
+                        }
+                    }
+                }
+                finally{
+                    stream.close();
+                }
+            }
+            catch(IOException e){
+                complete = false;
+                LOGGER.info("Failed to list files in " + dir.path + " - ignoring");
+            }
+            catch(DirectoryIteratorException e){
+                complete = false;
+                LOGGER.info("Failed to list all files in " + dir.path + " - ignoring");
+            }
+            size += filesSize;
+            allocatedSize += filesAllocatedSize;
+            if(complete){
+                cache.put(key, new DirectoryCache.Entry(lastModified, filesSize, countAllocatedSize ? filesAllocatedSize : -1, directories.toArray(new String[directories.size()])));
+            }
+        }
+    }
+
+    private static class Directory {
+
+        private final Path path;
+        private final BasicFileAttributes attributes;
+
+        public Directory(Path path, BasicFileAttributes attributes){
+            this.path = path;
+            this.attributes = attributes;
+        }
+    }
+}
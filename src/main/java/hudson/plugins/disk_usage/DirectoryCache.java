@@ -0,0 +1,345 @@
+package hudson.plugins.disk_usage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Persisted fingerprints of directories of one job. For every directory it keeps its modification time,
+ * size of files directly contained in it and names of its sub-directories. Entries of a directory change
+ * only if its modification time changes, so the directory does not have to be listed again while its
+ * modification time is the same - only its sub-directories are checked.
+ *
+ * Modification of content of an existing file does not change modification time of its directory, so
+ * such change is found only by a full rescan - see {@link #setFullRescan(boolean)}.
+ *
+ * A directory is cached only if its modification time is older than {@link #MARGIN_PROPERTY} milliseconds
+ * measured by the clock of the file system (it can differ from the clock of Jenkins, e.g. on NFS), so a
+ * directory which is changed more times during the same tick of the file system clock is never cached. The clock
+ * is read by a temporary file next to the cache file, nothing is written into the walked directory (it can be
+ * a workspace used by a running build, and a written file would change modification time of its root).
+ *
+ * The same cache is used on slaves for workspaces, there the cache file is stored under the root directory of
+ * the slave (see {@link #load(File, File)}), so it is removed together with the slave. The file remembers the path
+ * of the walked directory and it is not used for another one. At most {@link #MAX_ENTRIES_PROPERTY} entries are
+ * saved, directories without entry are simply listed again.
+ *
+ * The cache is not thread safe, it is used by one calculation at a time. More calculations can save caches of the
+ * same directory at the same time (e.g. a periodic and a requested one), so every save writes its own temporary file
+ * which replaces the cache file, and the last saved cache wins.
+ */
+public class DirectoryCache {
+
+    public static final String FILE_NAME = "disk-usage-cache";
+
+    public static final String MARGIN_PROPERTY = DirectoryCache.class.getName() + ".margin";
+
+    private static final long MARGIN = Long.getLong(MARGIN_PROPERTY, 10000);
+
+    public static final String MAX_ENTRIES_PROPERTY = DirectoryCache.class.getName() + ".maxEntries";
+
+    private static final int MAX_ENTRIES = Integer.getInteger(MAX_ENTRIES_PROPERTY, 500000);
+
+    private static final int VERSION = 2;
+
+    private final File file;
+
+    private final File base;
+
+    private final Map<String,Entry> entries;
+
+    // entries which were used or created since loading, only they are saved
+    private final Map<String,Entry> visited = new HashMap<String,Entry>();
+
+    private long clockOffset;
+
+    // null until the clock offset is measured (by the first stored entry), false if the cache file can not be written
+    private Boolean writable;
+
+    private boolean fullRescan;
+
+    // time of the last walk which did not use cached entries
+    private long lastFullRescan;
+
+    private DirectoryCache(File file, File base, Map<String,Entry> entries, long lastFullRescan){
+        this.file = file;
+        this.base = base;
+        this.entries = entries;
+        this.lastFullRescan = lastFullRescan;
+    }
+
+    /**
+     * Loads cache of directories stored in the given directory (usually root directory of a job). If the cache
+     * can not be read, empty cache is returned.
+     */
+    public static DirectoryCache load(File base){
+        return load(base, new File(base, FILE_NAME));
+    }
+
+    /**
+     * Loads cache of directories under the given base directory from the given file. If the cache can not be read
+     * or it was saved for another base directory, empty cache is returned.
+     */
+    public static DirectoryCache load(File base, File file){
+        Map<String,Entry> entries = new HashMap<String,Entry>();
+        long lastFullRescan = 0;
+        if(file.exists()){
+            try{
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try{
+                    if(in.readInt()==VERSION && in.readUTF().equals(base.getAbsolutePath())){
+                        lastFullRescan = in.readLong();
+                        int count = in.readInt();
+                        for(int i=0; i<count; i++){
+                            String path = in.readUTF();
+                            entries.put(path, Entry.read(in));
+                        }
+                    }
+                }
+                finally{
+                    in.close();
+                }
+            }
+            catch(IOException e){
+                DiskUsageUtil.LOGGER.log(Level.WARNING, "Failed to load " + file + ", all directories will be walked", e);
+                entries.clear();
+                lastFullRescan = 0;
+            }
+        }
+        return new DirectoryCache(file, base, entries, lastFullRescan);
+    }
+
+    /**
+     * Measures difference between clock of the file system of the cache file and clock of this JVM by touching
+     * a temporary file next to the cache file. It is called only when an entry is going to be stored, so loading
+     * of the cache does not create any file.
+     */
+    private void measureClockOffset(){
+        Long offset = null;
+        try{
+            File tmp = createTemporaryFile();
+            try{
+                long fileSystemTime = tmp.lastModified();
+                offset = fileSystemTime > 0 ? fileSystemTime - System.currentTimeMillis() : 0;
+            }
+            finally{
+                tmp.delete();
+            }
+        }
+        catch(IOException e){
+            DiskUsageUtil.LOGGER.log(Level.FINE, "Cache " + file + " can not be written, directories will not be cached", e);
+        }
+        //the cache can not be saved anyway, so no entry is stored
+        writable = offset!=null;
+        if(offset!=null)
+            clockOffset = offset;
+    }
+
+    /**
+     * @return new empty file next to the cache file, its name is unique, so more calculations can save the same cache at once
+     */
+    private File createTemporaryFile() throws IOException{
+        return File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    }
+
+    /**
+     * @param fullRescan if true, cached entries are not used, but the cache is filled again
+     */
+    public void setFullRescan(boolean fullRescan){
+        this.fullRescan = fullRescan;
+    }
+
+    public boolean isFullRescan(){
+        return fullRescan;
+    }
+
+    /**
+     * @return time of the last complete walk which did not use cached entries, 0 if it is not known
+     */
+    public long getLastFullRescan(){
+        return lastFullRescan;
+    }
+
+    /**
+     * Records that the tree was completely walked without cached entries, it should be called after a complete full rescan.
+     */
+    public void fullRescanDone(){
+        lastFullRescan = System.currentTimeMillis();
+    }
+
+    /**
+     * @param path path relative to the base directory
+     * @return cached entry or null if there is no entry or a full rescan is done
+     */
+    public Entry get(String path){
+        if(fullRescan)
+            return null;
+        return entries.get(path);
+    }
+
+    /**
+     * Marks entry as still valid, so it is saved.
+     */
+    public void keep(String path, Entry entry){
+        visited.put(path, entry);
+    }
+
+    /**
+     * Marks all loaded entries as still valid, e.g. if only some trees were walked.
+     */
+    public void keepAll(){
+        for(Map.Entry<String,Entry> entry : entries.entrySet()){
+            if(!visited.containsKey(entry.getKey()))
+                visited.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Stores entry of a listed directory if its modification time is stable enough.
+     */
+    public void put(String path, Entry entry){
+        if(isStable(entry.lastModified))
+            visited.put(path, entry);
+    }
+
+    boolean isStable(long lastModified){
+        if(writable==null)
+            measureClockOffset();
+        if(!writable)
+            return false;
+        return lastModified < System.currentTimeMillis() + clockOffset - MARGIN;
+    }
+
+    public File getBase(){
+        return base;
+    }
+
+    public int size(){
+        return visited.size();
+    }
+
+    /**
+     * Saves entries which were used or created since loading, entries of directories which were not
+     * walked (e.g. of removed builds) are dropped. At most {@link #MAX_ENTRIES_PROPERTY} entries are saved.
+     */
+    public void save() throws IOException{
+        File tmp = createTemporaryFile();
+        boolean renamed = false;
+        try{
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try{
+                int count = Math.min(visited.size(), MAX_ENTRIES);
+                out.writeInt(VERSION);
+                out.writeUTF(base.getAbsolutePath());
+                out.writeLong(lastFullRescan);
+                out.writeInt(count);
+                for(Map.Entry<String,Entry> entry : visited.entrySet()){
+                    if(count-- == 0)
+                        break;
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            }
+            finally{
+                out.close();
+            }
+            if(!tmp.renameTo(file)){
+                file.delete();
+                if(!tmp.renameTo(file))
+                    throw new IOException("Failed to rename " + tmp + " to " + file);
+            }
+            renamed = true;
+        }
+        finally{
+            if(!renamed)
+                tmp.delete();
+        }
+    }
+
+    /**
+     * Deletes cache files in the given directory which have not been saved for the given time, e.g. caches of
+     * removed workspaces.
+     */
+    public static void deleteUnused(File directory, long maxAge){
+        File[] files = directory.listFiles();
+        if(files==null)
+            return;
+        long limit = System.currentTimeMillis() - maxAge;
+        for(File f : files){
+            if(f.isFile() && f.lastModified() < limit && !f.delete())
+                DiskUsageUtil.LOGGER.info("Failed to delete unused cache " + f);
+        }
+    }
+
+    /**
+     * Fingerprint of one directory.
+     */
+    public static class Entry {
+
+        private final long lastModified;
+
+        private final long filesSize;
+
+        private final long filesAllocatedSize;
+
+        private final String[] directories;
+
+        /**
+         * @param lastModified modification time of the directory
+         * @param filesSize size of files directly contained in the directory
+         * @param filesAllocatedSize allocated size of files directly contained in the directory, -1 if it was not counted
+         * @param directories names of sub-directories
+         */
+        public Entry(long lastModified, long filesSize, long filesAllocatedSize, String[] directories){
+            this.lastModified = lastModified;
+            this.filesSize = filesSize;
+            this.filesAllocatedSize = filesAllocatedSize;
+            this.directories = directories;
+        }
+
+        public long getLastModified(){
+            return lastModified;
+        }
+
+        public long getFilesSize(){
+            return filesSize;
+        }
+
+        public long getFilesAllocatedSize(){
+            return filesAllocatedSize;
+        }
+
+        public String[] getDirectories(){
+            return directories;
+        }
+
+        private void write(DataOutputStream out) throws IOException{
+            out.writeLong(lastModified);
+            out.writeLong(filesSize);
+            out.writeLong(filesAllocatedSize);
+            out.writeInt(directories.length);
+            for(String directory : directories){
+                out.writeUTF(directory);
+            }
+        }
+
+        private static Entry read(DataInputStream in) throws IOException{
+            long lastModified = in.readLong();
+            long filesSize = in.readLong();
+            long filesAllocatedSize = in.readLong();
+            String[] directories = new String[in.readInt()];
+            for(int i=0; i<directories.length; i++){
+                directories[i] = in.readUTF();
+            }
+            return new Entry(lastModified, filesSize, filesAllocatedSize, directories);
+        }
+    }
+}
@@ -1,16 +1,11 @@
 package hudson.plugins.disk_usage;
 
 import hudson.Extension;
-import hudson.FilePath;
 import hudson.model.AbstractBuild;
-import hudson.model.AbstractProject;
-import hudson.model.ItemGroup;
 import hudson.model.Node;
 import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
@@ -23,59 +18,84 @@ import jenkins.model.Jenkins;
 @Extension
 public class DiskUsageBuildListener extends RunListener<AbstractBuild>{
     
+    private static BuildDiskUsageQueue queue;
+    
     @Override
     public void onCompleted(AbstractBuild build, TaskListener listener){
         if(DiskUsageProjectActionFactory.DESCRIPTOR.isExcluded(build.getProject())){
             listener.getLogger().println("This job is excluded form disk usage calculation.");
             return;
         }
+        if(DiskUsageProjectActionFactory.DESCRIPTOR.isAsynchronousBuildCalculation()){
+            if(getQueue().add(build)){
+                listener.getLogger().println("Disk usage of build will be calculated in background.");
+                return;
+            }
+        }
         try{
-            //count build.xml too
-            build.save();
-            DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
             listener.getLogger().println("Started calculate disk usage of build");
-            Long startTimeOfBuildCalculation = System.currentTimeMillis();
-                DiskUsageUtil.calculateDiskUsageForBuild(build);
-                listener.getLogger().println("Finished Calculation of disk usage of build in " + DiskUsageUtil.formatTimeInMilisec(System.currentTimeMillis() - startTimeOfBuildCalculation));
-                DiskUsageProperty property = (DiskUsageProperty) build.getProject().getProperty(DiskUsageProperty.class);
-                if(property==null){
-                    property = new DiskUsageProperty();
-                    build.getProject().addProperty(property);
-                }
-                if(build.getWorkspace()!=null){
-                    ArrayList<FilePath> exceededFiles = new ArrayList<FilePath>();
-                    AbstractProject project = build.getProject();
-                    Node node = build.getBuiltOn();
-                    if(project instanceof ItemGroup){
-                        List<AbstractProject> projects = DiskUsageUtil.getAllProjects((ItemGroup) project);
-                        for(AbstractProject p: projects){
-                            DiskUsageProperty prop = (DiskUsageProperty) p.getProperty(DiskUsageProperty.class);
-                            if(prop==null){
-                                prop = new DiskUsageProperty();
-                                p.addProperty(prop);
-                            }
-                            prop.checkWorkspaces();
-                            Map<String,Long> paths = prop.getSlaveWorkspaceUsage().get(node.getNodeName());
-                            if(paths!=null && !paths.isEmpty()){
-                                for(String path: paths.keySet()){
-                                    exceededFiles.add(new FilePath(node.getChannel(),path));
-                                }
-                            }
-                        }
-                    }
-                    property.checkWorkspaces();
-                    listener.getLogger().println("Started calculate disk usage of workspace");
-                    Long startTimeOfWorkspaceCalculation = System.currentTimeMillis();
-                    Long size = DiskUsageUtil.calculateWorkspaceDiskUsageForPath(build.getWorkspace(),exceededFiles);
-                    listener.getLogger().println("Finished Calculation of disk usage of workspace in " + DiskUsageUtil.formatTimeInMilisec(System.currentTimeMillis() - startTimeOfWorkspaceCalculation));
-                    property.putSlaveWorkspaceSize(build.getBuiltOn(), build.getWorkspace().getRemote(), size);
-                    property.saveDiskUsage();
-                    DiskUsageUtil.controlorkspaceExceedSize(project);
-                }
-            }
-            catch(Exception ex){
-                listener.getLogger().println("Disk usage plugin fails during calculation disk usage of this build.");
-                    Logger.getLogger(getClass().getName()).log(Level.WARNING, "Disk usage plugin fails during build calculation disk space of job " + build.getParent().getDisplayName(), ex);
-            }
+            listener.getLogger().println(calculate(build, true));
+        }
+        catch(Exception ex){
+            listener.getLogger().println("Disk usage plugin fails during calculation disk usage of this build.");
+            Logger.getLogger(DiskUsageBuildListener.class.getName()).log(Level.WARNING, "Disk usage plugin fails during build calculation disk space of job " + build.getParent().getDisplayName(), ex);
+        }
+    }
+    
+    @Override
+    public void onDeleted(AbstractBuild build){
+        BuildDiskUsageAction action = build.getAction(BuildDiskUsageAction.class);
+        if(action!=null)
+            action.removeFromTotals();
+        BuildSizeIndex index = BuildSizeIndex.get(build.getProject());
+        if(index.remove(build.getNumber()))
+            index.flush();
+    }
+    
+    /**
+     * @return queue of builds which are calculated in background
+     */
+    public static synchronized BuildDiskUsageQueue getQueue(){
+        if(queue==null)
+            queue = new BuildDiskUsageQueue();
+        return queue;
+    }
+    
+    static synchronized void shutdownQueue(){
+        if(queue!=null){
+            queue.shutdown();
+            queue = null;
+        }
+    }
+    
+    /**
+     * Calculates disk usage of the given finished build and optionally of its workspace.
+     * 
+     * @return summary of the calculation for the log of the build
+     */
+    static String calculate(AbstractBuild build, boolean includeWorkspace) throws IOException, InterruptedException{
+        Long startTimeOfBuildCalculation = System.currentTimeMillis();
+        DiskUsageUtil.calculateDiskUsageForBuild(build);
+        BuildSizeIndex.get(build.getProject()).flush();
+        StringBuilder summary = new StringBuilder();
+        summary.append("Finished Calculation of disk usage of build in ").append(DiskUsageUtil.formatTimeInMilisec(System.currentTimeMillis() - startTimeOfBuildCalculation));
+        BuildDiskUsageAction action = build.getAction(BuildDiskUsageAction.class);
+        if(action!=null)
+            summary.append(", build takes ").append(DiskUsageUtil.getSizeString(action.getDiskUsage()));
+        DiskUsageProperty property = (DiskUsageProperty) build.getProject().getProperty(DiskUsageProperty.class);
+        if(property==null){
+            property = new DiskUsageProperty();
+            build.getProject().addProperty(property);
+        }
+        if(includeWorkspace && build.getWorkspace()!=null && DiskUsageProjectActionFactory.DESCRIPTOR.isCalculationWorkspaceEnabled()){
+            Node node = build.getBuiltOn();
+            if(node==null)
+                return summary.toString();
+            //workspace is walked by the queue, so builds which finish shortly one after another walk it only once
+            property.putSlaveWorkspace(node, build.getWorkspace().getRemote());
+            DiskUsageCalculationQueue.getInstance().request(DiskUsageCalculationQueue.Scope.WORKSPACES, build.getProject());
+            summary.append("\nCalculation of disk usage of workspace is requested.");
         }
+        return summary.toString();
+    }
 }
@@ -0,0 +1,20 @@
+package hudson.plugins.disk_usage;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+
+/**
+ * Keeps {@link BuildSizeIndex} up to date with saved builds (e.g. when keeping of log of a build is changed).
+ */
+@Extension
+public class DiskUsageBuildSaveListener extends SaveableListener {
+
+    @Override
+    public void onChange(Saveable o, XmlFile file){
+        if(o instanceof Run)
+            BuildSizeIndex.buildSaved((Run) o);
+    }
+}
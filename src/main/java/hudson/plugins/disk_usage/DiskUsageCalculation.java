@@ -6,8 +6,10 @@ package hudson.plugins.disk_usage;
 
 import antlr.ANTLRException;
 import hudson.model.AsyncAperiodicWork;
+import hudson.model.TaskListener;
 import hudson.scheduler.CronTab;
 import hudson.triggers.Trigger;
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.logging.Level;
@@ -24,6 +26,26 @@ public abstract class DiskUsageCalculation extends AsyncAperiodicWork{
     
     public abstract boolean isExecuting();
     
+    /**
+     * Periodic run of the calculation, units which are fresh (e.g. calculated on request) are skipped.
+     */
+    @Override
+    public void execute(TaskListener listener) throws IOException, InterruptedException {
+        execute(listener, false);
+    }
+    
+    /**
+     * Run of the calculation requested by a user, all units are calculated.
+     */
+    public void executeRequested(TaskListener listener) throws IOException, InterruptedException {
+        execute(listener, true);
+    }
+    
+    /**
+     * @param requested if false, units which are fresh are skipped - see {@link DiskUsageScanScheduler#isFresh(String, long, long)}
+     */
+    protected abstract void execute(TaskListener listener, boolean requested) throws IOException, InterruptedException;
+    
     public String getThreadName(){
         return name +" thread";
     }
@@ -55,6 +77,23 @@ public abstract class DiskUsageCalculation extends AsyncAperiodicWork{
     
     public abstract CronTab getCronTab() throws ANTLRException;
     
+    /**
+     * @return time between two runs of the cron of this calculation, it is the target period in which
+     * units of this calculation should be calculated again - see {@link DiskUsageScanScheduler}
+     */
+    public long getTargetPeriod(){
+        try {
+            CronTab tab = getCronTab();
+            long next = tab.ceil(System.currentTimeMillis()).getTimeInMillis();
+            long following = tab.ceil(next + 60000).getTimeInMillis();
+            return following - next + 60000;
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, null, ex);
+            //it should not happen
+            return 1000*60*6;
+        }
+    }
+    
     @Override
     public long getRecurrencePeriod() {
         try {
@@ -0,0 +1,225 @@
+package hudson.plugins.disk_usage;
+
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * Central queue of requested recalculations. A request is identified by its scope (builds, jobs or workspaces) and
+ * its target - a job or the whole instance. Requests which are already waiting are not added again and requests for
+ * a job are merged into a waiting request for the whole instance of the same scope (and a request for the whole
+ * instance replaces the waiting requests for single jobs).
+ *
+ * Waiting requests are calculated by one thread {@link #DELAY_PROPERTY} milliseconds after the first of them was
+ * added, so triggers which come shortly one after another cause only one calculation. Requests for single jobs are
+ * walked by {@link DiskUsageScanScheduler} before the periodic calculations. Requests come from the disk usage page,
+ * from the page of a job and from finished builds (their workspaces).
+ */
+public class DiskUsageCalculationQueue {
+
+    public static final String DELAY_PROPERTY = DiskUsageCalculationQueue.class.getName() + ".delay";
+
+    private static final long DELAY = Long.getLong(DELAY_PROPERTY, 5000);
+
+    public enum Scope {
+        BUILDS, JOBS, WORKSPACES
+    }
+
+    private static DiskUsageCalculationQueue instance;
+
+    // scope -> full names of waiting jobs, null means the whole instance
+    private final Map<Scope,Set<String>> pending = new EnumMap<Scope,Set<String>>(Scope.class);
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+
+    private final long delay;
+
+    private boolean scheduled;
+
+    public DiskUsageCalculationQueue(){
+        this(DELAY);
+    }
+
+    /**
+     * @param delay time in milliseconds between the first waiting request and calculation of all waiting requests
+     */
+    public DiskUsageCalculationQueue(long delay){
+        this.delay = delay;
+    }
+
+    public static synchronized DiskUsageCalculationQueue getInstance(){
+        if(instance==null)
+            instance = new DiskUsageCalculationQueue();
+        return instance;
+    }
+
+    static synchronized void shutdown(){
+        if(instance!=null){
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    /**
+     * Drops waiting requests and stops the thread of the queue.
+     */
+    public synchronized void stop(){
+        executor.shutdownNow();
+        pending.clear();
+        scheduled = false;
+    }
+
+    /**
+     * Requests calculation of the given scope for the whole instance.
+     */
+    public void request(Scope scope){
+        request(scope, null);
+    }
+
+    /**
+     * Requests calculation of the given scope for one job, null means the whole instance.
+     */
+    public synchronized void request(Scope scope, AbstractProject project){
+        if(executor.isShutdown())
+            return;
+        if(pending.containsKey(scope)){
+            Set<String> jobs = pending.get(scope);
+            //the whole instance is already waiting
+            if(jobs==null)
+                return;
+            if(project==null)
+                pending.put(scope, null);
+            else
+                jobs.add(project.getFullName());
+        }
+        else{
+            Set<String> jobs = null;
+            if(project!=null){
+                jobs = new HashSet<String>();
+                jobs.add(project.getFullName());
+            }
+            pending.put(scope, jobs);
+        }
+        if(!scheduled){
+            scheduled = true;
+            executor.schedule(new Runnable(){
+                public void run(){
+                    calculate();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return true if calculation of the given scope is waiting for the given job (or for the whole instance)
+     */
+    public synchronized boolean isPending(Scope scope, AbstractProject project){
+        if(!pending.containsKey(scope))
+            return false;
+        Set<String> jobs = pending.get(scope);
+        return jobs==null || (project!=null && jobs.contains(project.getFullName()));
+    }
+
+    /**
+     * @return number of waiting requests, a request for the whole instance is counted as one
+     */
+    public synchronized int getSize(){
+        int size = 0;
+        for(Set<String> jobs : pending.values()){
+            size += jobs==null ? 1 : jobs.size();
+        }
+        return size;
+    }
+
+    private void calculate(){
+        Map<Scope,Set<String>> requests;
+        synchronized(this){
+            requests = new EnumMap<Scope,Set<String>>(pending);
+            pending.clear();
+            scheduled = false;
+        }
+        DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
+        for(Map.Entry<Scope,Set<String>> request : requests.entrySet()){
+            try{
+                if(request.getValue()==null)
+                    calculateAll(plugin, request.getKey());
+                else
+                    calculate(plugin, request.getKey(), getProjects(request.getValue()));
+            }
+            catch(Exception e){
+                LOGGER.log(Level.WARNING, "Error when recording disk usage of " + request.getKey().name().toLowerCase(), e);
+            }
+        }
+    }
+
+    private void calculateAll(DiskUsagePlugin plugin, Scope scope) throws Exception {
+        DiskUsageCalculation calculation;
+        switch(scope){
+            case BUILDS:
+                calculation = plugin.getBuildsDiskUsageThread();
+                break;
+            case JOBS:
+                calculation = plugin.getJobsDiskUsageThread();
+                break;
+            default:
+                calculation = plugin.getWorkspaceDiskUsageThread();
+        }
+        //calculation which is already running (e.g. the periodic one) is not started again
+        if(!calculation.isExecuting())
+            calculation.executeRequested(TaskListener.NULL);
+    }
+
+    private void calculate(DiskUsagePlugin plugin, Scope scope, List<AbstractProject> projects) throws Exception {
+        DiskUsageProjectActionFactory.DescriptorImpl configuration = plugin.getConfiguration();
+        List<DiskUsageScanScheduler.Unit> units = new ArrayList<DiskUsageScanScheduler.Unit>();
+        switch(scope){
+            case BUILDS:
+                if(!configuration.isCalculationBuildsEnabled())
+                    return;
+                long buildsPeriod = plugin.getBuildsDiskUsageThread().getTargetPeriod();
+                for(AbstractProject project : projects){
+                    if(!project.isBuilding())
+                        units.add(new BuildDiskUsageCalculationThread.BuildsUnit(project, new InodeRegistry(), false, false, buildsPeriod, DiskUsageScanScheduler.PRIORITY_REQUESTED));
+                }
+                break;
+            case JOBS:
+                if(!configuration.isCalculationJobsEnabled())
+                    return;
+                long jobsPeriod = plugin.getJobsDiskUsageThread().getTargetPeriod();
+                for(AbstractProject project : projects){
+                    units.add(new JobWithoutBuildsDiskUsageCalculation.JobUnit(project, jobsPeriod, DiskUsageScanScheduler.PRIORITY_REQUESTED));
+                }
+                break;
+            default:
+                if(!configuration.isCalculationWorkspaceEnabled() || projects.isEmpty())
+                    return;
+                units.add(new WorkspaceDiskUsageCalculationThread.WorkspacesUnit(projects, plugin.getWorkspaceDiskUsageThread().getTargetPeriod(), DiskUsageScanScheduler.PRIORITY_REQUESTED));
+        }
+        DiskUsageScanScheduler.getInstance().scan(units);
+    }
+
+    private static List<AbstractProject> getProjects(Set<String> names){
+        List<AbstractProject> projects = new ArrayList<AbstractProject>();
+        for(String name : names){
+            Item item = Jenkins.getInstance().getItemByFullName(name);
+            if(item instanceof AbstractProject && !DiskUsageProjectActionFactory.DESCRIPTOR.isExcluded((AbstractProject) item))
+                projects.add((AbstractProject) item);
+        }
+        return projects;
+    }
+
+    public static final Logger LOGGER = Logger.getLogger(DiskUsageCalculationQueue.class.getName());
+}
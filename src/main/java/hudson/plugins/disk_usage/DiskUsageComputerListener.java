@@ -0,0 +1,141 @@
+package hudson.plugins.disk_usage;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.util.DaemonThreadFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * Calculates workspaces of a slave shortly after it comes online, so workspaces of slaves which are often
+ * offline during the periodic calculation are not out of date. Only workspaces known from
+ * {@link DiskUsageProperty} are calculated.
+ *
+ * Nodes are calculated one by one, the first one {@link #DELAY_PROPERTY} milliseconds after it is connected and
+ * every next one at least {@link #INTERVAL_PROPERTY} milliseconds after the previous one started, so many slaves
+ * connected at the same time (e.g. after restart of Jenkins) are not all walked at once. Waiting calculations
+ * are dropped by {@link #shutdown()} when the plugin is stopped.
+ */
+@Extension
+public class DiskUsageComputerListener extends ComputerListener {
+
+    public static final String DELAY_PROPERTY = DiskUsageComputerListener.class.getName() + ".delay";
+
+    public static final String INTERVAL_PROPERTY = DiskUsageComputerListener.class.getName() + ".interval";
+
+    private static final long DELAY = Long.getLong(DELAY_PROPERTY, 60000);
+
+    private static final long INTERVAL = Long.getLong(INTERVAL_PROPERTY, 30000);
+
+    // nodes which are waiting for calculation
+    private final Set<String> queued = new HashSet<String>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+
+    private final long delay;
+
+    private final long interval;
+
+    private long nextStart;
+
+    public DiskUsageComputerListener(){
+        this(DELAY, INTERVAL);
+    }
+
+    /**
+     * @param delay time in milliseconds between connection of the first node and its calculation
+     * @param interval minimal time in milliseconds between starts of calculations of two nodes
+     */
+    public DiskUsageComputerListener(long delay, long interval){
+        this.delay = delay;
+        this.interval = interval;
+    }
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        Node node = c.getNode();
+        //master is always online during the periodic calculation
+        if(node==null || node instanceof Jenkins)
+            return;
+        DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
+        if(plugin==null || !plugin.getConfiguration().isCalculationWorkspaceEnabled() || !plugin.getConfiguration().isCalculateWorkspacesOnConnect())
+            return;
+        schedule(node.getNodeName());
+    }
+
+    /**
+     * Schedules calculation of workspaces of the node, nothing is scheduled if the node is already waiting or
+     * the listener is shut down.
+     */
+    synchronized void schedule(final String nodeName){
+        if(executor.isShutdown() || !queued.add(nodeName))
+            return;
+        long now = System.currentTimeMillis();
+        long start = Math.max(now + delay, nextStart);
+        nextStart = start + interval;
+        executor.schedule(new Runnable(){
+            public void run(){
+                synchronized(DiskUsageComputerListener.this){
+                    queued.remove(nodeName);
+                }
+                calculate(nodeName);
+            }
+        }, start - now, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of nodes which are waiting for calculation
+     */
+    public synchronized int getQueueSize(){
+        return queued.size();
+    }
+
+    /**
+     * Drops waiting calculations and interrupts the running one, it is called when the plugin is stopped.
+     */
+    public synchronized void shutdown(){
+        executor.shutdownNow();
+        queued.clear();
+    }
+
+    /**
+     * Calculates workspaces of the given node known from {@link DiskUsageProperty}.
+     */
+    protected void calculate(String nodeName){
+        Computer computer = Jenkins.getInstance().getComputer(nodeName);
+        if(computer==null || computer.getChannel()==null)
+            return;
+        List<AbstractProject> projects = new ArrayList<AbstractProject>();
+        for(AbstractProject project : DiskUsageUtil.getAllProjects(Jenkins.getInstance())){
+            DiskUsageProperty property = (DiskUsageProperty) project.getProperty(DiskUsageProperty.class);
+            if(property==null)
+                continue;
+            Map<String,Long> workspaces = property.getSlaveWorkspaceUsage().get(nodeName);
+            if(workspaces!=null && !workspaces.isEmpty())
+                projects.add(project);
+        }
+        if(projects.isEmpty())
+            return;
+        try{
+            DiskUsageUtil.calculateWorkspaceDiskUsage(projects, nodeName);
+        }
+        catch(Exception e){
+            LOGGER.log(Level.WARNING, "Error when recording disk usage of workspaces on node " + nodeName, e);
+        }
+    }
+
+    public static final Logger LOGGER = Logger.getLogger(DiskUsageComputerListener.class.getName());
+}
@@ -0,0 +1,403 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * History of global disk usage stored in append-only binary files with records of fixed width, one file for every
+ * {@link Resolution}. Every sample is appended to the raw series, rollups (hourly, daily and weekly) keep the last
+ * sample of every period - the sample of the current period is appended when the first sample of the next period
+ * comes, until then it is taken from the raw series.
+ *
+ * Records older than retention of their resolution are removed by rewriting the file when they are older than
+ * one and half of the retention, so the files are not rewritten by every sample. Records are read by positional
+ * reads of the file channel and the first record of the read period is found by binary search.
+ */
+public class DiskUsageHistory {
+
+    public static final int BUILDS = 0;
+    public static final int JOBS_WITHOUT_BUILDS = 1;
+    public static final int WORKSPACES = 2;
+    public static final int NON_SLAVE_WORKSPACES = 3;
+    public static final int ALL_SPACE = 4;
+    public static final int ALLOCATED_BUILDS = 5;
+    public static final int ALLOCATED_JOBS = 6;
+
+    static final int SIZE = 7;
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    private static final int MAGIC = 0x44554853;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    // time and values
+    private static final int RECORD_SIZE = 8 * (SIZE + 1);
+
+    public enum Resolution {
+        RAW(0), HOURLY(HOUR), DAILY(DAY), WEEKLY(7 * DAY);
+
+        private final long period;
+
+        private Resolution(long period){
+            this.period = period;
+        }
+
+        /**
+         * @return length of period of one record, 0 for raw samples
+         */
+        public long getPeriod(){
+            return period;
+        }
+
+        long getBucket(long time){
+            return time / period;
+        }
+    }
+
+    /**
+     * One record of the history.
+     */
+    public static class Sample {
+
+        private final long time;
+        private final long[] values;
+
+        /**
+         * @param values values indexed by the constants of {@link DiskUsageHistory}
+         */
+        public Sample(long time, long[] values){
+            this.time = time;
+            this.values = new long[SIZE];
+            System.arraycopy(values, 0, this.values, 0, SIZE);
+        }
+
+        public long getTime(){
+            return time;
+        }
+
+        /**
+         * @param index one of the constants of {@link DiskUsageHistory}
+         */
+        public long get(int index){
+            return values[index];
+        }
+    }
+
+    private final File dir;
+
+    private final Map<Resolution,Series> series = new EnumMap<Resolution,Series>(Resolution.class);
+
+    public DiskUsageHistory(File dir){
+        this.dir = dir;
+        for(Resolution resolution : Resolution.values()){
+            series.put(resolution, new Series(new File(dir, resolution.name().toLowerCase() + ".dat")));
+        }
+        Sample last = series.get(Resolution.RAW).getLast();
+        //sample of the current period of rollups is not written yet
+        for(Resolution resolution : Resolution.values()){
+            if(resolution==Resolution.RAW || last==null)
+                continue;
+            Series rollup = series.get(resolution);
+            Sample lastRollup = rollup.getLast();
+            if(lastRollup==null || resolution.getBucket(lastRollup.time) < resolution.getBucket(last.time))
+                rollup.pending = last;
+        }
+    }
+
+    /**
+     * @param days records of the given resolution older than this number of days are removed, 0 means never
+     */
+    public synchronized void setRetention(Resolution resolution, int days){
+        series.get(resolution).retention = days * DAY;
+    }
+
+    /**
+     * @return true if no sample was added yet
+     */
+    public synchronized boolean isEmpty(){
+        return series.get(Resolution.RAW).count==0;
+    }
+
+    /**
+     * @return time of the last added sample or -1 if no sample was added yet
+     */
+    public synchronized long getLastTime(){
+        Sample last = series.get(Resolution.RAW).getLast();
+        return last==null ? -1 : last.time;
+    }
+
+    /**
+     * Appends the sample to all resolutions, samples have to be added in order of their time.
+     *
+     * @return false if the sample could not be written
+     */
+    public synchronized boolean add(Sample sample){
+        if(!dir.exists() && !dir.mkdirs()){
+            LOGGER.warning("Can not create directory " + dir + " for disk usage history");
+            return false;
+        }
+        for(Resolution resolution : Resolution.values()){
+            Series s = series.get(resolution);
+            if(resolution==Resolution.RAW){
+                if(!s.append(sample))
+                    return false;
+            }
+            else{
+                if(s.pending!=null && resolution.getBucket(s.pending.time) < resolution.getBucket(sample.time))
+                    s.append(s.pending);
+                s.pending = sample;
+            }
+            s.removeOld(sample.time);
+        }
+        return true;
+    }
+
+    /**
+     * @return samples of the given resolution which are not older than the given time, sorted by time; the last
+     * sample of a rollup can belong to a period which has not finished yet
+     */
+    public synchronized List<Sample> getSamples(Resolution resolution, long from){
+        Series s = series.get(resolution);
+        List<Sample> samples = s.read(from);
+        if(s.pending!=null && s.pending.time >= from)
+            samples.add(s.pending);
+        return samples;
+    }
+
+    /**
+     * Records of one resolution in one file - header (magic number, version, number of values in record) and
+     * records, every record is time and values.
+     */
+    private static class Series {
+
+        private final File file;
+
+        private int count;
+
+        private long firstTime;
+
+        private long retention;
+
+        // last sample of the current period of rollup
+        private Sample pending;
+
+        Series(File file){
+            this.file = file;
+            load();
+        }
+
+        private void load(){
+            count = 0;
+            if(!file.exists())
+                return;
+            try{
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try{
+                    if(raf.length() < HEADER_SIZE || raf.readInt()!=MAGIC || raf.readInt()!=VERSION || raf.readInt()!=SIZE){
+                        LOGGER.warning("File " + file + " is not disk usage history of this version, it is ignored");
+                        return;
+                    }
+                    //record which was not written completely (e.g. by crash) is ignored and overwritten by the next one
+                    count = (int) ((raf.length() - HEADER_SIZE) / RECORD_SIZE);
+                    if(count > 0){
+                        raf.seek(HEADER_SIZE);
+                        firstTime = raf.readLong();
+                    }
+                }
+                finally{
+                    raf.close();
+                }
+            }
+            catch(IOException e){
+                LOGGER.log(Level.WARNING, "Failed to load disk usage history " + file, e);
+                count = 0;
+            }
+        }
+
+        Sample getLast(){
+            if(count==0)
+                return null;
+            List<Sample> samples = read(count - 1, count);
+            return samples.isEmpty() ? null : samples.get(0);
+        }
+
+        boolean append(Sample sample){
+            try{
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try{
+                    if(count==0)
+                        writeHeader(raf);
+                    //record which was not written completely is shorter than a record, so it is overwritten completely
+                    long position = HEADER_SIZE + (long) count * RECORD_SIZE;
+                    ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+                    write(buffer, sample);
+                    buffer.flip();
+                    FileChannel channel = raf.getChannel();
+                    while(buffer.hasRemaining()){
+                        channel.write(buffer, position + buffer.position());
+                    }
+                }
+                finally{
+                    raf.close();
+                }
+                if(count==0)
+                    firstTime = sample.time;
+                count++;
+                return true;
+            }
+            catch(IOException e){
+                LOGGER.log(Level.WARNING, "Failed to append to disk usage history " + file, e);
+                return false;
+            }
+        }
+
+        /**
+         * Rewrites the file without records older than retention if the oldest record is older than
+         * one and half of the retention.
+         */
+        void removeOld(long now){
+            if(retention<=0 || count==0 || firstTime >= now - retention - retention / 2)
+                return;
+            File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+            try{
+                RandomAccessFile source = new RandomAccessFile(file, "r");
+                RandomAccessFile target = new RandomAccessFile(tmp, "rw");
+                try{
+                    FileChannel channel = source.getChannel();
+                    int first = find(channel, now - retention);
+                    target.setLength(0);
+                    writeHeader(target);
+                    long position = HEADER_SIZE + (long) first * RECORD_SIZE;
+                    long length = (long) (count - first) * RECORD_SIZE;
+                    long copied = 0;
+                    while(copied < length){
+                        copied += channel.transferTo(position + copied, length - copied, target.getChannel());
+                    }
+                }
+                finally{
+                    source.close();
+                    target.close();
+                }
+                if(!tmp.renameTo(file)){
+                    file.delete();
+                    if(!tmp.renameTo(file))
+                        throw new IOException("Failed to rename " + tmp + " to " + file);
+                }
+            }
+            catch(IOException e){
+                LOGGER.log(Level.WARNING, "Failed to remove old records of disk usage history " + file, e);
+            }
+            load();
+        }
+
+        List<Sample> read(long from){
+            List<Sample> samples = new ArrayList<Sample>();
+            if(count==0)
+                return samples;
+            try{
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try{
+                    FileChannel channel = raf.getChannel();
+                    return read(channel, find(channel, from), count);
+                }
+                finally{
+                    raf.close();
+                }
+            }
+            catch(IOException e){
+                LOGGER.log(Level.WARNING, "Failed to read disk usage history " + file, e);
+                return samples;
+            }
+        }
+
+        private List<Sample> read(int start, int end){
+            try{
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try{
+                    return read(raf.getChannel(), start, end);
+                }
+                finally{
+                    raf.close();
+                }
+            }
+            catch(IOException e){
+                LOGGER.log(Level.WARNING, "Failed to read disk usage history " + file, e);
+                return new ArrayList<Sample>();
+            }
+        }
+
+        private List<Sample> read(FileChannel channel, int start, int end) throws IOException {
+            List<Sample> samples = new ArrayList<Sample>();
+            if(start >= end)
+                return samples;
+            ByteBuffer buffer = ByteBuffer.allocate((end - start) * RECORD_SIZE);
+            read(channel, buffer, HEADER_SIZE + (long) start * RECORD_SIZE);
+            for(int i = 0; i < end - start; i++){
+                samples.add(read(buffer, i));
+            }
+            return samples;
+        }
+
+        /**
+         * @return index of the first record which is not older than the given time
+         */
+        private int find(FileChannel channel, long time) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            int low = 0;
+            int high = count;
+            while(low < high){
+                int middle = (low + high) >>> 1;
+                buffer.clear();
+                read(channel, buffer, HEADER_SIZE + (long) middle * RECORD_SIZE);
+                if(buffer.getLong(0) < time)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+
+        private void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while(buffer.hasRemaining()){
+                if(channel.read(buffer, position + buffer.position()) < 0)
+                    throw new IOException("Unexpected end of file " + file);
+            }
+        }
+
+        private static void writeHeader(RandomAccessFile raf) throws IOException {
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(SIZE);
+            raf.writeInt(0);
+        }
+
+        private static void write(ByteBuffer buffer, Sample sample){
+            buffer.putLong(sample.time);
+            for(long value : sample.values){
+                buffer.putLong(value);
+            }
+        }
+
+        private static Sample read(ByteBuffer buffer, int index){
+            int position = index * RECORD_SIZE;
+            long[] values = new long[SIZE];
+            for(int i = 0; i < SIZE; i++){
+                values[i] = buffer.getLong(position + 8 * (i + 1));
+            }
+            return new Sample(buffer.getLong(position), values);
+        }
+    }
+
+    public static final Logger LOGGER = Logger.getLogger(DiskUsageHistory.class.getName());
+}
@@ -3,7 +3,10 @@ package hudson.plugins.disk_usage;
 import hudson.Extension;
 import hudson.model.AbstractProject;
 import hudson.model.Item;
+import hudson.model.Job;
 import hudson.model.listeners.ItemListener;
+import java.io.File;
+import jenkins.model.Jenkins;
 
 /*
  * To change this template, choose Tools | Templates
@@ -21,12 +24,39 @@ public class DiskUsageItemListener extends ItemListener{
     public void onDeleted(Item item) {
         if(item instanceof AbstractProject)
             DiskUsageProjectActionFactory.DESCRIPTOR.onDeleteJob((AbstractProject) item); 
+        if(item instanceof Job){
+            BuildSizeIndex.forget((Job) item);
+            ProjectDiskUsageSaver.getInstance().forget((Job) item);
+        }
+        GlobalDiskUsage global = getGlobalDiskUsage();
+        if(global!=null)
+            global.removeJob(item.getFullName());
     }
     
     @Override
      public void onRenamed(Item item, String oldName, String newName) {
          if(item instanceof AbstractProject)
             DiskUsageProjectActionFactory.DESCRIPTOR.onRenameJob(oldName, newName);
+        if(item instanceof Job){
+            //waiting changes belong to the old directory, they are written again into the new one
+            Job job = (Job) item;
+            BuildSizeIndex.evict(job);
+            ProjectDiskUsageSaver.getInstance().forget(new File(job.getRootDir().getParentFile(), oldName));
+            DiskUsageProperty property = (DiskUsageProperty) job.getProperty(DiskUsageProperty.class);
+            if(property!=null)
+                property.saveDiskUsage();
+        }
+        GlobalDiskUsage global = getGlobalDiskUsage();
+        if(global!=null){
+            String parent = item.getParent().getFullName();
+            String prefix = parent.isEmpty() ? "" : parent + "/";
+            global.renameJob(prefix + oldName, prefix + newName);
+        }
+    }
+    
+    private static GlobalDiskUsage getGlobalDiskUsage(){
+        DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
+        return plugin==null ? null : plugin.getGlobalDiskUsageIfCounted();
     }
     
 }
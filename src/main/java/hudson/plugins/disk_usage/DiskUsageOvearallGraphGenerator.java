@@ -20,18 +20,21 @@ public class DiskUsageOvearallGraphGenerator extends PeriodicWork {
 
 	@Override
 	public long getRecurrencePeriod() {
-		return PeriodicWork.DAY;
+		return PeriodicWork.HOUR;
 	}
 
 	@Override
 	protected void doRun() throws Exception {
             DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
-            plugin.refreshGlobalInformation();
             File jobsDir = new File(Jenkins.getInstance().getRootDir(), "jobs");
             Long freeJobsDirSpace = jobsDir.getTotalSpace();
             
-            DiskUsageProjectActionFactory.DESCRIPTOR.addHistory(new DiskUsageOvearallGraphGenerator.DiskUsageRecord(plugin.getCashedGlobalBuildsDiskUsage(), plugin.getGlobalSlaveDiskUsageWorkspace(), plugin.getCashedGlobalJobsWithoutBuildsDiskUsage(), freeJobsDirSpace, plugin.getCashedNonSlaveDiskUsageWorkspace()));
-            DiskUsageProjectActionFactory.DESCRIPTOR.save();
+            DiskUsageOvearallGraphGenerator.DiskUsageRecord record = new DiskUsageOvearallGraphGenerator.DiskUsageRecord(plugin.getCashedGlobalBuildsDiskUsage(), plugin.getGlobalSlaveDiskUsageWorkspace(), plugin.getCashedGlobalJobsWithoutBuildsDiskUsage(), freeJobsDirSpace, plugin.getCashedNonSlaveDiskUsageWorkspace());
+            if(plugin.getConfiguration().isCountAllocatedSize()){
+                record.setAllocatedUsage(plugin.getCashedGlobalAllocatedBuildsDiskUsage(), plugin.getCashedGlobalAllocatedJobsDiskUsage());
+            }
+            //totals are running counters, so a sample is cheap and it is appended to the history without saving configuration
+            plugin.addHistory(record);
 	}
         
         public static class DiskUsageRecord extends DiskUsage{
@@ -40,6 +43,9 @@ public class DiskUsageOvearallGraphGenerator extends PeriodicWork {
                 private Long jobsWithoutBuildsUsage = 0l;
                 private Long allSpace = 0l;
                 private Long diskUsageNonSlaveWorkspaces = 0l;
+                // sizes of blocks allocated on disk, null if they were not counted
+                private Long allocatedBuildsUsage;
+                private Long allocatedJobsUsage;
                 
 
 		public DiskUsageRecord(Long diskUsageBuilds, Long diskUsageWorkspaces, Long diskUsageJobsWithoutBuilds, Long allSpace, Long diskUsageNonSlaveWorkspaces){
@@ -56,6 +62,47 @@ public class DiskUsageOvearallGraphGenerator extends PeriodicWork {
 			};
 		}
                 
+                /**
+                 * Record of the given sample of {@link DiskUsageHistory}.
+                 */
+                DiskUsageRecord(DiskUsageHistory.Sample sample){
+                    this(sample.get(DiskUsageHistory.BUILDS), sample.get(DiskUsageHistory.WORKSPACES), sample.get(DiskUsageHistory.JOBS_WITHOUT_BUILDS), sample.get(DiskUsageHistory.ALL_SPACE), sample.get(DiskUsageHistory.NON_SLAVE_WORKSPACES));
+                    setAllocatedUsage(sample.get(DiskUsageHistory.ALLOCATED_BUILDS), sample.get(DiskUsageHistory.ALLOCATED_JOBS));
+                    date.setTime(sample.getTime());
+                }
+                
+                /**
+                 * @return sample of {@link DiskUsageHistory} with values of this record
+                 */
+                DiskUsageHistory.Sample toSample(){
+                    long[] values = new long[DiskUsageHistory.SIZE];
+                    values[DiskUsageHistory.BUILDS] = getBuildsDiskUsage();
+                    values[DiskUsageHistory.JOBS_WITHOUT_BUILDS] = getJobsDiskUsage() - getBuildsDiskUsage();
+                    values[DiskUsageHistory.WORKSPACES] = getWorkspacesDiskUsage();
+                    values[DiskUsageHistory.NON_SLAVE_WORKSPACES] = getNonSlaveWorkspacesUsage();
+                    values[DiskUsageHistory.ALL_SPACE] = getAllSpace();
+                    values[DiskUsageHistory.ALLOCATED_BUILDS] = getAllocatedBuildsDiskUsage();
+                    values[DiskUsageHistory.ALLOCATED_JOBS] = getAllocatedJobsDiskUsage();
+                    return new DiskUsageHistory.Sample(date.getTime(), values);
+                }
+                
+                public void setAllocatedUsage(Long allocatedBuildsUsage, Long allocatedJobsUsage){
+                    this.allocatedBuildsUsage = allocatedBuildsUsage;
+                    this.allocatedJobsUsage = allocatedJobsUsage;
+                }
+                
+                public Long getAllocatedBuildsDiskUsage(){
+                    if(allocatedBuildsUsage==null)
+                        return getBuildsDiskUsage();
+                    return allocatedBuildsUsage;
+                }
+                
+                public Long getAllocatedJobsDiskUsage(){
+                    if(allocatedJobsUsage==null)
+                        return getJobsDiskUsage();
+                    return allocatedJobsUsage;
+                }
+                
                 public Long getNonSlaveWorkspacesUsage(){
                     if(diskUsageNonSlaveWorkspaces==null)
                         return 0l;
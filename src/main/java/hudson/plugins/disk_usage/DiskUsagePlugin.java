@@ -4,6 +4,7 @@ import hudson.Extension;
 import hudson.Plugin;
 import hudson.Util;
 import hudson.model.*;
+import hudson.slaves.ComputerListener;
 import hudson.util.Graph;
 
 import java.io.File;
@@ -12,7 +13,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.ServletException;
 import jenkins.model.Jenkins;
 import org.jfree.data.category.DefaultCategoryDataset;
@@ -28,91 +31,135 @@ import org.kohsuke.stapler.StaplerResponse;
 @Extension
 public class DiskUsagePlugin extends Plugin {
     
-    private Long diskUsageBuilds = 0l;
-    private Long diskUsageJobsWithoutBuilds = 0l;
-    private Long diskUsageWorkspaces = 0l;
-    private Long diskUsageLockedBuilds = 0l;
-    private Long diskUsageNonSlaveWorkspaces = 0l;
+    // running totals of all jobs, they are counted by the first call of refreshGlobalInformation()
+    private transient GlobalDiskUsage globalDiskUsage = new GlobalDiskUsage();
+    
+    // history of global disk usage, it is loaded by the first call of getDiskUsageHistory()
+    private transient DiskUsageHistory history;
     
     public DiskUsagePlugin(){
     }
     
+    /**
+     * Counts all totals again from sizes recorded in all jobs and in their {@link BuildSizeIndex}. It iterates
+     * over all jobs, so it is called only when the totals are needed for the first time and after an audit of builds,
+     * the totals are kept up to date by changes of single builds and jobs otherwise.
+     */
     public void refreshGlobalInformation(){
-        diskUsageBuilds = 0l;
-        diskUsageWorkspaces = 0l;
-        diskUsageJobsWithoutBuilds = 0l;
-        diskUsageLockedBuilds = 0l;
-        diskUsageNonSlaveWorkspaces = 0l;
-        for(Item item: Jenkins.getInstance().getItems()){
-            if(item instanceof AbstractProject){
-                AbstractProject project = (AbstractProject) item;
-                ProjectDiskUsageAction action = (ProjectDiskUsageAction) project.getAction(ProjectDiskUsageAction.class);
-                diskUsageBuilds += action.getBuildsDiskUsage().get("all");
-                diskUsageWorkspaces += action.getAllDiskUsageWorkspace();
-                diskUsageJobsWithoutBuilds += action.getAllDiskUsageWithoutBuilds();
-                diskUsageLockedBuilds += action.getBuildsDiskUsage().get("locked");
-                diskUsageNonSlaveWorkspaces += action.getAllCustomOrNonSlaveWorkspaces();
+        Map<String,long[]> contributions = new HashMap<String,long[]>();
+        for(AbstractProject project : DiskUsageUtil.getAllProjects(Jenkins.getInstance())){
+            long[] contribution = new long[GlobalDiskUsage.SIZE];
+            //sizes of builds are read from the index, so builds are not loaded
+            long[] builds = BuildSizeIndex.get(project).sum(null, null);
+            contribution[GlobalDiskUsage.BUILDS] = builds[0];
+            contribution[GlobalDiskUsage.UNIQUE_BUILDS] = builds[1];
+            contribution[GlobalDiskUsage.ALLOCATED_BUILDS] = builds[2];
+            contribution[GlobalDiskUsage.LOCKED_BUILDS] = builds[3];
+            DiskUsageProperty property = (DiskUsageProperty) project.getProperty(DiskUsageProperty.class);
+            if(property!=null){
+                contribution[GlobalDiskUsage.JOBS_WITHOUT_BUILDS] = property.getDiskUsageWithoutBuilds();
+                contribution[GlobalDiskUsage.ALLOCATED_JOBS_WITHOUT_BUILDS] = property.getAllocatedDiskUsageWithoutBuilds();
+                contribution[GlobalDiskUsage.WORKSPACES] = property.getAllWorkspaceSize();
+                contribution[GlobalDiskUsage.NON_SLAVE_WORKSPACES] = property.getAllNonSlaveOrCustomWorkspaceSize();
             }
+            contributions.put(project.getFullName(), contribution);
         }
+        globalDiskUsage.reset(contributions);
+    }
+    
+    /**
+     * @return running totals of all jobs, they are counted if they were not counted yet
+     */
+    public GlobalDiskUsage getGlobalDiskUsage(){
+        if(!globalDiskUsage.isInitialized())
+            refreshGlobalInformation();
+        return globalDiskUsage;
+    }
+    
+    /**
+     * @return running totals of all jobs or null if they were not counted yet, changes of builds and jobs
+     * are reported to them
+     */
+    GlobalDiskUsage getGlobalDiskUsageIfCounted(){
+        return globalDiskUsage.isInitialized() ? globalDiskUsage : null;
+    }
+    
+    private Long getTotal(int index){
+        return getGlobalDiskUsage().get(index);
     }
     
     public Long getCashedGlobalBuildsDiskUsage(){
-        return diskUsageBuilds;
+        return getTotal(GlobalDiskUsage.BUILDS);
+    }
+    
+    /**
+     * @return disk usage of all builds where every hard-linked file is counted only once
+     */
+    public Long getCashedGlobalUniqueBuildsDiskUsage(){
+        return getTotal(GlobalDiskUsage.UNIQUE_BUILDS);
+    }
+    
+    /**
+     * @return size of blocks allocated on disk by all builds
+     */
+    public Long getCashedGlobalAllocatedBuildsDiskUsage(){
+        return getTotal(GlobalDiskUsage.ALLOCATED_BUILDS);
+    }
+    
+    /**
+     * @return size of blocks allocated on disk by all jobs (including builds)
+     */
+    public Long getCashedGlobalAllocatedJobsDiskUsage(){
+        return getTotal(GlobalDiskUsage.ALLOCATED_BUILDS) + getTotal(GlobalDiskUsage.ALLOCATED_JOBS_WITHOUT_BUILDS);
     }
     
     public Long getCashedGlobalJobsDiskUsage(){
-        return (diskUsageBuilds + diskUsageJobsWithoutBuilds);
+        return getTotal(GlobalDiskUsage.BUILDS) + getTotal(GlobalDiskUsage.JOBS_WITHOUT_BUILDS);
     }
     
     public Long getCashedGlobalJobsWithoutBuildsDiskUsage(){
-        return diskUsageJobsWithoutBuilds;
+        return getTotal(GlobalDiskUsage.JOBS_WITHOUT_BUILDS);
     }
     
     public Long getCashedGlobalLockedBuildsDiskUsage(){
-     return diskUsageLockedBuilds;   
+     return getTotal(GlobalDiskUsage.LOCKED_BUILDS);   
     }
     
     public Long getCashedGlobalWorkspacesDiskUsage(){
-        return diskUsageWorkspaces;
+        return getTotal(GlobalDiskUsage.WORKSPACES);
     }
     
     public Long getCashedNonSlaveDiskUsageWorkspace(){
-        return diskUsageNonSlaveWorkspaces;
+        return getTotal(GlobalDiskUsage.NON_SLAVE_WORKSPACES);
     }
     
     public Long getCashedSlaveDiskUsageWorkspace(){
-        return diskUsageWorkspaces - diskUsageNonSlaveWorkspaces;
+        return getTotal(GlobalDiskUsage.WORKSPACES) - getTotal(GlobalDiskUsage.NON_SLAVE_WORKSPACES);
     }
     
     public Long getGlobalBuildsDiskUsage(){
-        refreshGlobalInformation();
-        return diskUsageBuilds;
+        return getCashedGlobalBuildsDiskUsage();
     }
     
     public Long getGlobalJobsDiskUsage(){
-        refreshGlobalInformation();
-        return (diskUsageBuilds + diskUsageJobsWithoutBuilds);
+        return getCashedGlobalJobsDiskUsage();
     }
     
     public Long getGlobalJobsWithoutBuildsDiskUsage(){
-        refreshGlobalInformation();
-        return diskUsageJobsWithoutBuilds;
+        return getCashedGlobalJobsWithoutBuildsDiskUsage();
     }
     
     public Long getGlobalWorkspacesDiskUsage(){
-        refreshGlobalInformation();
-        return diskUsageWorkspaces;
+        return getCashedGlobalWorkspacesDiskUsage();
     }
     
     
     public Long getGlobalNonSlaveDiskUsageWorkspace(){
-        refreshGlobalInformation();
-        return diskUsageNonSlaveWorkspaces;
+        return getCashedNonSlaveDiskUsageWorkspace();
     }
     
     public Long getGlobalSlaveDiskUsageWorkspace(){
-        refreshGlobalInformation();
-        return diskUsageWorkspaces - diskUsageNonSlaveWorkspaces;
+        return getCashedSlaveDiskUsageWorkspace();
     }
     
     public BuildDiskUsageCalculationThread getBuildsDiskUsageThread(){
@@ -127,6 +174,45 @@ public class DiskUsagePlugin extends Plugin {
        return AperiodicWork.all().get(WorkspaceDiskUsageCalculationThread.class); 
     }
     
+    /**
+     * @return progress of running calculations of workspaces - node name -> workspace path -> progress
+     */
+    public Map<String,Map<String,WorkspaceCalculationProgress.Status>> getRunningWorkspaceCalculations(){
+        return WorkspaceCalculationProgress.getRunning();
+    }
+    
+    public String getTimeSince(long time){
+        return DiskUsageUtil.formatTimeInMilisec(System.currentTimeMillis() - time);
+    }
+    
+    /**
+     * @return number of finished builds waiting for calculation in background
+     */
+    public int getBuildCalculationQueueSize(){
+        return DiskUsageBuildListener.getQueue().getSize();
+    }
+    
+    /**
+     * @return number of requested recalculations which are waiting
+     */
+    public int getCalculationQueueSize(){
+        return DiskUsageCalculationQueue.getInstance().getSize();
+    }
+    
+    @Override
+    public void stop() throws Exception {
+        DiskUsageBuildListener.shutdownQueue();
+        DiskUsageCalculationQueue.shutdown();
+        DiskUsageScanScheduler.shutdown();
+        ProjectDiskUsageSaver.shutdown();
+        DiskUsageComputerListener computerListener = ComputerListener.all().get(DiskUsageComputerListener.class);
+        if(computerListener!=null)
+            computerListener.shutdown();
+        BuildSizeIndex.flushAll();
+        if(DiskUsageWalker.isNioAvailable())
+            ForkJoinDiskUsageWalker.shutdownPools();
+    }
+    
     /**
      * @return DiskUsage for given project (shortcut for the view). Never null.
      */
@@ -148,7 +234,6 @@ public class DiskUsagePlugin extends Plugin {
      * @return Project list sorted by occupied disk space
      */
     public List getProjectList() {
-        refreshGlobalInformation();
         Comparator<AbstractProject> comparator = new Comparator<AbstractProject>() {
 
             public int compare(AbstractProject o1, AbstractProject o2) {
@@ -188,14 +273,69 @@ public class DiskUsagePlugin extends Plugin {
         return DiskUsageProjectActionFactory.DESCRIPTOR;
     }
     
+    /**
+     * @return history of global disk usage, history stored in configuration by older versions is moved to it
+     * when it is loaded
+     */
+    public synchronized DiskUsageHistory getDiskUsageHistory(){
+        if(history==null){
+            history = new DiskUsageHistory(new File(Jenkins.getInstance().getRootDir(), "disk-usage-history"));
+            List<DiskUsageOvearallGraphGenerator.DiskUsageRecord> oldHistory = getConfiguration().getHistory();
+            if(!oldHistory.isEmpty()){
+                //records written by previous (interrupted) migration are skipped
+                long last = history.getLastTime();
+                boolean migrated = true;
+                for(DiskUsageOvearallGraphGenerator.DiskUsageRecord record : oldHistory){
+                    DiskUsageHistory.Sample sample = record.toSample();
+                    if(sample.getTime() <= last)
+                        continue;
+                    if(!history.add(sample)){
+                        migrated = false;
+                        break;
+                    }
+                }
+                //old history is kept until all its records are written
+                if(migrated){
+                    oldHistory.clear();
+                    getConfiguration().save();
+                }
+            }
+        }
+        history.setRetention(DiskUsageHistory.Resolution.RAW, getConfiguration().getHistoryRawRetention());
+        history.setRetention(DiskUsageHistory.Resolution.HOURLY, getConfiguration().getHistoryHourlyRetention());
+        history.setRetention(DiskUsageHistory.Resolution.DAILY, getConfiguration().getHistoryDailyRetention());
+        history.setRetention(DiskUsageHistory.Resolution.WEEKLY, getConfiguration().getHistoryWeeklyRetention());
+        return history;
+    }
+    
+    public void addHistory(DiskUsageOvearallGraphGenerator.DiskUsageRecord record){
+        getDiskUsageHistory().add(record.toSample());
+    }
+    
+    /**
+     * @return daily records of global disk usage for the last {@link DiskUsageProjectActionFactory.DescriptorImpl#getHistoryLength()}
+     * days, hourly records if there are not enough daily records yet
+     */
+    public List<DiskUsageOvearallGraphGenerator.DiskUsageRecord> getHistoryRecords(){
+        long from = System.currentTimeMillis() - getConfiguration().getHistoryLength() * 24L * 60 * 60 * 1000;
+        List<DiskUsageHistory.Sample> samples = getDiskUsageHistory().getSamples(DiskUsageHistory.Resolution.DAILY, from);
+        if(samples.size() < 2)
+            samples = getDiskUsageHistory().getSamples(DiskUsageHistory.Resolution.HOURLY, from);
+        List<DiskUsageOvearallGraphGenerator.DiskUsageRecord> records = new ArrayList<DiskUsageOvearallGraphGenerator.DiskUsageRecord>();
+        for(DiskUsageHistory.Sample sample : samples){
+            records.add(new DiskUsageOvearallGraphGenerator.DiskUsageRecord(sample));
+        }
+        return records;
+    }
+    
     public Graph getOverallGraph(){
         File jobsDir = new File(Jenkins.getInstance().getRootDir(), "jobs");
         long maxValue = getCashedGlobalJobsDiskUsage();
         if(getConfiguration().getShowFreeSpaceForJobDirectory()){
             maxValue = jobsDir.getTotalSpace();
         }
-        long maxValueWorkspace = Math.max(diskUsageNonSlaveWorkspaces, getCashedSlaveDiskUsageWorkspace());
-        List<DiskUsageOvearallGraphGenerator.DiskUsageRecord> record = DiskUsageProjectActionFactory.DESCRIPTOR.getHistory();
+        long maxValueWorkspace = Math.max(getCashedNonSlaveDiskUsageWorkspace(), getCashedSlaveDiskUsageWorkspace());
+        List<DiskUsageOvearallGraphGenerator.DiskUsageRecord> record = getHistoryRecords();
         //First iteration just to get scale of the y-axis
         for (DiskUsageOvearallGraphGenerator.DiskUsageRecord usage : record){
             if(getConfiguration().getShowFreeSpaceForJobDirectory()){
@@ -236,20 +376,20 @@ public class DiskUsagePlugin extends Plugin {
     }  
     
     public void doRecordBuildDiskUsage(StaplerRequest req, StaplerResponse res) throws ServletException, IOException, Exception {
-        if(getConfiguration().isCalculationBuildsEnabled() && !getBuildsDiskUsageThread().isExecuting())
-            getBuildsDiskUsageThread().doAperiodicRun();
+        if(getConfiguration().isCalculationBuildsEnabled())
+            DiskUsageCalculationQueue.getInstance().request(DiskUsageCalculationQueue.Scope.BUILDS);
         res.forwardToPreviousPage(req);
     }
     
     public void doRecordJobsDiskUsage(StaplerRequest req, StaplerResponse res) throws ServletException, IOException, Exception {
-        if(getConfiguration().isCalculationJobsEnabled() && !getJobsDiskUsageThread().isExecuting())
-            getJobsDiskUsageThread().doAperiodicRun();
+        if(getConfiguration().isCalculationJobsEnabled())
+            DiskUsageCalculationQueue.getInstance().request(DiskUsageCalculationQueue.Scope.JOBS);
         res.forwardToPreviousPage(req);
     }
     
     public void doRecordWorkspaceDiskUsage(StaplerRequest req, StaplerResponse res) throws ServletException, IOException, Exception {
-        if(getConfiguration().isCalculationWorkspaceEnabled() && !getWorkspaceDiskUsageThread().isExecuting())
-            getWorkspaceDiskUsageThread().doAperiodicRun();
+        if(getConfiguration().isCalculationWorkspaceEnabled())
+            DiskUsageCalculationQueue.getInstance().request(DiskUsageCalculationQueue.Scope.WORKSPACES);
         res.forwardToPreviousPage(req);
     }
        
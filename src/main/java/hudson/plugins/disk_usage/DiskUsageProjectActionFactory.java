@@ -74,6 +74,16 @@ public class DiskUsageProjectActionFactory extends TransientProjectActionFactory
     
         private boolean showGraph = true;
         private int historyLength = 183;
+        
+        // Number of days for which raw, hourly, daily and weekly records of global history are kept (0 means forever,
+        // 7, 90, 1825 and 0 if not set), see DiskUsageHistory
+        private Integer historyRawRetention;
+        
+        private Integer historyHourlyRetention;
+        
+        private Integer historyDailyRetention;
+        
+        private Integer historyWeeklyRetention;
         List<DiskUsageOvearallGraphGenerator.DiskUsageRecord> history = new LinkedList<DiskUsageOvearallGraphGenerator.DiskUsageRecord>(){
 				private static final long serialVersionUID = 1L;
 
@@ -90,6 +100,63 @@ public class DiskUsageProjectActionFactory extends TransientProjectActionFactory
         // Timeout for a single Project's workspace analyze (in mn)
         private int timeoutWorkspace = 5;
         
+        // Calculation of workspaces is stopped if the walk does not report progress for this time (in mn), 0 means never (3 if not set)
+        private Integer workspaceStallTimeout;
+        
+        // Walker used for counting size of directories - see DiskUsageWalker
+        private String walkerType = DiskUsageWalker.STREAMING;
+        
+        // Number of threads used for walking one directory tree on master and on slaves (1 if not set)
+        private Integer walkParallelism;
+        
+        private Integer slaveWalkParallelism;
+        
+        // Number of threads shared by calculations of builds, jobs and workspaces, see DiskUsageScanScheduler (1 if not set)
+        private Integer scanThreads;
+        
+        // Maximal number of workspace calculations running at the same time on all nodes and on one node (4 and 1 if not set)
+        private Integer workspaceCalculationThreads;
+        
+        private Integer workspaceCalculationThreadsPerNode;
+        
+        // Builds and their workspaces are calculated in background threads after the build is completed
+        private boolean asynchronousBuildCalculation = false;
+        
+        // Maximal number of disk-usage.xml files of jobs written per second, see ProjectDiskUsageSaver (20 if not set)
+        private Integer diskUsageWritesPerSecond;
+        
+        // Workspaces of a slave are calculated when the slave comes online
+        private boolean calculateWorkspacesOnConnect = false;
+        
+        // Directories of workspaces which have not changed since the previous calculation are not listed again
+        private boolean incrementalWorkspacesCalculation = false;
+        
+        // Number of hours after which all directories of a workspace are listed again (24 if not set)
+        private Integer workspacesFullRescanInterval;
+        
+        // Count every hard-linked file of builds only once into unique size of builds
+        private boolean countHardLinksOnce = false;
+        
+        // Unique size of a hard-linked file is attributed to the oldest build which contains it
+        private boolean attributeHardLinksToOldestBuild = false;
+        
+        // Count also size of blocks allocated on disk for builds and jobs
+        private boolean countAllocatedSize = false;
+        
+        // Directories of builds which have not changed since the previous calculation are not listed again
+        private boolean incrementalBuildsCalculation = false;
+        
+        // The next calculation of builds ignores cache of directories, it is reset after the calculation
+        private boolean fullRescanOfBuilds = false;
+        
+        // Jobs are calculated together with their builds in one pass through job directory
+        private boolean singlePassCalculation = false;
+        
+        // Number of days between calculations of all builds, other calculations count only changed builds (7 if not set)
+        private Integer buildsAuditInterval;
+        
+        private long lastBuildsAudit = 0;
+        
     public Long getCashedGlobalBuildsDiskUsage(){
         return diskUsageBuilds;
     }
@@ -134,6 +201,54 @@ public class DiskUsageProjectActionFactory extends TransientProjectActionFactory
         this.historyLength = historyLength;
     }
 
+    public int getHistoryRawRetention() {
+        //not set in configuration saved by older version
+        if(historyRawRetention==null)
+            return 7;
+        return historyRawRetention;
+    }
+
+    public void setHistoryRawRetention(Integer historyRawRetention) {
+        this.historyRawRetention = historyRawRetention;
+    }
+
+    public int getHistoryHourlyRetention() {
+        //not set in configuration saved by older version
+        if(historyHourlyRetention==null)
+            return 90;
+        return historyHourlyRetention;
+    }
+
+    public void setHistoryHourlyRetention(Integer historyHourlyRetention) {
+        this.historyHourlyRetention = historyHourlyRetention;
+    }
+
+    public int getHistoryDailyRetention() {
+        //not set in configuration saved by older version
+        if(historyDailyRetention==null)
+            return 1825;
+        return historyDailyRetention;
+    }
+
+    public void setHistoryDailyRetention(Integer historyDailyRetention) {
+        this.historyDailyRetention = historyDailyRetention;
+    }
+
+    public int getHistoryWeeklyRetention() {
+        //not set in configuration saved by older version
+        if(historyWeeklyRetention==null)
+            return 0;
+        return historyWeeklyRetention;
+    }
+
+    public void setHistoryWeeklyRetention(Integer historyWeeklyRetention) {
+        this.historyWeeklyRetention = historyWeeklyRetention;
+    }
+    
+    /**
+     * @return history stored in configuration by older versions, it is moved to {@link DiskUsageHistory} 
+     * when the history is loaded for the first time
+     */
     public List<DiskUsageOvearallGraphGenerator.DiskUsageRecord> getHistory(){
         return history;
     }
@@ -222,10 +337,13 @@ public class DiskUsageProjectActionFactory extends TransientProjectActionFactory
         return jobSize;
     }
 
+    /**
+     * @deprecated history is stored in {@link DiskUsageHistory}, use {@link DiskUsagePlugin#addHistory}
+     */
+    @Deprecated
     public boolean addHistory(DiskUsageOvearallGraphGenerator.DiskUsageRecord e) {
-        boolean ok = history.add(e);
-        save();
-        return ok;
+        Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).addHistory(e);
+        return true;
     }
     
     public void enableBuildsDiskUsageCalculation(){
@@ -309,7 +427,30 @@ public class DiskUsageProjectActionFactory extends TransientProjectActionFactory
                     if(histlen != null && !histlen.isEmpty()){
                         historyLength = Integer.parseInt(histlen);
                     }
+       historyRawRetention = form.getInt("historyRawRetention");
+       historyHourlyRetention = form.getInt("historyHourlyRetention");
+       historyDailyRetention = form.getInt("historyDailyRetention");
+       historyWeeklyRetention = form.getInt("historyWeeklyRetention");
        timeoutWorkspace = form.getInt("timeoutWorkspace");
+       workspaceStallTimeout = form.getInt("workspaceStallTimeout");
+       walkerType = form.getString("walkerType");
+       walkParallelism = form.getInt("walkParallelism");
+       slaveWalkParallelism = form.getInt("slaveWalkParallelism");
+       scanThreads = form.getInt("scanThreads");
+       workspaceCalculationThreads = form.getInt("workspaceCalculationThreads");
+       workspaceCalculationThreadsPerNode = form.getInt("workspaceCalculationThreadsPerNode");
+       asynchronousBuildCalculation = form.getBoolean("asynchronousBuildCalculation");
+       diskUsageWritesPerSecond = form.getInt("diskUsageWritesPerSecond");
+       calculateWorkspacesOnConnect = form.getBoolean("calculateWorkspacesOnConnect");
+       incrementalWorkspacesCalculation = form.getBoolean("incrementalWorkspacesCalculation");
+       workspacesFullRescanInterval = form.getInt("workspacesFullRescanInterval");
+       countHardLinksOnce = form.getBoolean("countHardLinksOnce");
+       attributeHardLinksToOldestBuild = form.getBoolean("attributeHardLinksToOldestBuild");
+       countAllocatedSize = form.getBoolean("countAllocatedSize");
+       incrementalBuildsCalculation = form.getBoolean("incrementalBuildsCalculation");
+       fullRescanOfBuilds = form.getBoolean("fullRescanOfBuilds");
+       singlePassCalculation = form.getBoolean("singlePassCalculation");
+       buildsAuditInterval = form.getInt("buildsAuditInterval");
        showFreeSpaceForJobDirectory = form.getBoolean("showFreeSpaceForJobDirectory");
         save();
         return true;
@@ -382,6 +523,17 @@ public class DiskUsageProjectActionFactory extends TransientProjectActionFactory
         return timeoutWorkspace;
     }
     
+    public int getWorkspaceStallTimeout() {
+        //not set in configuration saved by older version
+        if(workspaceStallTimeout==null)
+            return 3;
+        return workspaceStallTimeout;
+    }
+    
+    public void setWorkspaceStallTimeout(Integer workspaceStallTimeout) {
+        this.workspaceStallTimeout = workspaceStallTimeout;
+    }
+    
     public boolean getShowFreeSpaceForJobDirectory(){
         return showFreeSpaceForJobDirectory;
     }
@@ -389,6 +541,194 @@ public class DiskUsageProjectActionFactory extends TransientProjectActionFactory
     public void setTimeoutWorkspace(Integer timeoutWorkspace) {
         this.timeoutWorkspace = timeoutWorkspace;
     }
+    
+    public String getWalkerType() {
+        if(walkerType==null)
+            return DiskUsageWalker.STREAMING;
+        return walkerType;
+    }
+    
+    public void setWalkerType(String walkerType) {
+        this.walkerType = walkerType;
+    }
+    
+    public int getWalkParallelism() {
+        //not set in configuration saved by older version
+        if(walkParallelism==null)
+            return 1;
+        return walkParallelism;
+    }
+    
+    public void setWalkParallelism(Integer walkParallelism) {
+        this.walkParallelism = walkParallelism;
+    }
+    
+    public int getSlaveWalkParallelism() {
+        //not set in configuration saved by older version
+        if(slaveWalkParallelism==null)
+            return 1;
+        return slaveWalkParallelism;
+    }
+    
+    public void setSlaveWalkParallelism(Integer slaveWalkParallelism) {
+        this.slaveWalkParallelism = slaveWalkParallelism;
+    }
+    
+    public int getScanThreads() {
+        //not set in configuration saved by older version
+        if(scanThreads==null)
+            return 1;
+        return scanThreads;
+    }
+    
+    public void setScanThreads(Integer scanThreads) {
+        this.scanThreads = scanThreads;
+    }
+    
+    public int getWorkspaceCalculationThreads() {
+        //not set in configuration saved by older version
+        if(workspaceCalculationThreads==null)
+            return 4;
+        return workspaceCalculationThreads;
+    }
+    
+    public void setWorkspaceCalculationThreads(Integer workspaceCalculationThreads) {
+        this.workspaceCalculationThreads = workspaceCalculationThreads;
+    }
+    
+    public int getWorkspaceCalculationThreadsPerNode() {
+        //not set in configuration saved by older version
+        if(workspaceCalculationThreadsPerNode==null)
+            return 1;
+        return workspaceCalculationThreadsPerNode;
+    }
+    
+    public void setWorkspaceCalculationThreadsPerNode(Integer workspaceCalculationThreadsPerNode) {
+        this.workspaceCalculationThreadsPerNode = workspaceCalculationThreadsPerNode;
+    }
+    
+    public boolean isAsynchronousBuildCalculation() {
+        return asynchronousBuildCalculation;
+    }
+    
+    public void setAsynchronousBuildCalculation(boolean asynchronousBuildCalculation) {
+        this.asynchronousBuildCalculation = asynchronousBuildCalculation;
+    }
+    
+    public int getDiskUsageWritesPerSecond() {
+        //not set in configuration saved by older version
+        if(diskUsageWritesPerSecond==null)
+            return 20;
+        return diskUsageWritesPerSecond;
+    }
+    
+    public void setDiskUsageWritesPerSecond(Integer diskUsageWritesPerSecond) {
+        this.diskUsageWritesPerSecond = diskUsageWritesPerSecond;
+    }
+    
+    public boolean isCalculateWorkspacesOnConnect() {
+        return calculateWorkspacesOnConnect;
+    }
+    
+    public void setCalculateWorkspacesOnConnect(boolean calculateWorkspacesOnConnect) {
+        this.calculateWorkspacesOnConnect = calculateWorkspacesOnConnect;
+    }
+    
+    public boolean isIncrementalWorkspacesCalculation() {
+        return incrementalWorkspacesCalculation;
+    }
+    
+    public void setIncrementalWorkspacesCalculation(boolean incrementalWorkspacesCalculation) {
+        this.incrementalWorkspacesCalculation = incrementalWorkspacesCalculation;
+    }
+    
+    public int getWorkspacesFullRescanInterval() {
+        //not set in configuration saved by older version
+        if(workspacesFullRescanInterval==null)
+            return 24;
+        return workspacesFullRescanInterval;
+    }
+    
+    public void setWorkspacesFullRescanInterval(Integer workspacesFullRescanInterval) {
+        this.workspacesFullRescanInterval = workspacesFullRescanInterval;
+    }
+    
+    public boolean isCountHardLinksOnce() {
+        return countHardLinksOnce;
+    }
+    
+    public void setCountHardLinksOnce(boolean countHardLinksOnce) {
+        this.countHardLinksOnce = countHardLinksOnce;
+    }
+    
+    public boolean isAttributeHardLinksToOldestBuild() {
+        return attributeHardLinksToOldestBuild;
+    }
+    
+    public void setAttributeHardLinksToOldestBuild(boolean attributeHardLinksToOldestBuild) {
+        this.attributeHardLinksToOldestBuild = attributeHardLinksToOldestBuild;
+    }
+    
+    public boolean isCountAllocatedSize() {
+        return countAllocatedSize;
+    }
+    
+    public void setCountAllocatedSize(boolean countAllocatedSize) {
+        this.countAllocatedSize = countAllocatedSize;
+    }
+    
+    public boolean isIncrementalBuildsCalculation() {
+        return incrementalBuildsCalculation;
+    }
+    
+    public void setIncrementalBuildsCalculation(boolean incrementalBuildsCalculation) {
+        this.incrementalBuildsCalculation = incrementalBuildsCalculation;
+    }
+    
+    public boolean isFullRescanOfBuilds() {
+        return fullRescanOfBuilds;
+    }
+    
+    public void setFullRescanOfBuilds(boolean fullRescanOfBuilds) {
+        this.fullRescanOfBuilds = fullRescanOfBuilds;
+    }
+    
+    public boolean isSinglePassCalculation() {
+        return singlePassCalculation;
+    }
+    
+    public void setSinglePassCalculation(boolean singlePassCalculation) {
+        this.singlePassCalculation = singlePassCalculation;
+    }
+    
+    public int getBuildsAuditInterval() {
+        //not set in configuration saved by older version
+        if(buildsAuditInterval==null)
+            return 7;
+        return buildsAuditInterval;
+    }
+    
+    public void setBuildsAuditInterval(Integer buildsAuditInterval) {
+        this.buildsAuditInterval = buildsAuditInterval;
+    }
+    
+    public long getLastBuildsAudit() {
+        return lastBuildsAudit;
+    }
+    
+    public void setLastBuildsAudit(long lastBuildsAudit) {
+        this.lastBuildsAudit = lastBuildsAudit;
+    }
+    
+    /**
+     * @return true if the next calculation of builds should calculate all builds, not only changed ones
+     */
+    public boolean isBuildsAuditDue() {
+        int interval = getBuildsAuditInterval();
+        if(interval <= 0)
+            return true;
+        return System.currentTimeMillis() - lastBuildsAudit >= interval * 24l * 60 * 60 * 1000;
+    }
 }
 
 
@@ -45,6 +45,13 @@ public class DiskUsageProperty extends JobProperty<Job<?, ?>> {
             saveDiskUsage();
         }
      
+     public void setAllocatedDiskUsageWithoutBuilds(Long allocatedDiskUsageWithoutBuilds){
+            if(allocatedDiskUsageWithoutBuilds==null)
+                return;
+            this.diskUsage.allocatedDiskUsageWithoutBuilds = allocatedDiskUsageWithoutBuilds;
+            saveDiskUsage();
+        }
+     
      
      public void remove(Node node, String path){
           Map<String,Long> workspacesInfo = diskUsage.slaveWorkspacesUsage.get(node.getNodeName());
@@ -193,11 +200,9 @@ public class DiskUsageProperty extends JobProperty<Job<?, ?>> {
                 else{
                     item = (TopLevelItem) owner.getParent();
                 }
-                System.out.println("path " + path + " node " + node.getDisplayName());
                 try{
                     if(!isContainedInWorkspace(item, node, path)){      
                         size += paths.get(path);
-                        System.out.println(size);
                     }
                 }
                 catch(Exception e){
@@ -260,6 +265,42 @@ public class DiskUsageProperty extends JobProperty<Job<?, ?>> {
         return diskUsage.diskUsageWithoutBuilds;
     }
 
+    /**
+     * @return size of blocks allocated on disk by the job without builds, apparent size if allocated size was not counted
+     */
+    public Long getAllocatedDiskUsageWithoutBuilds(){
+        if(diskUsage.allocatedDiskUsageWithoutBuilds==null)
+            return getDiskUsageWithoutBuilds();
+        return diskUsage.allocatedDiskUsageWithoutBuilds;
+    }
+    
+    public Long getAllAllocatedDiskUsageWithoutBuilds(){
+       Long usage = getAllocatedDiskUsageWithoutBuilds();
+       if(owner instanceof ItemGroup){
+                 ItemGroup group = (ItemGroup) owner;
+                     usage += getAllocatedDiskUsageWithoutBuildsAllSubItems(group);
+       }
+       return usage;
+    }
+
+    private Long getAllocatedDiskUsageWithoutBuildsAllSubItems(ItemGroup group){
+        Long usage = 0l;
+        for(Object item: group.getItems()){
+            if(item instanceof ItemGroup){
+               ItemGroup subGroup = (ItemGroup) item;
+               usage += getAllocatedDiskUsageWithoutBuildsAllSubItems(subGroup);
+            }
+            if(item instanceof AbstractProject){
+                AbstractProject p = (AbstractProject) item;
+                DiskUsageProperty property = (DiskUsageProperty) p.getProperty(DiskUsageProperty.class);
+                if(property!=null){
+                    usage += property.getAllocatedDiskUsageWithoutBuilds();
+                }
+            }
+        }
+        return usage;
+    }
+
     public Long getAllDiskUsageWithoutBuilds(){
         if(diskUsage.diskUsageWithoutBuilds==null)
             diskUsage.diskUsageWithoutBuilds=0l;
@@ -304,8 +345,25 @@ public class DiskUsageProperty extends JobProperty<Job<?, ?>> {
         }
     }    
 
+    /**
+     * Saves disk usage of the job in background, see {@link ProjectDiskUsageSaver}.
+     */
     public synchronized void saveDiskUsage() {
-        diskUsage.save();
+        diskUsage.saveLater();
+        reportToTotals();
+    }
+    
+    /**
+     * Replaces contribution of the job (without builds) to the global totals, see {@link GlobalDiskUsage}.
+     */
+    private void reportToTotals(){
+        if(owner==null || Jenkins.getInstance()==null)
+            return;
+        DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
+        GlobalDiskUsage global = plugin==null ? null : plugin.getGlobalDiskUsageIfCounted();
+        if(global==null)
+            return;
+        global.setJob(owner.getFullName(), getDiskUsageWithoutBuilds(), getAllocatedDiskUsageWithoutBuilds(), getAllWorkspaceSize(), getAllNonSlaveOrCustomWorkspaceSize());
     }
     
     public synchronized void loadDiskUsage(){
@@ -0,0 +1,254 @@
+package hudson.plugins.disk_usage;
+
+import hudson.util.DaemonThreadFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs walks of all calculations (builds, jobs and workspaces) in one shared bounded pool, so the calculations
+ * do not hit the same disks all at once.
+ *
+ * Every calculation is split into {@link Unit}s (usually one job) which wait in one priority queue. Units requested
+ * by users or events ({@link #PRIORITY_REQUESTED}) always go before units of periodic calculations. Units of the same
+ * tier are ordered by staleness x expected size x priority, where staleness is the time since the unit was calculated
+ * the last time divided by its target period (the period of the cron of its calculation). Units which were never
+ * calculated are the most stale ones.
+ *
+ * Periodic calculations skip units which are fresh - see {@link #isFresh(String, long, long)}.
+ */
+public class DiskUsageScanScheduler {
+
+    /**
+     * Priority of periodic calculation of job directories
+     */
+    public static final int PRIORITY_JOBS = 1;
+
+    /**
+     * Priority of periodic calculation of workspaces
+     */
+    public static final int PRIORITY_WORKSPACES = 2;
+
+    /**
+     * Priority of periodic calculation of builds
+     */
+    public static final int PRIORITY_BUILDS = 3;
+
+    /**
+     * Priority of calculations requested by users or events
+     */
+    public static final int PRIORITY_REQUESTED = 10;
+
+    // staleness of units which were never calculated
+    private static final double NEVER_CALCULATED = 10;
+
+    private static DiskUsageScanScheduler instance;
+
+    private final ThreadPoolExecutor executor;
+
+    // unit key -> time of the last finished calculation
+    private final Map<String,Long> lastCalculations = new HashMap<String,Long>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public DiskUsageScanScheduler(int threads){
+        threads = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new DaemonThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized DiskUsageScanScheduler getInstance(){
+        int threads = Math.max(1, DiskUsageProjectActionFactory.DESCRIPTOR.getScanThreads());
+        if(instance==null){
+            instance = new DiskUsageScanScheduler(threads);
+        }
+        else{
+            instance.setThreads(threads);
+        }
+        return instance;
+    }
+
+    static synchronized void shutdown(){
+        if(instance!=null){
+            //calculations waiting for discarded units are released
+            for(Runnable unit : instance.executor.shutdownNow()){
+                ((Unit) unit).latch.countDown();
+            }
+            instance = null;
+        }
+    }
+
+    private void setThreads(int threads){
+        if(threads > executor.getMaximumPoolSize()){
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        }
+        else if(threads < executor.getMaximumPoolSize()){
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Queues the given units and waits until all of them are calculated.
+     */
+    public void scan(List<? extends Unit> units) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(units.size());
+        long now = System.currentTimeMillis();
+        for(Unit unit : units){
+            unit.scheduler = this;
+            unit.latch = latch;
+            unit.score = getScore(unit, now);
+            unit.order = sequence.incrementAndGet();
+            try{
+                executor.execute(unit);
+            }
+            catch(RejectedExecutionException e){
+                //the scheduler is stopped
+                unit.run();
+            }
+        }
+        latch.await();
+    }
+
+    /**
+     * @return true if calculation of the unit with the given key started less than half of the target period ago
+     * (e.g. on request); the previous periodic calculation of the unit is always older, so periodic calculations
+     * which skip fresh units still calculate every unit at least once per two periods
+     */
+    public boolean isFresh(String key, long targetPeriod, long now){
+        Long last;
+        synchronized(lastCalculations){
+            last = lastCalculations.get(key);
+        }
+        return last!=null && now - last < targetPeriod / 2;
+    }
+
+    /**
+     * @return the given units without fresh ones, see {@link #isFresh(String, long, long)}
+     */
+    public <T extends Unit> List<T> getStale(List<T> units){
+        long now = System.currentTimeMillis();
+        List<T> stale = new ArrayList<T>();
+        for(T unit : units){
+            if(!isFresh(unit.getKey(), unit.getTargetPeriod(), now))
+                stale.add(unit);
+        }
+        return stale;
+    }
+
+    /**
+     * @return number of units waiting for calculation
+     */
+    public int getSize(){
+        return executor.getQueue().size();
+    }
+
+    double getScore(Unit unit, long now){
+        Long last;
+        synchronized(lastCalculations){
+            last = lastCalculations.get(unit.getKey());
+        }
+        double staleness = NEVER_CALCULATED;
+        if(last!=null)
+            staleness = Math.max(0, now - last) / (double) Math.max(1, unit.getTargetPeriod());
+        //size of 1 MB or less has weight 1, every order of magnitude above adds 1
+        double size = 1 + Math.log10(1 + Math.max(0, unit.getExpectedSize()) / (1024d * 1024d));
+        return staleness * size * unit.getPriority();
+    }
+
+    private void calculated(Unit unit, long start){
+        synchronized(lastCalculations){
+            lastCalculations.put(unit.getKey(), start);
+        }
+    }
+
+    /**
+     * Part of a calculation which is scheduled as a whole - usually builds, directory or workspaces of one job.
+     */
+    public abstract static class Unit implements Runnable, Comparable<Unit> {
+
+        private final String key;
+        private final long expectedSize;
+        private final long targetPeriod;
+        private final int priority;
+        private DiskUsageScanScheduler scheduler;
+        private CountDownLatch latch;
+        private double score;
+        private long order;
+
+        /**
+         * @param key identifies the unit among calculations, e.g. scope and full name of the job
+         * @param expectedSize size counted by the previous calculation of the unit
+         * @param targetPeriod time in which the unit should be calculated again (in milliseconds)
+         * @param priority priority of the calculation, see constants of {@link DiskUsageScanScheduler}
+         */
+        public Unit(String key, long expectedSize, long targetPeriod, int priority){
+            this.key = key;
+            this.expectedSize = expectedSize;
+            this.targetPeriod = targetPeriod;
+            this.priority = priority;
+        }
+
+        public String getKey(){
+            return key;
+        }
+
+        public long getExpectedSize(){
+            return expectedSize;
+        }
+
+        public long getTargetPeriod(){
+            return targetPeriod;
+        }
+
+        public int getPriority(){
+            return priority;
+        }
+
+        /**
+         * @return true if the unit is requested by a user or an event, such units go before all periodic ones
+         */
+        public boolean isRequested(){
+            return priority >= PRIORITY_REQUESTED;
+        }
+
+        protected abstract void calculate() throws Exception;
+
+        public void run(){
+            try{
+                //time of start is kept, changes made during the calculation could be missed by it
+                long start = System.currentTimeMillis();
+                calculate();
+                scheduler.calculated(this, start);
+            }
+            catch(Exception e){
+                LOGGER.log(Level.WARNING, "Error when recording disk usage of " + key, e);
+            }
+            finally{
+                latch.countDown();
+            }
+        }
+
+        public int compareTo(Unit o){
+            //requested units first, then higher score, then in order of queuing
+            if(isRequested()!=o.isRequested())
+                return isRequested() ? -1 : 1;
+            int c = Double.compare(o.score, score);
+            if(c!=0)
+                return c;
+            return order < o.order ? -1 : (order==o.order ? 0 : 1);
+        }
+    }
+
+    public static final Logger LOGGER = Logger.getLogger(DiskUsageScanScheduler.class.getName());
+}
@@ -8,22 +8,30 @@ import hudson.FilePath;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.Computer;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
 import hudson.model.Node;
 import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
 import hudson.tasks.Mailer;
 import java.io.File;
 import java.io.IOException;
-import java.net.URI;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.mail.Message.RecipientType;
@@ -39,6 +47,11 @@ import jenkins.model.Jenkins;
  */
 public class DiskUsageUtil {
     
+    /**
+     * Minimal time in milliseconds between two reports of progress of a walk on a slave.
+     */
+    static final long PROGRESS_INTERVAL = Long.getLong(DiskUsageUtil.class.getName() + ".progressInterval", 10000);
+    
     public static Date getDate(String timeCount, String timeUnit){
         if(timeUnit==null || !timeUnit.matches("\\d+") || !timeCount.matches("\\d+"))
            return null;
@@ -102,7 +115,6 @@ public class DiskUsageUtil {
     
     public static void controlAllJobsExceedSize(){
         DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
-        plugin.refreshGlobalInformation();
         Long allJobsSize = plugin.getCashedGlobalJobsDiskUsage();
         Long exceedJobsSize = plugin.getConfiguration().getAllJobsExceedSize();
         if(allJobsSize>exceedJobsSize){
@@ -208,52 +220,90 @@ public class DiskUsageUtil {
     }
     
     public static boolean isSymlink(File f){
+        if(DiskUsageWalker.isNioAvailable()){
+            return NioDiskUsageWalker.isSymlink(f);
+        }
         boolean symlink = false;
+        //not java 7, try native
         try{
-            Class<?> files = Thread.currentThread().getContextClassLoader().loadClass( "java.nio.file.Files" );
-            Class<?> path = Thread.currentThread().getContextClassLoader().loadClass( "java.nio.file.Path" );
-            Class<?> paths = Thread.currentThread().getContextClassLoader().loadClass( "java.nio.file.Paths" );
-            URI uri = new URI(f.getAbsolutePath());
-            Object filePath = paths.getMethod("get", URI.class).invoke(null, uri);
-            symlink = (Boolean) files.getMethod("isSymbolicLink", path).invoke(null, filePath);           
+            symlink = Util.isSymlink(f);
         }
-        catch(Exception e){
-            //not java 7, try native
-            try{
-                symlink = Util.isSymlink(f);
-            }
-            catch(NoClassDefFoundError error){
-                Logger.getLogger(DiskUsageUtil.class.getName()).log(Level.WARNING, "Disk usage can not determine if file " + f.getAbsolutePath() + " is symlink.");
-                //native fails
-            }
-            catch (IOException ex) {
-                    Logger.getLogger(DiskUsageUtil.class.getName()).log(Level.SEVERE, null, ex);
-            }
+        catch(NoClassDefFoundError error){
+            Logger.getLogger(DiskUsageUtil.class.getName()).log(Level.WARNING, "Disk usage can not determine if file " + f.getAbsolutePath() + " is symlink.");
+            //native fails
+        }
+        catch (IOException ex) {
+                Logger.getLogger(DiskUsageUtil.class.getName()).log(Level.SEVERE, null, ex);
         }
         return symlink;
     }
     
     public static Long getFileSize(File f, List<File> exceedFiles) throws IOException {
-            long size = 0;
-            if (f.isDirectory() && !isSymlink(f)) {
-            	File[] fileList = f.listFiles();
-            	if (fileList != null) for (File child : fileList) {
-                    if(exceedFiles.contains(child))
-                        continue; //do not count exceeded files
-                    if (!isSymlink(child)) size += getFileSize(child, exceedFiles);
-                }
-                else {
-            		LOGGER.info("Failed to list files in " + f.getPath() + " - ignoring");
-            	}
-            }
-            return size + f.length();
+        return getFileSize(f, new ExcludedPaths(exceedFiles));
+   }
+    
+    /**
+     * Counts size by the default walker, it does not read configuration, so it can be called also on slaves -
+     * configured walker is passed to slaves by {@link #getFileSize(File, ExcludedPaths, String, int)}.
+     */
+    public static Long getFileSize(File f, ExcludedPaths excluded) throws IOException {
+        return getFileSize(f, excluded, DiskUsageWalker.STREAMING, 1);
+   }
+    
+    public static Long getFileSize(File f, ExcludedPaths excluded, String walkerType, int parallelism) throws IOException {
+        return walk(f, excluded, walkerType, parallelism, null, false).getSize();
    }
     
+    /**
+     * Walks the given file and counts its apparent and unique size.
+     * 
+     * @param registry registry of hard-linked files already counted during the current scan, 
+     * if it is null unique size is the same as apparent size
+     * @param countAllocatedSize if size of blocks allocated on disk should be counted too
+     */
+    public static DiskUsageWalkResult walk(File f, ExcludedPaths excluded, String walkerType, int parallelism, InodeRegistry registry, boolean countAllocatedSize) throws IOException {
+        DiskUsageWalker walker = DiskUsageWalker.getInstance(walkerType, parallelism);
+        walker.setInodeRegistry(registry);
+        walker.setCountAllocatedSize(countAllocatedSize);
+        DiskUsageWalkResult result = walker.walk(f, excluded);
+        if(result.isPartial()){
+            LOGGER.warning("Disk usage of " + f.getAbsolutePath() + " is counted only partially, limits of walking were reached.");
+        }
+        return result;
+   }
+    
+    /**
+     * @return the counted size or the previous size if the walk was stopped (by timeout, cancelling or limits of
+     * walking) and the previous size is bigger - not all files were counted, so the previous size can be closer
+     * to the real size
+     */
+    public static long getCountedSize(long counted, boolean partial, Long previous){
+        if(partial && previous!=null && previous > counted)
+            return previous;
+        return counted;
+    }
+    
+    /**
+     * Files which the plugin stores in the root directory of a job, they are not counted into disk usage of the job.
+     */
+    public static final String[] JOB_FILES = {DirectoryCache.FILE_NAME, BuildScanState.FILE_NAME, BuildSizeIndex.FILE_NAME};
+    
+    /**
+     * Adds files of the plugin (and their temporary files) in the given root directory of a job to excluded paths.
+     */
+    public static void excludePluginFiles(File jobRoot, ExcludedPaths excluded){
+        for(String name : JOB_FILES){
+            excluded.add(new File(jobRoot, name));
+            excluded.add(new File(jobRoot, name + ".tmp"));
+        }
+    }
+    
     public static void calculateDiskUsageForProject(AbstractProject project) throws IOException{
         if(DiskUsageProjectActionFactory.DESCRIPTOR.isExcluded(project))
             return;
         DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
-        List<File> exceededFiles = new ArrayList<File>();
+        ExcludedPaths exceededFiles = new ExcludedPaths();
+        excludePluginFiles(project.getRootDir(), exceededFiles);
         List<AbstractBuild> builds = project.getBuilds();
         for(AbstractBuild build : builds){
             exceededFiles.add(build.getRootDir());
@@ -264,19 +314,33 @@ public class DiskUsageUtil {
                     exceededFiles.add(p.getRootDir());
             }
         }
-        long buildSize = DiskUsageUtil.getFileSize(project.getRootDir(), exceededFiles);
+        DiskUsageWalkResult result = DiskUsageUtil.walk(project.getRootDir(), exceededFiles, plugin.getConfiguration().getWalkerType(), 1, null, plugin.getConfiguration().isCountAllocatedSize());
+        recordDiskUsageOfProject(project, result);
+    }
+    
+    /**
+     * Stores size of the job without builds counted by the given walk.
+     */
+    private static void recordDiskUsageOfProject(AbstractProject project, DiskUsageWalkResult result) throws IOException{
+        DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
         DiskUsageProperty property = (DiskUsageProperty) project.getProperty(DiskUsageProperty.class);
         if(property==null){
             property = new DiskUsageProperty();
             project.addProperty(property);
         }
         Long diskUsageWithoutBuilds = property.getDiskUsageWithoutBuilds();
+        long buildSize = getCountedSize(result.getSize(), result.isPartial(), diskUsageWithoutBuilds);
+        long allocatedSize = getCountedSize(result.getAllocatedSize(), result.isPartial(), property.getAllocatedDiskUsageWithoutBuilds());
         boolean update = false;
         	if (( diskUsageWithoutBuilds <= 0 ) ||
         			( Math.abs(diskUsageWithoutBuilds - buildSize) > 1024 )) {
         		property.setDiskUsageWithoutBuilds(buildSize);
         		update = true;
         	}
+                if(plugin.getConfiguration().isCountAllocatedSize() && 
+                        ( Math.abs(property.getAllocatedDiskUsageWithoutBuilds() - allocatedSize) > 1024 )){
+                    property.setAllocatedDiskUsageWithoutBuilds(allocatedSize);
+                }
                 if(plugin.getConfiguration().warnAboutJobExceetedSize() && buildSize>plugin.getConfiguration().getJobExceedSize()){
             try {
                 sendEmail("Job " + project.getDisplayName() + " exceeds size", "Job " + project.getDisplayName() + " has size " + getSizeString(buildSize) + ".");
@@ -290,14 +354,283 @@ public class DiskUsageUtil {
     }
 
 
+    /**
+     * Calculates disk usage of the whole directory of the job, of its builds and of its child projects. If all builds
+     * are calculated (audit), the job directory is walked only once by {@link JobTreeDiskUsageWalker} - every entry
+     * is attributed to the job without builds, to a build or to a child project which contains it, and disk usage
+     * of all of them is updated after the walk. Otherwise the job without builds and changed builds are walked
+     * separately, the same way as by calculations of jobs and builds. Separate walks are used also if builds are
+     * calculated incrementally (cached directories are not listed) or if hard-linked files are counted once
+     * (builds have to be walked in order of their age).
+     * Builds of a project which is building are not calculated.
+     * 
+     * @param registry registry of hard-linked files shared by the whole scan
+     * @param fullRescan if true, cache of directories is not used even if incremental calculation is enabled
+     * @param audit if false, only builds which changed since their last calculation are calculated
+     */
+    public static void calculateDiskUsageForJobTree(AbstractProject project, InodeRegistry registry, boolean fullRescan, boolean audit) throws IOException {
+        DiskUsageProjectActionFactory.DescriptorImpl configuration = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration();
+        if(audit && DiskUsageWalker.isNioAvailable() && !configuration.isIncrementalBuildsCalculation() && !configuration.isCountHardLinksOnce()){
+            calculateDiskUsageForJobTreeInOnePass(project);
+            return;
+        }
+        try{
+            calculateDiskUsageForProject(project);
+        }
+        catch(Exception e){
+            LOGGER.log(Level.WARNING, "Error when recording disk usage for " + project.getName(), e);
+        }
+        if(!project.isBuilding()){
+            calculateDiskUsageForBuilds(project, registry, fullRescan, audit);
+        }
+        if(project instanceof ItemGroup){
+            for(Object item : ((ItemGroup) project).getItems()){
+                if(item instanceof AbstractProject){
+                    calculateDiskUsageForJobTree((AbstractProject) item, registry, fullRescan, audit);
+                }
+            }
+        }
+    }
+    
+    private static void calculateDiskUsageForJobTreeInOnePass(AbstractProject project) throws IOException {
+        if(DiskUsageProjectActionFactory.DESCRIPTOR.isExcluded(project))
+            return;
+        DiskUsageProjectActionFactory.DescriptorImpl configuration = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration();
+        List<AbstractProject> projects = new ArrayList<AbstractProject>();
+        projects.add(project);
+        if(project instanceof ItemGroup)
+            projects.addAll(getAllProjects((ItemGroup) project));
+        ExcludedPaths excluded = new ExcludedPaths();
+        List<File> parts = new ArrayList<File>();
+        Map<AbstractProject,List<AbstractBuild>> builds = new HashMap<AbstractProject,List<AbstractBuild>>();
+        for(AbstractProject p : projects){
+            if(p!=project && isExcludedWithParents(p, project)){
+                excluded.add(p.getRootDir());
+                continue;
+            }
+            if(p!=project)
+                parts.add(p.getRootDir());
+            excludePluginFiles(p.getRootDir(), excluded);
+            List<AbstractBuild> projectBuilds = new ArrayList<AbstractBuild>(p.getBuilds());
+            //builds of a project which is building are not calculated
+            boolean building = p.isBuilding();
+            for(AbstractBuild build : projectBuilds){
+                if(building)
+                    excluded.add(build.getRootDir());
+                else
+                    parts.add(build.getRootDir());
+            }
+            if(!building)
+                builds.put(p, projectBuilds);
+        }
+        JobTreeDiskUsageWalker walker = new JobTreeDiskUsageWalker();
+        walker.setCountAllocatedSize(configuration.isCountAllocatedSize());
+        Map<File,DiskUsageWalkResult> results = walker.walk(project.getRootDir(), parts, excluded);
+        if(results.get(project.getRootDir()).isPartial()){
+            LOGGER.warning("Disk usage of " + project.getRootDir() + " is counted only partially, limits of walking were reached.");
+        }
+        for(AbstractProject p : projects){
+            if(!results.containsKey(p.getRootDir()))
+                continue;
+            try{
+                recordDiskUsageOfProject(p, results.get(p.getRootDir()));
+            }
+            catch(Exception e){
+                LOGGER.log(Level.WARNING, "Error when recording disk usage for " + p.getName(), e);
+            }
+            if(!builds.containsKey(p))
+                continue;
+            BuildScanState state = BuildScanState.load(p.getRootDir());
+            List<Integer> numbers = new ArrayList<Integer>();
+            for(AbstractBuild build : builds.get(p)){
+                numbers.add(build.getNumber());
+                try{
+                    recordDiskUsageOfBuild(build, results.get(build.getRootDir()));
+                    state.markClean(build.getRootDir());
+                }
+                catch(Exception e){
+                    state.keep(build.getRootDir());
+                    LOGGER.log(Level.WARNING, "Error when recording disk usage for " + p.getName(), e);
+                }
+            }
+            try{
+                state.save();
+            }
+            catch(IOException e){
+                LOGGER.log(Level.WARNING, "Failed to save state of builds of " + p.getName(), e);
+            }
+            //all builds are loaded, so builds which were removed outside of Jenkins are dropped from the index
+            BuildSizeIndex index = BuildSizeIndex.get(p);
+            index.retain(numbers);
+            index.flush();
+        }
+    }
+    
+    /**
+     * @return true if the project or some of its parents under the given top project is excluded
+     */
+    private static boolean isExcludedWithParents(AbstractProject project, AbstractProject top){
+        Object item = project;
+        while(item instanceof AbstractProject && item!=top){
+            if(DiskUsageProjectActionFactory.DESCRIPTOR.isExcluded((AbstractProject) item))
+                return true;
+            item = ((AbstractProject) item).getParent();
+        }
+        return false;
+    }
+    
+    /**
+     * Calculates disk usage of builds of the project (not of builds of its child projects).
+     * 
+     * @param registry registry of hard-linked files shared by the whole scan
+     * @param fullRescan if true, cache of directories is not used even if incremental calculation is enabled
+     * @param audit if true, all builds are calculated, otherwise only builds which changed since their 
+     * last calculation (see {@link BuildScanState}) are calculated
+     */
+    public static void calculateDiskUsageForBuilds(AbstractProject project, InodeRegistry registry, boolean fullRescan, boolean audit) {
+        DiskUsageProjectActionFactory.DescriptorImpl configuration = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration();
+        boolean oldestFirst = configuration.isAttributeHardLinksToOldestBuild();
+        DirectoryCache cache = null;
+        //hard-linked files can be found only if all files are visited
+        if(configuration.isIncrementalBuildsCalculation() && !configuration.isCountHardLinksOnce()){
+            cache = DirectoryCache.load(project.getRootDir());
+            cache.setFullRescan(fullRescan || cache.isFullRescan());
+        }
+        BuildScanState state = BuildScanState.load(project.getRootDir());
+        if(audit){
+            List<AbstractBuild> builds = new ArrayList<AbstractBuild>(project.getBuilds());
+            if(oldestFirst)
+                Collections.reverse(builds);
+            for(AbstractBuild build : builds){
+                calculateDiskUsageForBuild(build, registry, cache, state);
+            }
+        }
+        else{
+            //only changed builds are loaded
+            for(File dir : getBuildDirectories(project, oldestFirst)){
+                if(!state.isDirty(dir)){
+                    state.keep(dir);
+                    continue;
+                }
+                AbstractBuild build = (AbstractBuild) project.getBuild(dir.getName());
+                if(build!=null){
+                    calculateDiskUsageForBuild(build, registry, cache, state);
+                }
+            }
+        }
+        try{
+            if(cache!=null){
+                if(!audit){
+                    //directories of builds which were not calculated are still valid
+                    cache.keepAll();
+                }
+                cache.save();
+            }
+            state.save();
+        }
+        catch(IOException e){
+            LOGGER.log(Level.WARNING, "Failed to save state of builds of " + project.getName(), e);
+        }
+        BuildSizeIndex index = BuildSizeIndex.get(project);
+        if(audit){
+            //all builds are loaded, so builds which were removed outside of Jenkins are dropped from the index
+            List<Integer> numbers = new ArrayList<Integer>();
+            for(Object build : project.getBuilds()){
+                numbers.add(((AbstractBuild) build).getNumber());
+            }
+            index.retain(numbers);
+        }
+        index.flush();
+    }
+    
+    private static void calculateDiskUsageForBuild(AbstractBuild build, InodeRegistry registry, DirectoryCache cache, BuildScanState state){
+        try{
+            calculateDiskUsageForBuild(build, registry, cache);
+            state.markClean(build.getRootDir());
+        }
+        catch(Exception e){
+            state.keep(build.getRootDir());
+            LOGGER.log(Level.WARNING, "Error when recording disk usage for " + build.getProject().getName(), e);
+        }
+    }
+    
+    /**
+     * @return directories of builds of the project sorted from the newest one (or from the oldest one), symlinks to
+     * builds are not included
+     */
+    private static List<File> getBuildDirectories(AbstractProject project, boolean oldestFirst){
+        List<File> dirs = new ArrayList<File>();
+        File[] files = project.getBuildDir().listFiles();
+        if(files==null)
+            return dirs;
+        for(File file : files){
+            if(file.isDirectory() && !isSymlink(file))
+                dirs.add(file);
+        }
+        //build ids are timestamps, so they are sorted by time
+        Collections.sort(dirs);
+        if(!oldestFirst)
+            Collections.reverse(dirs);
+        return dirs;
+    }
+
         public static void calculateDiskUsageForBuild(AbstractBuild build)
+            throws IOException {
+            calculateDiskUsageForBuild(build, null);
+        }
+        
+        /**
+         * Calculates disk usage of the build. If counting of hard-linked files only once is enabled, 
+         * hard-linked files which are in the given registry are not counted into unique size of the build.
+         * 
+         * @param registry registry shared by builds counted during one scan, if it is null only hard links
+         * inside the build are counted once
+         */
+        public static void calculateDiskUsageForBuild(AbstractBuild build, InodeRegistry registry)
+            throws IOException {
+            calculateDiskUsageForBuild(build, registry, null);
+        }
+        
+        /**
+         * Calculates disk usage of the build like {@link #calculateDiskUsageForBuild(AbstractBuild, InodeRegistry)}, 
+         * directories which have not changed since the previous calculation are not listed again.
+         * 
+         * @param cache cache of directories of the job, if it is null all directories are walked
+         */
+        public static void calculateDiskUsageForBuild(AbstractBuild build, InodeRegistry registry, DirectoryCache cache)
             throws IOException {
             if(DiskUsageProjectActionFactory.DESCRIPTOR.isExcluded(build.getProject()))
                 return;
             DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
+            if(!plugin.getConfiguration().isCountHardLinksOnce()){
+                registry = null;
+            }
+            else if(registry==null){
+                registry = new InodeRegistry();
+            }
         //Build disk usage has to be always recalculated to be kept up-to-date 
         //- artifacts might be kept only for the last build and users sometimes delete files manually as well.
-        long buildSize = DiskUsageUtil.getFileSize(build.getRootDir(), new ArrayList<File>());
+        DiskUsageWalkResult result;
+        if(cache!=null && registry==null && DiskUsageWalker.isNioAvailable()){
+            DiskUsageWalker walker = new CachingDiskUsageWalker(cache);
+            walker.setCountAllocatedSize(plugin.getConfiguration().isCountAllocatedSize());
+            result = walker.walk(build.getRootDir(), new ExcludedPaths());
+        }
+        else{
+            result = DiskUsageUtil.walk(build.getRootDir(), new ExcludedPaths(), plugin.getConfiguration().getWalkerType(), plugin.getConfiguration().getWalkParallelism(), registry, plugin.getConfiguration().isCountAllocatedSize());
+        }
+        recordDiskUsageOfBuild(build, result);
+    }
+    
+    /**
+     * Stores sizes of the build counted by the given walk.
+     */
+    private static void recordDiskUsageOfBuild(AbstractBuild build, DiskUsageWalkResult result) throws IOException{
+        DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
+        BuildDiskUsageAction action = build.getAction(BuildDiskUsageAction.class);
+        long buildSize = getCountedSize(result.getSize(), result.isPartial(), action==null ? null : action.getDiskUsage());
+        long uniqueSize = getCountedSize(result.getUniqueSize(), result.isPartial(), action==null ? null : action.getUniqueDiskUsage());
+        Long allocatedSize = plugin.getConfiguration().isCountAllocatedSize() ? getCountedSize(result.getAllocatedSize(), result.isPartial(), action==null ? null : action.getAllocatedDiskUsage()) : null;
 //        if (build instanceof MavenModuleSetBuild) {
 //            Collection<List<MavenBuild>> builds = ((MavenModuleSetBuild) build).getModuleBuilds().values();
 //            for (List<MavenBuild> mavenBuilds : builds) {
@@ -306,19 +639,23 @@ public class DiskUsageUtil {
 //                }
 //            }
 //        }
-        BuildDiskUsageAction action = build.getAction(BuildDiskUsageAction.class);
-        boolean updateBuild = false;
+        //sizes are stored in BuildSizeIndex of the job, so the build is not saved
         if (action == null) {
             action = new BuildDiskUsageAction(build, buildSize);
             build.addAction(action);
-            action.setDiskUsage(buildSize);
-            updateBuild = true;
+            action.setUniqueDiskUsage(uniqueSize);
+            action.setAllocatedDiskUsage(allocatedSize);
         } 
         else {
-            if (( action.getDiskUsage() <= 0 ) ||
+            if (( action.getDiskUsage() == null ) || ( action.getDiskUsage() <= 0 ) ||
         			( Math.abs(action.getDiskUsage() - buildSize) > 1024 )) {
         		action.setDiskUsage(buildSize);
-        		updateBuild = true;
+            }
+            if ( Math.abs(action.getUniqueDiskUsage() - uniqueSize) > 1024 ) {
+                action.setUniqueDiskUsage(uniqueSize);
+            }
+            if ( allocatedSize != null && Math.abs(action.getAllocatedDiskUsage() - allocatedSize) > 1024 ) {
+                action.setAllocatedDiskUsage(allocatedSize);
             }
         }
                 if(plugin.getConfiguration().warnAboutBuildExceetedSize() && buildSize>plugin.getConfiguration().getBuildExceedSize()){
@@ -328,35 +665,153 @@ public class DiskUsageUtil {
                         Logger.getLogger(DiskUsageUtil.class.getName()).log(Level.WARNING, "Disk usage plugin can not send notification about exceeting build size.", ex);
                     }
                 }
-        if ( updateBuild ) {
-        	build.save();
-        }
     }
         
     public static Long calculateWorkspaceDiskUsageForPath(FilePath workspace, ArrayList<FilePath> exceeded) throws IOException, InterruptedException{
-        Long diskUsage = 0l;
+        ExcludedPaths excluded = new ExcludedPaths();
+        for(FilePath file: exceeded){
+            excluded.add(file.getRemote());
+        }
+        return calculateWorkspaceDiskUsageForPath(workspace, excluded);
+    }
+    
+    /**
+     * @return size of the workspace, 0 if it does not exist or null if it could not be measured
+     */
+    public static Long calculateWorkspaceDiskUsageForPath(FilePath workspace, ExcludedPaths exceeded) throws IOException, InterruptedException{
+        DiskUsageWalkResult result = calculateWorkspaceDiskUsage(workspace, exceeded);
+        return result==null ? null : result.getSize();
+    }
+    
+    /**
+     * @return result of walking of the workspace (it is partial if not all files were counted), empty result if
+     * the workspace does not exist or null if it could not be measured
+     */
+    public static DiskUsageWalkResult calculateWorkspaceDiskUsage(FilePath workspace, ExcludedPaths exceeded) throws IOException, InterruptedException{
+        DiskUsageWalkResult diskUsage = new DiskUsageWalkResult(0, false);
         if(workspace.exists()){
+            Future<DiskUsageWalkResult> future = null;
+            Computer computer = workspace.toComputer();
+            WorkspaceCalculationProgress.Tracker tracker = WorkspaceCalculationProgress.start(computer==null ? "" : computer.getName(), Collections.singletonList(workspace.getRemote()));
             try{
-                diskUsage = workspace.getChannel().callAsync(new DiskUsageCallable(workspace, exceeded)).get(Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration().getTimeoutWorkspace(), TimeUnit.MINUTES);             
+                DiskUsageProjectActionFactory.DescriptorImpl configuration = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration();
+                long timeout = TimeUnit.MINUTES.toMillis(configuration.getTimeoutWorkspace());
+                DiskUsageCallable callable = new DiskUsageCallable(workspace, exceeded, configuration.getWalkerType(), configuration.getSlaveWalkParallelism(), getRemoteWalkTimeout(timeout));
+                callable.setProgressListener(workspace.getChannel().export(WorkspaceCalculationProgress.Listener.class, tracker), PROGRESS_INTERVAL);
+                future = workspace.getChannel().callAsync(callable);
+                DiskUsageWalkResult result = waitForRemoteWalk(future, timeout, tracker);
+                if(result.isPartial()){
+                    Logger.getLogger(DiskUsageUtil.class.getName()).log(Level.WARNING, "Disk usage of workspace " + workspace.getRemote() + " is counted only partially, limits of walking were reached on " + workspace.getChannel());
+                }
+                diskUsage = result;
             }
             catch(Exception e){
+                if(e instanceof TimeoutException){
+                    //stop walking on the node
+                    future.cancel(true);
+                }
                 Logger.getLogger(DiskUsageUtil.class.getName()).log(Level.WARNING, "Disk usage fails to calculate workspace for file path " + workspace.getRemote() + " through channel " + workspace.getChannel(),e);
+                diskUsage = null;
+            }
+            finally{
+                tracker.finish();
             }
         }
         return diskUsage;
     }
     
+    /**
+     * Waits for result of a remote walk. It stops waiting if the timeout passes or if the walk does not report
+     * any progress for the stall timeout of the configuration.
+     * 
+     * @param timeout time in milliseconds
+     * @throws TimeoutException if the walk did not finish in time or it is stalled
+     */
+    private static <V> V waitForRemoteWalk(Future<V> future, long timeout, WorkspaceCalculationProgress.Tracker tracker) throws InterruptedException, ExecutionException, TimeoutException{
+        DiskUsageProjectActionFactory.DescriptorImpl configuration = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration();
+        long stallTimeout = TimeUnit.MINUTES.toMillis(configuration.getWorkspaceStallTimeout());
+        long end = System.currentTimeMillis() + timeout;
+        while(true){
+            long remaining = end - System.currentTimeMillis();
+            try{
+                return future.get(Math.max(1, Math.min(remaining, PROGRESS_INTERVAL)), TimeUnit.MILLISECONDS);
+            }
+            catch(TimeoutException e){
+                long now = System.currentTimeMillis();
+                if(now >= end)
+                    throw e;
+                if(stallTimeout > 0 && now - tracker.getLastUpdate() > stallTimeout)
+                    throw new TimeoutException("Walking has not reported any progress for " + formatTimeInMilisec(now - tracker.getLastUpdate()) + ", it is probably stalled");
+            }
+        }
+    }
+    
+    /**
+     * @param timeout time in milliseconds for which the master waits for result of a remote walk
+     * @return time for which the walk runs on the node, it is shorter, so the partial result is returned
+     * before the master stops waiting
+     */
+    static long getRemoteWalkTimeout(long timeout){
+        return timeout - Math.min(timeout / 10, TimeUnit.SECONDS.toMillis(30));
+    }
+    
     public static void calculateWorkspaceDiskUsage(AbstractProject project) throws IOException, InterruptedException {
-        if(DiskUsageProjectActionFactory.DESCRIPTOR.isExcluded(project))
-            return;
-        DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
-        DiskUsageProperty property =  (DiskUsageProperty) project.getProperty(DiskUsageProperty.class);
-        if(property==null){
-            property = new DiskUsageProperty();
-            project.addProperty(property);
+        calculateWorkspaceDiskUsage(Collections.singletonList(project));
+    }
+    
+    /**
+     * Calculates disk usage of all known workspaces of the given projects. Workspaces are grouped by nodes and
+     * every node gets only one request which checks existence of all its workspaces and measures them.
+     */
+    public static void calculateWorkspaceDiskUsage(List<AbstractProject> projects) throws IOException, InterruptedException {
+        calculateWorkspaceDiskUsage(projects, null);
+    }
+    
+    /**
+     * Calculates disk usage of known workspaces of the given projects on the given node.
+     * 
+     * @param onlyNodeName name of the node, null means all nodes
+     */
+    public static void calculateWorkspaceDiskUsage(List<AbstractProject> projects, String onlyNodeName) throws IOException, InterruptedException {
+        // node name -> workspace path -> excluded paths (workspaces of child projects)
+        Map<String,Map<String,ExcludedPaths>> workspaces = new HashMap<String,Map<String,ExcludedPaths>>();
+        // node name -> workspace path -> projects which use the workspace
+        final Map<String,Map<String,List<AbstractProject>>> owners = new HashMap<String,Map<String,List<AbstractProject>>>();
+        Set<AbstractProject> checked = new HashSet<AbstractProject>();
+        List<AbstractProject> calculated = new ArrayList<AbstractProject>();
+        for(AbstractProject project : projects){
+            if(DiskUsageProjectActionFactory.DESCRIPTOR.isExcluded(project))
+                continue;
+            DiskUsageProperty property = getCheckedProperty(project, checked);
+            calculated.add(project);
+            for(String nodeName: property.getSlaveWorkspaceUsage().keySet()){
+                if(onlyNodeName!=null && !onlyNodeName.equals(nodeName))
+                    continue;
+                Map<String,ExcludedPaths> nodeWorkspaces = workspaces.get(nodeName);
+                Map<String,List<AbstractProject>> nodeOwners = owners.get(nodeName);
+                if(nodeWorkspaces==null){
+                    nodeWorkspaces = new LinkedHashMap<String,ExcludedPaths>();
+                    workspaces.put(nodeName, nodeWorkspaces);
+                    nodeOwners = new HashMap<String,List<AbstractProject>>();
+                    owners.put(nodeName, nodeOwners);
+                }
+                //exclusion of child workspaces is computed once per project and node, it is shared by all its workspaces
+                ExcludedPaths exceededFiles = null;
+                for(String path : property.getSlaveWorkspaceUsage().get(nodeName).keySet()){
+                    if(!nodeWorkspaces.containsKey(path)){
+                        if(exceededFiles==null)
+                            exceededFiles = getChildWorkspaces(project, nodeName, checked);
+                        nodeWorkspaces.put(path, exceededFiles);
+                        nodeOwners.put(path, new ArrayList<AbstractProject>());
+                    }
+                    nodeOwners.get(path).add(project);
+                }
+            }
         }
-        property.checkWorkspaces();
-        for(String nodeName: property.getSlaveWorkspaceUsage().keySet()){
+        DiskUsageProjectActionFactory.DescriptorImpl configuration = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration();
+        WorkspaceCalculationExecutor<Node,Map<String,DiskUsageWalkResult>> executor = new WorkspaceCalculationExecutor<Node,Map<String,DiskUsageWalkResult>>(
+                configuration.getWorkspaceCalculationThreads(), configuration.getWorkspaceCalculationThreadsPerNode());
+        for(String nodeName : workspaces.keySet()){
             Node node = null;
             if(nodeName.isEmpty()){
                 node = Jenkins.getInstance();
@@ -368,45 +823,141 @@ public class DiskUsageUtil {
                 //probably does not exists yet
                 continue;
             }
-            
-            if(node.toComputer()!=null && node.toComputer().getChannel()!=null){
-                Iterator<String> iterator = property.getSlaveWorkspaceUsage().get(nodeName).keySet().iterator();
-                while(iterator.hasNext()){
-                    String projectWorkspace = iterator.next();
-                    FilePath workspace = new FilePath(node.toComputer().getChannel(), projectWorkspace);
-                    if(workspace.exists()){
-                        Long diskUsage = property.getSlaveWorkspaceUsage().get(node.getNodeName()).get(workspace.getRemote());
-                        ArrayList<FilePath> exceededFiles = new ArrayList<FilePath>();
-                        if(project instanceof ItemGroup){
-                            List<AbstractProject> projects = getAllProjects((ItemGroup) project);
-                            for(AbstractProject p: projects){
-                                DiskUsageProperty prop = (DiskUsageProperty) p.getProperty(DiskUsageProperty.class);
-                                if(prop==null){
-                                    prop = new DiskUsageProperty();
-                                    p.addProperty(prop);
-                                }
-                                prop.checkWorkspaces();
-                                Map<String,Long> paths = prop.getSlaveWorkspaceUsage().get(node.getNodeName());
-                                if(paths!=null && !paths.isEmpty()){
-                                    for(String path: paths.keySet()){
-                                        exceededFiles.add(new FilePath(node.getChannel(),path));
-                                    }
-                                }
-                            }
-                        }
-                        diskUsage = calculateWorkspaceDiskUsageForPath(workspace, exceededFiles);
-                        if(diskUsage!=null && diskUsage>0){
-                            property.putSlaveWorkspaceSize(node, workspace.getRemote(), diskUsage);
+            if(node.toComputer()==null || node.toComputer().getChannel()==null)
+                continue;
+            executor.add(node, workspaces.get(nodeName));
+        }
+        executor.run(new WorkspaceCalculationExecutor.Calculation<Node,Map<String,DiskUsageWalkResult>>(){
+            public Map<String,DiskUsageWalkResult> calculate(Node node, Map<String,ExcludedPaths> nodeWorkspaces){
+                return calculateWorkspacesDiskUsage(node, nodeWorkspaces);
+            }
+        }, new WorkspaceCalculationExecutor.Callback<Node,Map<String,DiskUsageWalkResult>>(){
+            public void done(Node node, Map<String,ExcludedPaths> nodeWorkspaces, Map<String,DiskUsageWalkResult> results){
+                if(results==null)
+                    return;
+                Map<String,List<AbstractProject>> nodeOwners = owners.get(node.getNodeName());
+                for(String path : nodeWorkspaces.keySet()){
+                    for(AbstractProject project : nodeOwners.get(path)){
+                        DiskUsageProperty property = (DiskUsageProperty) project.getProperty(DiskUsageProperty.class);
+                        if(!results.containsKey(path)){
+                            property.remove(node, path);
+                            continue;
                         }
-                        controlorkspaceExceedSize(project);
+                        DiskUsageWalkResult result = results.get(path);
+                        if(result==null)
+                            continue;
+                        Map<String,Long> previous = property.getSlaveWorkspaceUsage().get(node.getNodeName());
+                        long size = getCountedSize(result.getSize(), result.isPartial(), previous==null ? null : previous.get(path));
+                        property.putSlaveWorkspaceSize(node, path, size);
                     }
-                    else{
-                        property.remove(node, projectWorkspace);
+                }
+            }
+        });
+        for(AbstractProject project : calculated){
+            controlorkspaceExceedSize(project);
+            ((DiskUsageProperty) project.getProperty(DiskUsageProperty.class)).saveDiskUsage();
+        }
+    }
+    
+    private static DiskUsageProperty getCheckedProperty(AbstractProject project, Set<AbstractProject> checked){
+        DiskUsageProperty property =  (DiskUsageProperty) project.getProperty(DiskUsageProperty.class);
+        if(property==null){
+            property = new DiskUsageProperty();
+            try{
+                project.addProperty(property);
+            }
+            catch(IOException e){
+                LOGGER.log(Level.WARNING, "Failed to save disk usage property of " + project.getName(), e);
+            }
+        }
+        if(checked.add(project)){
+            property.checkWorkspaces();
+        }
+        return property;
+    }
+    
+    /**
+     * @return workspaces of child projects (e.g. matrix configurations) of the project on the given node
+     */
+    public static ExcludedPaths getChildWorkspaces(AbstractProject project, String nodeName){
+        return getChildWorkspaces(project, nodeName, new HashSet<AbstractProject>());
+    }
+    
+    private static ExcludedPaths getChildWorkspaces(AbstractProject project, String nodeName, Set<AbstractProject> checked){
+        ExcludedPaths exceededFiles = new ExcludedPaths();
+        if(project instanceof ItemGroup){
+            List<AbstractProject> projects = getAllProjects((ItemGroup) project);
+            for(AbstractProject p: projects){
+                DiskUsageProperty prop = getCheckedProperty(p, checked);
+                Map<String,Long> paths = prop.getSlaveWorkspaceUsage().get(nodeName);
+                if(paths!=null && !paths.isEmpty()){
+                    for(String path: paths.keySet()){
+                        exceededFiles.add(path);
                     }
                 }
             }
         }
-        property.saveDiskUsage();
+        return exceededFiles;
+    }
+    
+    /**
+     * Measures all given workspaces of the node by one remote call.
+     * 
+     * @return results of existing workspaces (null if the workspace could not be measured) or null if the
+     * call failed, workspaces which do not exist are missing in the result
+     */
+    private static Map<String,DiskUsageWalkResult> calculateWorkspacesDiskUsage(Node node, Map<String,ExcludedPaths> workspaces){
+        DiskUsageProjectActionFactory.DescriptorImpl configuration = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration();
+        VirtualChannel channel = node.toComputer().getChannel();
+        Future<Map<String,DiskUsageWalkResult>> future = null;
+        WorkspaceCalculationProgress.Tracker tracker = WorkspaceCalculationProgress.start(node.getNodeName(), workspaces.keySet());
+        try{
+            //timeout is set for one workspace, so one workspace can not use time of the others
+            long workspaceTimeout = TimeUnit.MINUTES.toMillis(configuration.getTimeoutWorkspace());
+            long timeout = workspaceTimeout * workspaces.size();
+            WorkspacesDiskUsageCallable callable = new WorkspacesDiskUsageCallable(workspaces, configuration.getWalkerType(), configuration.getSlaveWalkParallelism(), getRemoteWalkTimeout(timeout));
+            callable.setWorkspaceTimeout(getRemoteWalkTimeout(workspaceTimeout));
+            FilePath root = node.getRootPath();
+            if(configuration.isIncrementalWorkspacesCalculation() && root!=null){
+                callable.setCache(root.child(WorkspacesDiskUsageCallable.CACHE_DIRECTORY).getRemote(), TimeUnit.HOURS.toMillis(configuration.getWorkspacesFullRescanInterval()));
+            }
+            callable.setProgressListener(channel.export(WorkspaceCalculationProgress.Listener.class, tracker), PROGRESS_INTERVAL);
+            future = channel.callAsync(callable);
+            Map<String,DiskUsageWalkResult> results = waitForRemoteWalk(future, timeout, tracker);
+            for(Map.Entry<String,DiskUsageWalkResult> entry : results.entrySet()){
+                if(entry.getValue()!=null && entry.getValue().isPartial()){
+                    LOGGER.log(Level.WARNING, "Disk usage of workspace " + entry.getKey() + " is counted only partially, limits of walking were reached on " + channel);
+                }
+            }
+            return results;
+        }
+        catch(Exception e){
+            if(e instanceof TimeoutException){
+                //stop walking on the node
+                future.cancel(true);
+            }
+            LOGGER.log(Level.WARNING, "Disk usage fails to calculate workspaces of node " + node.getDisplayName() + " through channel " + channel, e);
+            return null;
+        }
+        finally{
+            tracker.finish();
+        }
+    }
+    
+    /**
+     * @return projects which are not children of other projects (e.g. matrix configurations are not included)
+     */
+    public static List<AbstractProject> getTopLevelProjects(ItemGroup<? extends Item> itemGroup) {
+        List<AbstractProject> items = new ArrayList<AbstractProject>();
+        for (Item item : itemGroup.getItems()) {
+            if(item instanceof AbstractProject){
+                items.add((AbstractProject)item);
+            }
+            else if (item instanceof ItemGroup) {
+                items.addAll(getTopLevelProjects((ItemGroup) item));
+            }
+        }
+        return items;
     }
     
     public static List<AbstractProject> getAllProjects(ItemGroup<? extends Item> itemGroup) {
@@ -425,29 +976,235 @@ public class DiskUsageUtil {
     /**
      * A {@link Callable} which computes disk usage of remote file object
      */
-    public static class DiskUsageCallable implements Callable<Long, IOException> {
+    public static class DiskUsageCallable implements Callable<DiskUsageWalkResult, IOException> {
 
     	public static final Logger LOGGER = Logger
     		.getLogger(DiskUsageCallable.class.getName());
 
         private FilePath path;
-        private List<FilePath> exceedFilesPath;
+        private ExcludedPaths exceeded;
+        private String walkerType = DiskUsageWalker.STREAMING;
+        private int parallelism = 1;
+        private long timeout;
+        private WorkspaceCalculationProgress.Listener progressListener;
+        private long progressInterval;
 
         public DiskUsageCallable(FilePath filePath, List<FilePath> exceedFilesPath) {
             this.path = filePath;
-            this.exceedFilesPath = exceedFilesPath;
+            this.exceeded = new ExcludedPaths();
+            for(FilePath file: exceedFilesPath){
+                exceeded.add(file.getRemote());
+            }
+        }
+        
+        public DiskUsageCallable(FilePath filePath, ExcludedPaths exceeded, String walkerType, int parallelism) {
+            this(filePath, exceeded, walkerType, parallelism, 0);
+        }
+        
+        /**
+         * @param timeout time in milliseconds after which walking stops and the size counted so far is returned as partial, 0 means no limit
+         */
+        public DiskUsageCallable(FilePath filePath, ExcludedPaths exceeded, String walkerType, int parallelism, long timeout) {
+            this.path = filePath;
+            this.exceeded = exceeded;
+            this.walkerType = walkerType;
+            this.parallelism = parallelism;
+            this.timeout = timeout;
+        }
+        
+        /**
+         * @param progressListener listener exported to the node, it receives progress of the walk
+         * @param progressInterval minimal time in milliseconds between two reports
+         */
+        public void setProgressListener(WorkspaceCalculationProgress.Listener progressListener, long progressInterval){
+            this.progressListener = progressListener;
+            this.progressInterval = progressInterval;
         }
 
-        public Long call() throws IOException {
+        public DiskUsageWalkResult call() throws IOException {
             File f = new File(path.getRemote());
-            List<File> exceeded = new ArrayList<File>();
-            for(FilePath file: exceedFilesPath){
-                exceeded.add(new File(file.getRemote()));
+            //slave can override number of threads by system property
+            int threads = Integer.getInteger(DiskUsageWalker.PARALLELISM_PROPERTY, parallelism);
+            DiskUsageWalker walker = DiskUsageWalker.getInstance(walkerType, threads);
+            //deadline is counted by the clock of the slave
+            walker.setDeadline(timeout > 0 ? System.currentTimeMillis() + timeout : 0);
+            if(progressListener!=null)
+                walker.setProgress(new RemoteWalkProgress(progressListener, path.getRemote(), progressInterval));
+            return walker.walk(f, exceeded);
+        }
+       
+    }
+    
+    /**
+     * A {@link Callable} which computes disk usage of all given workspaces of one node. Existence of every
+     * workspace is checked on the node, so no other remote call is needed.
+     */
+    public static class WorkspacesDiskUsageCallable implements Callable<Map<String,DiskUsageWalkResult>, IOException> {
+
+        /**
+         * Directory under the root directory of a node which contains caches of walked workspaces.
+         */
+        public static final String CACHE_DIRECTORY = "disk-usage-cache";
+
+        // caches of workspaces which have not been walked for this time are deleted
+        private static final long UNUSED_CACHE_AGE = TimeUnit.DAYS.toMillis(7);
+
+        private LinkedHashMap<String,ExcludedPaths> workspaces;
+        private String walkerType = DiskUsageWalker.STREAMING;
+        private int parallelism = 1;
+        private long timeout;
+        private long workspaceTimeout;
+        private String cacheDirectory;
+        private long fullRescanInterval;
+        private WorkspaceCalculationProgress.Listener progressListener;
+        private long progressInterval;
+
+        /**
+         * @param workspaces paths of workspaces and files excluded from them, the same instance of excluded
+         * files can be shared by more workspaces, it is serialized only once
+         * @param timeout time in milliseconds for walking of all workspaces, workspaces which are not counted
+         * in this time are returned as partial, 0 means no limit
+         */
+        public WorkspacesDiskUsageCallable(Map<String,ExcludedPaths> workspaces, String walkerType, int parallelism, long timeout) {
+            this.workspaces = new LinkedHashMap<String,ExcludedPaths>(workspaces);
+            this.walkerType = walkerType;
+            this.parallelism = parallelism;
+            this.timeout = timeout;
+        }
+
+        /**
+         * @param workspaceTimeout time in milliseconds for walking of one workspace, the workspace is returned as partial
+         * if it is not counted in this time and the next workspace is walked, 0 means no limit
+         */
+        public void setWorkspaceTimeout(long workspaceTimeout){
+            this.workspaceTimeout = workspaceTimeout;
+        }
+
+        /**
+         * Enables {@link DirectoryCache} for workspaces without excluded files, unchanged directories are not listed again.
+         * 
+         * @param cacheDirectory directory on the node where caches are stored
+         * @param fullRescanInterval time in milliseconds after which all directories of a workspace are listed again
+         * (content of an existing file can change without change of its directory)
+         */
+        public void setCache(String cacheDirectory, long fullRescanInterval){
+            this.cacheDirectory = cacheDirectory;
+            this.fullRescanInterval = fullRescanInterval;
+        }
+
+        /**
+         * @param progressListener listener exported to the node, it receives progress of walks
+         * @param progressInterval minimal time in milliseconds between two reports of one workspace
+         */
+        public void setProgressListener(WorkspaceCalculationProgress.Listener progressListener, long progressInterval){
+            this.progressListener = progressListener;
+            this.progressInterval = progressInterval;
+        }
+
+        /**
+         * @return results of existing workspaces, null value if walking of the workspace failed - failure of one
+         * workspace does not stop walking of the others
+         */
+        public Map<String,DiskUsageWalkResult> call() throws IOException {
+            Map<String,DiskUsageWalkResult> results = new HashMap<String,DiskUsageWalkResult>();
+            //slave can override number of threads by system property
+            int threads = Integer.getInteger(DiskUsageWalker.PARALLELISM_PROPERTY, parallelism);
+            //deadline is counted by the clock of the slave
+            long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            for(Map.Entry<String,ExcludedPaths> entry : workspaces.entrySet()){
+                File f = new File(entry.getKey());
+                if(!f.exists())
+                    continue;
+                long workspaceDeadline = deadline;
+                if(workspaceTimeout > 0){
+                    long end = System.currentTimeMillis() + workspaceTimeout;
+                    workspaceDeadline = deadline > 0 ? Math.min(deadline, end) : end;
+                }
+                try{
+                    DirectoryCache cache = null;
+                    DiskUsageWalker walker;
+                    if(cacheDirectory!=null && entry.getValue().isEmpty() && DiskUsageWalker.isNioAvailable() && !Boolean.getBoolean(DiskUsageWalker.LEGACY_PROPERTY)){
+                        cache = loadCache(f);
+                        walker = new CachingDiskUsageWalker(cache);
+                    }
+                    else{
+                        walker = DiskUsageWalker.getInstance(walkerType, threads);
+                    }
+                    walker.setDeadline(workspaceDeadline);
+                    if(progressListener!=null){
+                        RemoteWalkProgress progress = new RemoteWalkProgress(progressListener, entry.getKey(), progressInterval);
+                        //start of the walk is reported immediately
+                        progress.report(entry.getKey(), 0, 0, 0);
+                        walker.setProgress(progress);
+                    }
+                    DiskUsageWalkResult result = walker.walk(f, entry.getValue());
+                    results.put(entry.getKey(), result);
+                    if(cache!=null){
+                        if(cache.isFullRescan() && !result.isPartial())
+                            cache.fullRescanDone();
+                        saveCache(cache);
+                    }
+                }
+                catch(Exception e){
+                    //also unexpected exceptions (e.g. from a directory iterator) stop only walking of this workspace
+                    DiskUsageCallable.LOGGER.log(Level.WARNING, "Failed to calculate disk usage of " + f, e);
+                    results.put(entry.getKey(), null);
+                }
+            }
+            if(cacheDirectory!=null){
+                DirectoryCache.deleteUnused(new File(cacheDirectory), UNUSED_CACHE_AGE);
             }
-            return DiskUsageUtil.getFileSize(f, exceeded);
+            return results;
+        }
+
+        private void saveCache(DirectoryCache cache){
+            try{
+                cache.save();
+            }
+            catch(IOException e){
+                //result of the walk is still valid, the next walk lists all directories
+                DiskUsageCallable.LOGGER.log(Level.WARNING, "Failed to save cache of " + cache.getBase(), e);
+            }
+        }
+
+        private DirectoryCache loadCache(File workspace) throws IOException{
+            File directory = new File(cacheDirectory);
+            if(!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Failed to create " + directory);
+            //name of the file does not have to be unique, the cache checks path of the workspace
+            DirectoryCache cache = DirectoryCache.load(workspace, new File(directory, Util.getDigestOf(workspace.getAbsolutePath())));
+            if(System.currentTimeMillis() - cache.getLastFullRescan() >= fullRescanInterval)
+                cache.setFullRescan(true);
+            return cache;
         }
        
     }
     
+    /**
+     * Sends progress of a walk on a slave to the master.
+     */
+    private static class RemoteWalkProgress extends WalkProgress {
+
+        private final WorkspaceCalculationProgress.Listener listener;
+        private final String workspace;
+
+        public RemoteWalkProgress(WorkspaceCalculationProgress.Listener listener, String workspace, long interval){
+            super(interval);
+            this.listener = listener;
+            this.workspace = workspace;
+        }
+
+        @Override
+        protected void report(String directory, int depth, long size, long entries){
+            try{
+                listener.progress(workspace, directory, depth, size, entries);
+            }
+            catch(RuntimeException e){
+                //progress is not important, walking continues
+                LOGGER.log(Level.FINE, "Failed to report progress of walking of " + workspace, e);
+            }
+        }
+    }
+    
     public static final Logger LOGGER = Logger.getLogger(DiskUsageUtil.class.getName());
 }
@@ -0,0 +1,65 @@
+package hudson.plugins.disk_usage;
+
+import java.io.Serializable;
+
+/**
+ * Result of walking of a directory tree.
+ */
+public class DiskUsageWalkResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long size;
+
+    private final long uniqueSize;
+
+    private final long allocatedSize;
+
+    private final boolean partial;
+
+    public DiskUsageWalkResult(long size, boolean partial){
+        this(size, size, partial);
+    }
+
+    public DiskUsageWalkResult(long size, long uniqueSize, boolean partial){
+        this(size, uniqueSize, size, partial);
+    }
+
+    public DiskUsageWalkResult(long size, long uniqueSize, long allocatedSize, boolean partial){
+        this.size = size;
+        this.uniqueSize = uniqueSize;
+        this.allocatedSize = allocatedSize;
+        this.partial = partial;
+    }
+
+    /**
+     * @return counted (apparent) size in bytes, every hard link of a file is counted
+     */
+    public long getSize(){
+        return size;
+    }
+
+    /**
+     * @return size in bytes without hard-linked files which were counted before during the same scan,
+     * it is the same as {@link #getSize()} if no {@link InodeRegistry} was used
+     */
+    public long getUniqueSize(){
+        return uniqueSize;
+    }
+
+    /**
+     * @return size of blocks allocated on disk in bytes, it is the same as {@link #getSize()} if counting
+     * of allocated size was not enabled - see {@link DiskUsageWalker#setCountAllocatedSize(boolean)}
+     */
+    public long getAllocatedSize(){
+        return allocatedSize;
+    }
+
+    /**
+     * @return true if some part of the tree was not counted because limits of walking were reached,
+     * the size is lower than the real size in that case
+     */
+    public boolean isPartial(){
+        return partial;
+    }
+}
@@ -0,0 +1,202 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Walks a directory tree and counts the size of its entries. Symbolic links are
+ * not followed and files contained in the list of excluded files are not counted.
+ *
+ * The walkers based on java.nio.file are used if they are available (java 7 and newer),
+ * otherwise the walker based on java.io.File is used. By default {@link StreamingDiskUsageWalker}
+ * is used.
+ */
+public abstract class DiskUsageWalker {
+
+    /**
+     * Set this system property to true to force the java.io.File based walker.
+     */
+    public static final String LEGACY_PROPERTY = DiskUsageWalker.class.getName() + ".legacy";
+
+    /**
+     * System property which overrides number of threads used for walking on the node where it is set.
+     */
+    public static final String PARALLELISM_PROPERTY = DiskUsageWalker.class.getName() + ".parallelism";
+
+    /**
+     * Walker based on {@link java.nio.file.Files#walkFileTree}, it keeps one directory stream open for every level
+     * of the walked tree, so deep trees can exceed limit of open files
+     */
+    public static final String NIO = "nio";
+
+    /**
+     * Walker which iterates directories by {@link java.nio.file.DirectoryStream}, it counts the same size as
+     * {@link #NIO} but the number of open directory streams is bounded (deeper directories are walked later)
+     */
+    public static final String STREAMING = "streaming";
+
+    /**
+     * Walker based on java.io.File
+     */
+    public static final String FILE = "file";
+
+    private static final boolean NIO_AVAILABLE = checkNio();
+
+    private InodeRegistry inodeRegistry;
+
+    private boolean countAllocatedSize;
+
+    private volatile long deadline;
+
+    private volatile boolean cancelled;
+
+    private WalkProgress progress;
+
+    /**
+     * Sets registry of hard-linked files counted during the current scan. If it is set, walkers
+     * based on java.nio.file count every physical file only once into the unique size.
+     */
+    public void setInodeRegistry(InodeRegistry inodeRegistry){
+        this.inodeRegistry = inodeRegistry;
+    }
+
+    public InodeRegistry getInodeRegistry(){
+        return inodeRegistry;
+    }
+
+    /**
+     * Sets if size of blocks allocated on disk is counted too (see {@link AllocatedSize}). It costs
+     * one more system call for every entry.
+     */
+    public void setCountAllocatedSize(boolean countAllocatedSize){
+        this.countAllocatedSize = countAllocatedSize;
+    }
+
+    public boolean isCountAllocatedSize(){
+        return countAllocatedSize;
+    }
+
+    /**
+     * Sets time (in milliseconds of the clock of the node where the walk runs) after which walking stops
+     * and the result counted so far is returned as partial. 0 means no deadline.
+     */
+    public void setDeadline(long deadline){
+        this.deadline = deadline;
+    }
+
+    public long getDeadline(){
+        return deadline;
+    }
+
+    /**
+     * Stops running walk, it returns the result counted so far as partial.
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    /**
+     * Walkers check it for every directory.
+     *
+     * @param caller thread which started the walk, walking stops if it is interrupted (e.g. a remote call was cancelled)
+     * @return true if the walk should stop
+     */
+    protected boolean isStopped(Thread caller){
+        if(cancelled || caller.isInterrupted())
+            return true;
+        return deadline > 0 && System.currentTimeMillis() > deadline;
+    }
+
+    /**
+     * Sets receiver of progress of walks, it is null by default.
+     */
+    public void setProgress(WalkProgress progress){
+        this.progress = progress;
+    }
+
+    public WalkProgress getProgress(){
+        return progress;
+    }
+
+    /**
+     * Walkers call it during walking, see {@link WalkProgress#update(String, int, long, long)}.
+     */
+    protected void reportProgress(String directory, int depth, long size, long entries){
+        WalkProgress p = progress;
+        if(p!=null)
+            p.update(directory, depth, size, entries);
+    }
+
+    /**
+     * @return allocated size of the given file if counting of allocated size is enabled, otherwise its length
+     */
+    protected static long getAllocatedSize(boolean countAllocatedSize, File f, long length){
+        if(!countAllocatedSize)
+            return length;
+        return AllocatedSize.get(f, length);
+    }
+
+    /**
+     * Returns size of the given file including all its sub-files.
+     *
+     * @param f file or directory which size should be counted
+     * @param excluded files which are skipped (together with their content)
+     * @return size of the file in bytes
+     */
+    public abstract Long getFileSize(File f, ExcludedPaths excluded) throws IOException;
+
+    public Long getFileSize(File f, List<File> exceedFiles) throws IOException {
+        return getFileSize(f, new ExcludedPaths(exceedFiles));
+    }
+
+    /**
+     * Counts size of the given file like {@link #getFileSize(File, ExcludedPaths)} and reports
+     * if the whole tree was counted.
+     */
+    public DiskUsageWalkResult walk(File f, ExcludedPaths excluded) throws IOException {
+        return new DiskUsageWalkResult(getFileSize(f, excluded), false);
+    }
+
+    public static boolean isNioAvailable(){
+        return NIO_AVAILABLE;
+    }
+
+    public static DiskUsageWalker getInstance(){
+        return getInstance(STREAMING, 1);
+    }
+
+    /**
+     * Returns walker of the given type which uses the given number of threads. Walkers other than
+     * java.io.File walker need java.nio.file, without it the java.io.File walker is used.
+     *
+     * @param type type of the sequential walker - {@link #STREAMING} (default), {@link #NIO} or {@link #FILE}
+     * @param parallelism number of threads used for walking, 1 or less means sequential walking
+     */
+    public static DiskUsageWalker getInstance(String type, int parallelism){
+        if(NIO_AVAILABLE && !Boolean.getBoolean(LEGACY_PROPERTY) && !FILE.equals(type)){
+            if(parallelism > 1){
+                return new ForkJoinDiskUsageWalker(parallelism);
+            }
+            if(NIO.equals(type)){
+                return new NioDiskUsageWalker();
+            }
+            return new StreamingDiskUsageWalker();
+        }
+        return new FileDiskUsageWalker();
+    }
+
+    private static boolean checkNio(){
+        try{
+            Class.forName("java.nio.file.Files");
+            return true;
+        }
+        catch(ClassNotFoundException e){
+            LOGGER.info("java.nio.file is not available, disk usage uses java.io.File for walking directories.");
+            return false;
+        }
+    }
+
+    public static final Logger LOGGER = Logger.getLogger(DiskUsageWalker.class.getName());
+}
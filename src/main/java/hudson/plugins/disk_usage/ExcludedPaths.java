@@ -0,0 +1,127 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Set of files which are skipped during walking of a directory tree. Lookup costs
+ * the same for any number of excluded files, so walking of job root directory
+ * does not slow down with number of builds.
+ *
+ * Paths are kept as they were added and normalized to absolute paths on the node where
+ * they are looked up first - remote paths of a slave are not resolved against the master's
+ * working directory.
+ *
+ * Paths are serialized sorted and front coded - every path is written as length of the prefix shared with the
+ * previous path and the rest of the path, so many workspaces under the same directory (e.g. workspaces of matrix
+ * configurations) are sent to a slave cheaply.
+ */
+public class ExcludedPaths implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private transient List<String> paths = new ArrayList<String>();
+
+    private transient volatile Set<String> absolutePaths;
+
+    public ExcludedPaths(){
+    }
+
+    public ExcludedPaths(Collection<File> files){
+        for(File file : files){
+            add(file);
+        }
+    }
+
+    public synchronized void add(File file){
+        add(file.getPath());
+    }
+
+    public synchronized void add(String path){
+        paths.add(path);
+        absolutePaths = null;
+    }
+
+    public synchronized void addAll(ExcludedPaths excluded){
+        for(String path : excluded.getPaths()){
+            add(path);
+        }
+    }
+
+    public synchronized List<String> getPaths(){
+        return new ArrayList<String>(paths);
+    }
+
+    public synchronized boolean isEmpty(){
+        return paths.isEmpty();
+    }
+
+    public synchronized int size(){
+        return paths.size();
+    }
+
+    private synchronized Set<String> getAbsolutePaths(){
+        if(absolutePaths==null){
+            Set<String> set = new HashSet<String>(paths.size() * 2);
+            for(String path : paths){
+                set.add(new File(path).getAbsolutePath());
+            }
+            absolutePaths = set;
+        }
+        return absolutePaths;
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException{
+        out.defaultWriteObject();
+        Set<String> sorted = new TreeSet<String>(paths);
+        out.writeInt(sorted.size());
+        String previous = "";
+        for(String path : sorted){
+            int shared = 0;
+            int max = Math.min(previous.length(), path.length());
+            while(shared < max && previous.charAt(shared)==path.charAt(shared)){
+                shared++;
+            }
+            out.writeInt(shared);
+            out.writeUTF(path.substring(shared));
+            previous = path;
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        int count = in.readInt();
+        paths = new ArrayList<String>(count);
+        String previous = "";
+        for(int i=0; i<count; i++){
+            int shared = in.readInt();
+            String path = previous.substring(0, shared) + in.readUTF();
+            paths.add(path);
+            previous = path;
+        }
+    }
+
+    public boolean contains(File file){
+        return contains(file.getAbsolutePath());
+    }
+
+    /**
+     * @param absolutePath absolute path normalized in the same way as {@link File#getAbsolutePath()} does it
+     */
+    public boolean contains(String absolutePath){
+        Set<String> set = absolutePaths;
+        if(set==null){
+            set = getAbsolutePaths();
+        }
+        return !set.isEmpty() && set.contains(absolutePath);
+    }
+}
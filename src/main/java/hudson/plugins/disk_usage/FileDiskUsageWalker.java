@@ -0,0 +1,71 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Recursive walker based on java.io.File. It is used as fallback when java.nio.file
+ * is not available.
+ */
+public class FileDiskUsageWalker extends DiskUsageWalker {
+
+    @Override
+    public Long getFileSize(File f, ExcludedPaths excluded) throws IOException {
+        return walk(f, excluded).getSize();
+    }
+
+    @Override
+    public DiskUsageWalkResult walk(File f, ExcludedPaths excluded) throws IOException {
+        if(DiskUsageUtil.isSymlink(f)){
+            return new DiskUsageWalkResult(f.length(), false);
+        }
+        Counter counter = new Counter();
+        counter.caller = Thread.currentThread();
+        try{
+            count(f.getAbsoluteFile(), excluded, counter, 0);
+        }
+        catch(StackOverflowError e){
+            //the tree is too deep for recursion, return at least what was counted
+            LOGGER.warning("Directory tree " + f + " is too deep, its size is counted only partially.");
+            return new DiskUsageWalkResult(counter.size, counter.size, counter.allocatedSize, true);
+        }
+        if(counter.partial){
+            LOGGER.warning("Walking of " + f + " was stopped, its size is counted only partially.");
+        }
+        return new DiskUsageWalkResult(counter.size, counter.size, counter.allocatedSize, counter.partial);
+    }
+
+    private void count(File f, ExcludedPaths excluded, Counter counter, int depth) {
+        long length = f.length();
+        counter.size += length;
+        counter.entries++;
+        counter.allocatedSize += getAllocatedSize(isCountAllocatedSize(), f, length);
+        if (f.isDirectory()) {
+            if(counter.partial || isStopped(counter.caller)){
+                counter.partial = true;
+                return;
+            }
+            reportProgress(f.getPath(), depth, counter.size, counter.entries);
+            File[] fileList = f.listFiles();
+            if (fileList != null) {
+                for (File child : fileList) {
+                    if(excluded.contains(child.getPath()))
+                        continue; //do not count exceeded files
+                    if (!DiskUsageUtil.isSymlink(child))
+                        count(child, excluded, counter, depth + 1);
+                }
+            }
+            else {
+                LOGGER.info("Failed to list files in " + f.getPath() + " - ignoring");
+            }
+        }
+    }
+
+    private static class Counter {
+        private long size;
+        private long allocatedSize;
+        private boolean partial;
+        private Thread caller;
+        private long entries;
+    }
+}
@@ -0,0 +1,277 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parallel walker which counts every sub-directory in its own fork/join task. Entries
+ * of directories are iterated by {@link DirectoryStream}. Joining of a task can run other tasks in the same thread,
+ * so directories deeper than {@link #MAX_FORK_DEPTH} are not forked, their content is walked by
+ * {@link StreamingDiskUsageWalker} which does not use recursion.
+ * It counts exactly the same size as {@link NioDiskUsageWalker}, it only uses more threads.
+ * Walks with the same parallelism share one pool which is created by the first of them (in every JVM, i.e. on master
+ * and on slaves), idle threads of the pool are stopped by the pool itself.
+ *
+ * This class must not be loaded if java.nio.file is not available - see {@link DiskUsageWalker#isNioAvailable()}.
+ */
+public class ForkJoinDiskUsageWalker extends DiskUsageWalker {
+
+    /**
+     * Maximal number of forked sub-directory tasks of one directory which are not joined yet.
+     * It keeps memory bounded for directories with many sub-directories.
+     */
+    private static final int MAX_PENDING_TASKS = 256;
+
+    /**
+     * Depth (relative to the walked root) of the deepest directories which are counted in their own task.
+     */
+    static final int MAX_FORK_DEPTH = 64;
+
+    // pools shared by walks, by parallelism (master can walk also workspaces with parallelism of slaves)
+    private static final Map<Integer,ForkJoinPool> pools = new HashMap<Integer,ForkJoinPool>();
+
+    private final int parallelism;
+
+    public ForkJoinDiskUsageWalker(int parallelism){
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism(){
+        return parallelism;
+    }
+
+    /**
+     * @return pool shared by all walks with the given parallelism
+     */
+    static synchronized ForkJoinPool getPool(int parallelism){
+        ForkJoinPool pool = pools.get(parallelism);
+        if(pool==null){
+            pool = new ForkJoinPool(parallelism);
+            pools.put(parallelism, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Stops threads of the shared pools after running walks are finished, the next walk creates new pool.
+     */
+    public static synchronized void shutdownPools(){
+        for(ForkJoinPool pool : pools.values()){
+            pool.shutdown();
+        }
+        pools.clear();
+    }
+
+    @Override
+    public Long getFileSize(File f, ExcludedPaths excluded) throws IOException {
+        return walk(f, excluded).getSize();
+    }
+
+    @Override
+    public DiskUsageWalkResult walk(File f, ExcludedPaths excluded) throws IOException {
+        Path root = f.getAbsoluteFile().toPath();
+        BasicFileAttributes attributes;
+        try{
+            attributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch(NoSuchFileException e){
+            return new DiskUsageWalkResult(0, false);
+        }
+        if(attributes.isSymbolicLink()){
+            return new DiskUsageWalkResult(f.length(), false);
+        }
+        if(!attributes.isDirectory()){
+            long allocatedSize = getAllocatedSize(isCountAllocatedSize(), root.toFile(), attributes.size());
+            return new DiskUsageWalkResult(attributes.size(), attributes.size(), allocatedSize, false);
+        }
+        Stop stop = new Stop(Thread.currentThread(), root);
+        long[] sizes = getPool(parallelism).invoke(new DirectorySizeTask(root, 0, attributes, excluded, getInodeRegistry(), isCountAllocatedSize(), stop));
+        if(stop.stopped.get()){
+            LOGGER.warning("Walking of " + f + " was stopped, its size is counted only partially.");
+        }
+        return new DiskUsageWalkResult(sizes[0], sizes[1], sizes[2], stop.stopped.get() || stop.partial.get());
+    }
+
+    /**
+     * Stop condition shared by all tasks of one walk, tasks run in threads of the pool, so they check
+     * interruption of the thread which started the walk.
+     */
+    private class Stop {
+
+        private final Thread caller;
+        private final AtomicBoolean stopped = new AtomicBoolean();
+        // some directory walked without forking was not counted completely
+        private final AtomicBoolean partial = new AtomicBoolean();
+        private final int rootDepth;
+        // size of files and number of entries counted by all tasks so far, only for reporting of progress
+        private final AtomicLong size = new AtomicLong();
+        private final AtomicLong entries = new AtomicLong();
+
+        public Stop(Thread caller, Path root){
+            this.caller = caller;
+            this.rootDepth = root.getNameCount();
+        }
+
+        public void counted(Path dir, long dirSize, long dirEntries){
+            long s = size.addAndGet(dirSize);
+            long e = entries.addAndGet(dirEntries);
+            if(getProgress()!=null)
+                reportProgress(dir.toString(), dir.getNameCount() - rootDepth, s, e);
+        }
+
+        public boolean check(){
+            if(stopped.get())
+                return true;
+            if(isStopped(caller)){
+                stopped.set(true);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Walks the given directory in the current thread without recursion, the walk is stopped together with
+         * the whole walk.
+         */
+        public DiskUsageWalkResult walk(Path dir, ExcludedPaths excluded) throws IOException {
+            StreamingDiskUsageWalker walker = new StreamingDiskUsageWalker(){
+                @Override
+                protected boolean isStopped(Thread caller){
+                    return check();
+                }
+            };
+            walker.setInodeRegistry(getInodeRegistry());
+            walker.setCountAllocatedSize(isCountAllocatedSize());
+            DiskUsageWalkResult result = walker.walk(dir.toFile(), excluded);
+            if(result.isPartial())
+                partial.set(true);
+            counted(dir, result.getSize(), 0);
+            return result;
+        }
+    }
+
+    /**
+     * Counts size of a directory, the result contains apparent size, unique size and allocated size.
+     */
+    private static class DirectorySizeTask extends RecursiveTask<long[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final int depth;
+        private final BasicFileAttributes attributes;
+        private final ExcludedPaths excluded;
+        private final InodeRegistry registry;
+        private final boolean countAllocatedSize;
+        private final Stop stop;
+        private long size;
+        private long uniqueSize;
+        private long allocatedSize;
+
+        public DirectorySizeTask(Path dir, int depth, BasicFileAttributes attributes, ExcludedPaths excluded, InodeRegistry registry, boolean countAllocatedSize, Stop stop){
+            this.stop = stop;
+            this.dir = dir;
+            this.depth = depth;
+            this.attributes = attributes;
+            this.excluded = excluded;
+            this.registry = registry;
+            this.countAllocatedSize = countAllocatedSize;
+        }
+
+        private boolean isExceeded(Path path){
+            return excluded.contains(path.toString());
+        }
+
+        @Override
+        protected long[] compute() {
+            size = attributes.size();
+            uniqueSize = attributes.size();
+            allocatedSize = getAllocatedSize(countAllocatedSize, dir.toFile(), attributes.size());
+            List<DirectorySizeTask> subtasks = new ArrayList<DirectorySizeTask>();
+            if(stop.check())
+                return new long[]{size, uniqueSize, allocatedSize};
+            // size and number of entries of this directory without sub-directories
+            long ownSize = size;
+            long ownEntries = 0;
+            try{
+                DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+                try{
+                    for(Path child : stream){
+                        if(isExceeded(child))
+                            continue;
+                        ownEntries++;
+                        try{
+                            BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                            if(attrs.isSymbolicLink())
+                                continue;
+                            if(attrs.isDirectory() && depth >= MAX_FORK_DEPTH){
+                                DiskUsageWalkResult result = stop.walk(child, excluded);
+                                size += result.getSize();
+                                uniqueSize += result.getUniqueSize();
+                                allocatedSize += result.getAllocatedSize();
+                            }
+                            else if(attrs.isDirectory()){
+                                DirectorySizeTask task = new DirectorySizeTask(child, depth + 1, attrs, excluded, registry, countAllocatedSize, stop);
+                                task.fork();
+                                subtasks.add(task);
+                                if(subtasks.size() >= MAX_PENDING_TASKS){
+                                    join(subtasks);
+                                }
+                            }
+                            else{
+                                size += attrs.size();
+                                ownSize += attrs.size();
+                                uniqueSize += NioDiskUsageWalker.getUniqueSize(registry, child, attrs);
+                                allocatedSize += getAllocatedSize(countAllocatedSize, child.toFile(), attrs.size());
+                            }
+                        }
+                        catch(IOException e){
+                            long length = child.toFile().length();
+                            size += length;
+                            uniqueSize += length;
+                            allocatedSize += length;
+                            LOGGER.info("Failed to read attributes of " + child + " - ignoring");
+                        }
+                    }
+                }
+                finally{
+                    stream.close();
+                }
+            }
+            catch(IOException e){
+                LOGGER.info("Failed to list files in " + dir + " - ignoring");
+            }
+            catch(DirectoryIteratorException e){
+                LOGGER.info("Failed to list all files in " + dir + " - ignoring");
+            }
+            stop.counted(dir, ownSize, ownEntries);
+            join(subtasks);
+            return new long[]{size, uniqueSize, allocatedSize};
+        }
+
+        private void join(List<DirectorySizeTask> subtasks){
+            for(DirectorySizeTask task : subtasks){
+                long[] sizes = task.join();
+                size += sizes[0];
+                uniqueSize += sizes[1];
+                allocatedSize += sizes[2];
+            }
+            subtasks.clear();
+        }
+    }
+}
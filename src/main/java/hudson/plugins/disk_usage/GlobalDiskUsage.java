@@ -0,0 +1,163 @@
+package hudson.plugins.disk_usage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Running totals of disk usage of all jobs. The totals are counted once by a full sweep (see
+ * {@link DiskUsagePlugin#refreshGlobalInformation()}) and then they are updated by changes of single builds and jobs,
+ * so reading them does not iterate over jobs and builds.
+ *
+ * Contribution of every job (by its full name) is kept too, so a deleted or renamed job can be subtracted or moved.
+ * Changes which come before the first sweep are ignored, the sweep counts them.
+ */
+public class GlobalDiskUsage {
+
+    public static final int BUILDS = 0;
+    public static final int UNIQUE_BUILDS = 1;
+    public static final int ALLOCATED_BUILDS = 2;
+    public static final int LOCKED_BUILDS = 3;
+    public static final int JOBS_WITHOUT_BUILDS = 4;
+    public static final int ALLOCATED_JOBS_WITHOUT_BUILDS = 5;
+    public static final int WORKSPACES = 6;
+    public static final int NON_SLAVE_WORKSPACES = 7;
+
+    static final int SIZE = 8;
+
+    private final long[] totals = new long[SIZE];
+
+    // full name of job -> its contribution to the totals
+    private final Map<String,long[]> jobs = new HashMap<String,long[]>();
+
+    private boolean initialized;
+
+    public synchronized boolean isInitialized(){
+        return initialized;
+    }
+
+    /**
+     * @param index one of the constants of this class
+     */
+    public synchronized long get(int index){
+        return totals[index];
+    }
+
+    /**
+     * Replaces all totals by the result of a full sweep.
+     *
+     * @param contributions full name of job -> its contribution, indexed by the constants of this class
+     */
+    public synchronized void reset(Map<String,long[]> contributions){
+        jobs.clear();
+        for(int i = 0; i < SIZE; i++){
+            totals[i] = 0;
+        }
+        for(Map.Entry<String,long[]> job : contributions.entrySet()){
+            long[] contribution = new long[SIZE];
+            System.arraycopy(job.getValue(), 0, contribution, 0, SIZE);
+            jobs.put(job.getKey(), contribution);
+            add(totals, contribution);
+        }
+        initialized = true;
+    }
+
+    /**
+     * Adds change of size of one build of the given job.
+     */
+    public synchronized void addBuild(String job, long size, long uniqueSize, long allocatedSize, long lockedSize){
+        if(!initialized)
+            return;
+        long[] delta = new long[SIZE];
+        delta[BUILDS] = size;
+        delta[UNIQUE_BUILDS] = uniqueSize;
+        delta[ALLOCATED_BUILDS] = allocatedSize;
+        delta[LOCKED_BUILDS] = lockedSize;
+        add(getJob(job), delta);
+        add(totals, delta);
+    }
+
+    /**
+     * Replaces sizes of the given job which do not belong to its builds.
+     */
+    public synchronized void setJob(String job, long withoutBuilds, long allocatedWithoutBuilds, long workspaces, long nonSlaveWorkspaces){
+        if(!initialized)
+            return;
+        long[] contribution = getJob(job);
+        long[] delta = new long[SIZE];
+        delta[JOBS_WITHOUT_BUILDS] = withoutBuilds - contribution[JOBS_WITHOUT_BUILDS];
+        delta[ALLOCATED_JOBS_WITHOUT_BUILDS] = allocatedWithoutBuilds - contribution[ALLOCATED_JOBS_WITHOUT_BUILDS];
+        delta[WORKSPACES] = workspaces - contribution[WORKSPACES];
+        delta[NON_SLAVE_WORKSPACES] = nonSlaveWorkspaces - contribution[NON_SLAVE_WORKSPACES];
+        add(contribution, delta);
+        add(totals, delta);
+    }
+
+    /**
+     * Subtracts the given job and all jobs contained in it.
+     */
+    public synchronized void removeJob(String job){
+        Iterator<Map.Entry<String,long[]>> iterator = jobs.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<String,long[]> entry = iterator.next();
+            if(isJobOrChild(entry.getKey(), job)){
+                subtract(totals, entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Moves contribution of the given job and all jobs contained in it to the new name.
+     */
+    public synchronized void renameJob(String oldName, String newName){
+        Map<String,long[]> renamed = new HashMap<String,long[]>();
+        Iterator<Map.Entry<String,long[]>> iterator = jobs.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<String,long[]> entry = iterator.next();
+            if(isJobOrChild(entry.getKey(), oldName)){
+                renamed.put(newName + entry.getKey().substring(oldName.length()), entry.getValue());
+                iterator.remove();
+            }
+        }
+        for(Map.Entry<String,long[]> entry : renamed.entrySet()){
+            add(getJob(entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * @return contribution of the given job, zeros if it is not known
+     */
+    public synchronized long[] getJobContribution(String job){
+        long[] contribution = new long[SIZE];
+        long[] known = jobs.get(job);
+        if(known!=null)
+            System.arraycopy(known, 0, contribution, 0, SIZE);
+        return contribution;
+    }
+
+    private long[] getJob(String job){
+        long[] contribution = jobs.get(job);
+        if(contribution==null){
+            contribution = new long[SIZE];
+            jobs.put(job, contribution);
+        }
+        return contribution;
+    }
+
+    private static boolean isJobOrChild(String name, String job){
+        return name.equals(job) || name.startsWith(job + "/");
+    }
+
+    private static void add(long[] to, long[] delta){
+        for(int i = 0; i < SIZE; i++){
+            to[i] += delta[i];
+        }
+    }
+
+    private static void subtract(long[] from, long[] delta){
+        for(int i = 0; i < SIZE; i++){
+            from[i] -= delta[i];
+        }
+    }
+}
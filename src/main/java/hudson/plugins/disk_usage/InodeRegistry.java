@@ -0,0 +1,31 @@
+package hudson.plugins.disk_usage;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of physical files (device and inode) which were already counted during one scan. It is used
+ * for counting every hard-linked file only once - the first walk which meets the file counts it into
+ * its unique size, the other walks count it only into their apparent size.
+ *
+ * Only files with more than one link are registered, so the registry stays small for usual trees.
+ */
+public class InodeRegistry {
+
+    private final Set<Object> keys = Collections.newSetFromMap(new ConcurrentHashMap<Object,Boolean>());
+
+    /**
+     * Registers a file with more than one link.
+     *
+     * @param fileKey key which identifies the physical file, see java.nio.file.attribute.BasicFileAttributes#fileKey()
+     * @return true if the file was not registered yet and should be counted as unique
+     */
+    public boolean register(Object fileKey){
+        return keys.add(fileKey);
+    }
+
+    public int size(){
+        return keys.size();
+    }
+}
@@ -0,0 +1,160 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Walker which walks a directory tree only once and attributes every entry to the part of the tree which contains
+ * it - parts are sub-directories of the walked root (e.g. directories of builds and of child projects of a job),
+ * entries which are not in any part are attributed to the root. Parts can be nested, an entry is attributed to
+ * the deepest part which contains it. Directories are walked without recursion.
+ *
+ * This class must not be loaded if java.nio.file is not available - see {@link DiskUsageWalker#isNioAvailable()}.
+ */
+public class JobTreeDiskUsageWalker extends DiskUsageWalker {
+
+    @Override
+    public Long getFileSize(File f, ExcludedPaths excluded) throws IOException {
+        return walk(f, excluded).getSize();
+    }
+
+    @Override
+    public DiskUsageWalkResult walk(File f, ExcludedPaths excluded) throws IOException {
+        return walk(f, new ArrayDeque<File>(), excluded).get(f);
+    }
+
+    /**
+     * @param parts directories in the walked tree which are counted separately
+     * @return results of the root (without parts) and of every part (without nested parts), keyed by the given
+     * files; if the walk is stopped, all results are partial
+     */
+    public Map<File,DiskUsageWalkResult> walk(File root, Collection<File> parts, ExcludedPaths excluded) throws IOException {
+        Map<String,Part> partsByPath = new HashMap<String,Part>();
+        Part rootPart = new Part();
+        for(File part : parts){
+            partsByPath.put(part.getAbsolutePath(), new Part());
+        }
+        boolean partial = walk(root.getAbsoluteFile().toPath(), rootPart, partsByPath, excluded);
+        Map<File,DiskUsageWalkResult> results = new HashMap<File,DiskUsageWalkResult>();
+        for(File part : parts){
+            results.put(part, partsByPath.get(part.getAbsolutePath()).getResult(partial));
+        }
+        results.put(root, rootPart.getResult(partial));
+        return results;
+    }
+
+    private boolean walk(Path root, Part rootPart, Map<String,Part> parts, ExcludedPaths excluded) throws IOException {
+        BasicFileAttributes attributes;
+        try{
+            attributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch(NoSuchFileException e){
+            return false;
+        }
+        if(attributes.isSymbolicLink()){
+            long length = root.toFile().length();
+            rootPart.add(length, length, length);
+            return false;
+        }
+        rootPart.add(attributes.size(), attributes.size(), getAllocatedSize(isCountAllocatedSize(), root.toFile(), attributes.size()));
+        if(!attributes.isDirectory())
+            return false;
+        Thread caller = Thread.currentThread();
+        int rootDepth = root.getNameCount();
+        long size = 0;
+        long entries = 0;
+        // directories which are not listed yet together with part which contains them
+        Deque<Path> directories = new ArrayDeque<Path>();
+        Deque<Part> owners = new ArrayDeque<Part>();
+        directories.push(root);
+        owners.push(rootPart);
+        while(!directories.isEmpty()){
+            if(isStopped(caller)){
+                LOGGER.warning("Walking of " + root + " was stopped, its size is counted only partially.");
+                return true;
+            }
+            Path dir = directories.pop();
+            Part owner = owners.pop();
+            try{
+                DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+                try{
+                    for(Path child : stream){
+                        if(excluded.contains(child.toString()))
+                            continue;
+                        entries++;
+                        Part part = parts.get(child.toString());
+                        if(part==null)
+                            part = owner;
+                        BasicFileAttributes attrs;
+                        try{
+                            attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        }
+                        catch(IOException e){
+                            long length = child.toFile().length();
+                            part.add(length, length, length);
+                            size += length;
+                            LOGGER.info("Failed to read attributes of " + child + " - ignoring");
+                            continue;
+                        }
+                        if(attrs.isSymbolicLink())
+                            continue;
+                        long allocatedSize = getAllocatedSize(isCountAllocatedSize(), child.toFile(), attrs.size());
+                        size += attrs.size();
+                        if(attrs.isDirectory()){
+                            part.add(attrs.size(), attrs.size(), allocatedSize);
+                            directories.push(child);
+                            owners.push(part);
+                        }
+                        else{
+                            part.add(attrs.size(), NioDiskUsageWalker.getUniqueSize(getInodeRegistry(), child, attrs), allocatedSize);
+                        }
+                    }
+                }
+                finally{
+                    stream.close();
+                }
+            }
+            catch(IOException e){
+                LOGGER.info("Failed to list files in " + dir + " - ignoring");
+            }
+            catch(DirectoryIteratorException e){
+                LOGGER.info("Failed to list all files in " + dir + " - ignoring");
+            }
+            if(getProgress()!=null)
+                reportProgress(dir.toString(), dir.getNameCount() - rootDepth, size, entries);
+        }
+        return false;
+    }
+
+    /**
+     * Sizes counted for one part of the tree.
+     */
+    private static class Part {
+
+        private long size;
+        private long uniqueSize;
+        private long allocatedSize;
+
+        public void add(long size, long uniqueSize, long allocatedSize){
+            this.size += size;
+            this.uniqueSize += uniqueSize;
+            this.allocatedSize += allocatedSize;
+        }
+
+        public DiskUsageWalkResult getResult(boolean partial){
+            return new DiskUsageWalkResult(size, uniqueSize, allocatedSize, partial);
+        }
+    }
+}
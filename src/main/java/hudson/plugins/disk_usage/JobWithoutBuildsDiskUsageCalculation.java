@@ -35,25 +35,28 @@ public class JobWithoutBuildsDiskUsageCalculation extends DiskUsageCalculation{
     }
 
     @Override
-    public void execute(TaskListener listener) throws IOException, InterruptedException {
+    protected void execute(TaskListener listener, boolean requested) throws IOException, InterruptedException {
          DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
         if(plugin.getConfiguration().isCalculationJobsEnabled() && !isExecuting()){
+            if(plugin.getConfiguration().isSinglePassCalculation() && plugin.getConfiguration().isCalculationBuildsEnabled()){
+                //jobs are calculated together with their builds by BuildDiskUsageCalculationThread
+                return;
+            }
             executing = true;
             try{
                 List<Item> items = new ArrayList<Item>();
                 ItemGroup<? extends Item> itemGroup = Jenkins.getInstance();
                 items.addAll(DiskUsageUtil.getAllProjects(itemGroup));
 
+                List<DiskUsageScanScheduler.Unit> units = new ArrayList<DiskUsageScanScheduler.Unit>();
+                long targetPeriod = getTargetPeriod();
                 for (Object item : items) {
                     if (item instanceof AbstractProject) {
-                        AbstractProject project = (AbstractProject) item;
-                        try{
-                            DiskUsageUtil.calculateDiskUsageForProject(project);
-                        } catch (Exception ex) {
-                            logger.log(Level.WARNING, "Error when recording disk usage for " + project.getName(), ex);
-                        }               
+                        units.add(new JobUnit((AbstractProject) item, targetPeriod, DiskUsageScanScheduler.PRIORITY_JOBS));
                     }
                 }
+                DiskUsageScanScheduler scheduler = DiskUsageScanScheduler.getInstance();
+                scheduler.scan(requested ? units : scheduler.getStale(units));
                 if(plugin.getConfiguration().warnAboutAllJobsExceetedSize()){
                     DiskUsageUtil.controlAllJobsExceedSize();
                 }
@@ -65,6 +68,31 @@ public class JobWithoutBuildsDiskUsageCalculation extends DiskUsageCalculation{
         }
     }
 
+    /**
+     * Calculation of directory of one job without its builds
+     */
+    static class JobUnit extends DiskUsageScanScheduler.Unit {
+        
+        private final AbstractProject project;
+        
+        public JobUnit(AbstractProject project, long targetPeriod, int priority){
+            super("job:" + project.getFullName(), getExpectedSize(project), targetPeriod, priority);
+            this.project = project;
+        }
+        
+        @Override
+        protected void calculate() throws Exception {
+            DiskUsageUtil.calculateDiskUsageForProject(project);
+        }
+    }
+    
+    private static long getExpectedSize(AbstractProject project){
+        DiskUsageProperty property = (DiskUsageProperty) project.getProperty(DiskUsageProperty.class);
+        if(property==null)
+            return 0;
+        return property.getDiskUsageWithoutBuilds();
+    }
+    
     @Override
     public AperiodicWork getNewInstance() {   
         if(currentTask!=null){
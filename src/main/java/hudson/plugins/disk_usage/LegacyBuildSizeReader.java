@@ -0,0 +1,192 @@
+package hudson.plugins.disk_usage;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads sizes which older versions stored in build.xml directly from the file, so {@link BuildSizeIndex} can be
+ * created without loading builds of the job. Only number, timestamp and keeping of log of the build and sizes
+ * stored by {@link BuildDiskUsageAction} (or by its older form with {@link DiskUsage}) are read, the rest of the
+ * file is skipped.
+ */
+class LegacyBuildSizeReader {
+
+    static final String BUILD_FILE = "build.xml";
+
+    // name of element of BuildDiskUsageAction in build.xml (XStream escapes '_' in package name)
+    private static final String ACTION_ELEMENT = "hudson.plugins.disk__usage.BuildDiskUsageAction";
+
+    // format of names of build directories, it is used if build.xml does not contain timestamp
+    private static final String ID_FORMAT = "yyyy-MM-dd_HH-mm-ss";
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private int number = -1;
+    private long timestamp = -1;
+    private boolean keepLog;
+    private Long size;
+    private Long uniqueSize;
+    private Long allocatedSize;
+
+    private LegacyBuildSizeReader(){
+    }
+
+    private static XMLInputFactory createFactory(){
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        //build.xml does not have DTD, external entities are never resolved
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+
+    /**
+     * @param buildDir directory of a build
+     * @return entry created from sizes stored in build.xml of the build, null if there are no such sizes or the file
+     * can not be read
+     */
+    static BuildSizeIndex.Entry read(File buildDir){
+        File file = new File(buildDir, BUILD_FILE);
+        if(!file.isFile())
+            return null;
+        LegacyBuildSizeReader reader = new LegacyBuildSizeReader();
+        try{
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try{
+                reader.parse(in);
+            }
+            finally{
+                in.close();
+            }
+        }
+        catch(IOException e){
+            BuildSizeIndex.LOGGER.log(Level.WARNING, "Failed to read sizes of build from " + file, e);
+            return null;
+        }
+        catch(XMLStreamException e){
+            BuildSizeIndex.LOGGER.log(Level.WARNING, "Failed to read sizes of build from " + file, e);
+            return null;
+        }
+        if(reader.size==null)
+            return null;
+        if(reader.number < 0)
+            reader.number = parseNumber(buildDir.getName());
+        if(reader.timestamp < 0)
+            reader.timestamp = parseTimestamp(buildDir.getName());
+        if(reader.number < 0)
+            return null;
+        return new BuildSizeIndex.Entry(reader.number, reader.timestamp, reader.size, reader.uniqueSize==null ? reader.size : reader.uniqueSize,
+                reader.allocatedSize==null ? reader.size : reader.allocatedSize, reader.keepLog);
+    }
+
+    private void parse(InputStream in) throws XMLStreamException{
+        XMLStreamReader xml = FACTORY.createXMLStreamReader(in);
+        try{
+            // names of open elements, the first one is the build
+            List<String> path = new ArrayList<String>();
+            // position of the element of the action in the path, -1 outside of it
+            int action = -1;
+            while(xml.hasNext()){
+                int event = xml.next();
+                if(event==XMLStreamReader.END_ELEMENT){
+                    path.remove(path.size() - 1);
+                    if(path.size()==action)
+                        action = -1;
+                    continue;
+                }
+                if(event!=XMLStreamReader.START_ELEMENT)
+                    continue;
+                String name = xml.getLocalName();
+                path.add(name);
+                if(name.equals(ACTION_ELEMENT) && action < 0){
+                    action = path.size() - 1;
+                    continue;
+                }
+                if(read(xml, path, action)){
+                    //the element was read to its end
+                    path.remove(path.size() - 1);
+                }
+            }
+        }
+        finally{
+            xml.close();
+        }
+    }
+
+    /**
+     * Reads the current element if it is a field of the build or of the action.
+     *
+     * @return true if the element was read
+     */
+    private boolean read(XMLStreamReader xml, List<String> path, int action) throws XMLStreamException{
+        String name = path.get(path.size() - 1);
+        if(path.size()==2){
+            if(name.equals("number"))
+                number = parseNumber(xml.getElementText().trim());
+            else if(name.equals("timestamp"))
+                timestamp = parseLong(xml.getElementText().trim(), -1L);
+            else if(name.equals("keepLog"))
+                keepLog = Boolean.parseBoolean(xml.getElementText().trim());
+            else
+                return false;
+            return true;
+        }
+        if(action < 0)
+            return false;
+        if(path.size()==action + 2){
+            if(name.equals("buildDiskUsage"))
+                size = parseLong(xml.getElementText().trim(), null);
+            else if(name.equals("uniqueDiskUsage"))
+                uniqueSize = parseLong(xml.getElementText().trim(), null);
+            else if(name.equals("allocatedDiskUsage"))
+                allocatedSize = parseLong(xml.getElementText().trim(), null);
+            else
+                return false;
+            return true;
+        }
+        //the oldest versions stored the size in DiskUsage
+        if(path.size()==action + 3 && path.get(action + 1).equals("diskUsage") && name.equals("buildUsage")){
+            Long buildUsage = parseLong(xml.getElementText().trim(), null);
+            if(size==null)
+                size = buildUsage;
+            return true;
+        }
+        return false;
+    }
+
+    private static int parseNumber(String text){
+        try{
+            return Integer.parseInt(text);
+        }
+        catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    private static Long parseLong(String text, Long defaultValue){
+        try{
+            return Long.valueOf(text);
+        }
+        catch(NumberFormatException e){
+            return defaultValue;
+        }
+    }
+
+    private static long parseTimestamp(String id){
+        try{
+            return new SimpleDateFormat(ID_FORMAT).parse(id).getTime();
+        }
+        catch(ParseException e){
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Walker based on {@link Files#walkFileTree}. Size, type and symlink status of every
+ * entry are read by one stat call. It keeps a directory stream open for every directory between the root
+ * and the current entry, {@link StreamingDiskUsageWalker} counts the same size with bounded number of open streams.
+ *
+ * This class must not be loaded if java.nio.file is not available - see {@link DiskUsageWalker#isNioAvailable()}.
+ */
+public class NioDiskUsageWalker extends DiskUsageWalker {
+
+    @Override
+    public Long getFileSize(File f, ExcludedPaths excluded) throws IOException {
+        return walk(f, excluded).getSize();
+    }
+
+    @Override
+    public DiskUsageWalkResult walk(File f, ExcludedPaths excluded) throws IOException {
+        Path root = f.getAbsoluteFile().toPath();
+        BasicFileAttributes attributes;
+        try{
+            attributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch(NoSuchFileException e){
+            return new DiskUsageWalkResult(0, false);
+        }
+        if(attributes.isSymbolicLink()){
+            //symlinks are not followed, count only size of target like java.io.File walker
+            return new DiskUsageWalkResult(f.length(), false);
+        }
+        SizeVisitor visitor = new SizeVisitor(root, excluded, getInodeRegistry(), isCountAllocatedSize());
+        Files.walkFileTree(root, visitor);
+        return new DiskUsageWalkResult(visitor.size, visitor.uniqueSize, visitor.allocatedSize, visitor.partial);
+    }
+
+    public static boolean isSymlink(File f){
+        return Files.isSymbolicLink(f.toPath());
+    }
+
+    /**
+     * Returns size of the given file which should be counted into unique size - 0 if the file is
+     * a hard link of a file which has already been counted during the current scan.
+     *
+     * @param registry registry of the current scan, if it is null every file is counted
+     */
+    public static long getUniqueSize(InodeRegistry registry, Path file, BasicFileAttributes attrs){
+        if(registry==null || !attrs.isRegularFile() || attrs.fileKey()==null)
+            return attrs.size();
+        try{
+            Object links = Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+            if(!(links instanceof Integer) || ((Integer) links) <= 1)
+                return attrs.size();
+        }
+        catch(UnsupportedOperationException e){
+            //file system does not support hard links
+            return attrs.size();
+        }
+        catch(IllegalArgumentException e){
+            return attrs.size();
+        }
+        catch(IOException e){
+            return attrs.size();
+        }
+        return registry.register(attrs.fileKey()) ? attrs.size() : 0;
+    }
+
+    private class SizeVisitor extends SimpleFileVisitor<Path> {
+
+        private final Path root;
+        private final ExcludedPaths excluded;
+        private final InodeRegistry registry;
+        private final boolean countAllocatedSize;
+        private long size;
+        private long uniqueSize;
+        private long allocatedSize;
+        private boolean partial;
+        private final Thread caller = Thread.currentThread();
+        private long entries;
+        private int depth = -1;
+
+        public SizeVisitor(Path root, ExcludedPaths excluded, InodeRegistry registry, boolean countAllocatedSize){
+            this.root = root;
+            this.excluded = excluded;
+            this.registry = registry;
+            this.countAllocatedSize = countAllocatedSize;
+        }
+
+        private boolean isExceeded(Path path){
+            return excluded.contains(path.toString());
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            if(!dir.equals(root) && isExceeded(dir))
+                return FileVisitResult.SKIP_SUBTREE;
+            if(isStopped(caller)){
+                LOGGER.warning("Walking of " + root + " was stopped, its size is counted only partially.");
+                partial = true;
+                return FileVisitResult.TERMINATE;
+            }
+            size += attrs.size();
+            uniqueSize += attrs.size();
+            allocatedSize += getAllocatedSize(countAllocatedSize, dir.toFile(), attrs.size());
+            entries++;
+            depth++;
+            reportProgress(dir.toString(), depth, size, entries);
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if(attrs.isSymbolicLink() || isExceeded(file))
+                return FileVisitResult.CONTINUE;
+            size += attrs.size();
+            uniqueSize += getUniqueSize(registry, file, attrs);
+            allocatedSize += getAllocatedSize(countAllocatedSize, file.toFile(), attrs.size());
+            entries++;
+            if(getProgress()!=null)
+                reportProgress(file.getParent().toString(), depth, size, entries);
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            if(isExceeded(file))
+                return FileVisitResult.CONTINUE;
+            //count at least the entry itself as java.io.File walker does
+            long length = file.toFile().length();
+            size += length;
+            uniqueSize += length;
+            allocatedSize += length;
+            LOGGER.info("Failed to list files in " + file + " - ignoring");
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+            depth--;
+            if(exc!=null)
+                LOGGER.info("Failed to list all files in " + dir + " - ignoring");
+            return FileVisitResult.CONTINUE;
+        }
+    }
+}
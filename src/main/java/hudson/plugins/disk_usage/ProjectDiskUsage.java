@@ -22,12 +22,16 @@ import java.util.logging.Logger;
  */
 public class ProjectDiskUsage implements Saveable{
     
+    public static final String FILE_NAME = "disk-usage.xml";
+    
     private transient Job job;
     protected Long diskUsageWithoutBuilds = 0l;
+    // size of blocks allocated on disk, null if it was not counted
+    protected Long allocatedDiskUsageWithoutBuilds;
     protected Map<String,Map<String,Long>> slaveWorkspacesUsage = new ConcurrentHashMap<String,Map<String,Long>>();
     
      public XmlFile getConfigFile(){
-        return new XmlFile(new File(job.getRootDir(), "disk-usage.xml"));
+        return new XmlFile(new File(job.getRootDir(), FILE_NAME));
     }
      
      public void setProject(Job job){
@@ -44,7 +48,18 @@ public class ProjectDiskUsage implements Saveable{
         }
     }
     
+    /**
+     * Marks this disk usage as changed, it is saved in background by {@link ProjectDiskUsageSaver}.
+     */
+    public void saveLater(){
+        if(job==null)
+            return;
+        ProjectDiskUsageSaver.getInstance().markDirty(this);
+    }
+    
     public synchronized void load(){
+        //changes which wait for saving would be lost
+        ProjectDiskUsageSaver.getInstance().flush(this);
         XmlFile file = getConfigFile();
         if(!file.exists())
             return;
@@ -3,20 +3,22 @@ package hudson.plugins.disk_usage;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Run;
+import hudson.model.Item;
 import hudson.model.ItemGroup;
 import hudson.model.ProminentProjectAction;
-import hudson.util.ChartUtil.NumberOnlyBuildLabel;
 import hudson.util.DataSetBuilder;
 import hudson.util.Graph;
-import hudson.util.RunList;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import javax.servlet.ServletException;
 import jenkins.model.Jenkins;
 import org.jfree.data.category.DefaultCategoryDataset;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 /**
  * Disk usage of a project
@@ -119,41 +121,33 @@ public class ProjectDiskUsageAction implements ProminentProjectAction {
         return property.getAllDiskUsageWithoutBuilds();
     }
     
+    public Long getAllAllocatedDiskUsageWithoutBuilds(){
+        DiskUsageProperty property = project.getProperty(DiskUsageProperty.class);
+        if(property==null)
+            return 0l;
+        return property.getAllAllocatedDiskUsageWithoutBuilds();
+    }
+    
     
     public Long getJobRootDirDiskUsage(){
         return getBuildsDiskUsage().get("all") + getDiskUsageWithoutBuilds();
     }
     
-    private Map<String,Long> getBuildsDiskUsageAllSubItems(ItemGroup group, Date older, Date yonger){
-        Map<String,Long> diskUsage = new TreeMap<String,Long>();
-        Long buildsDiskUsage = 0l;
-        Long locked = 0l;
+    private void addBuildsDiskUsageAllSubItems(ItemGroup group, Long older, Long yonger, long[] sum){
         for(Object item: group.getItems()){
             if(item instanceof ItemGroup){
-               ItemGroup subGroup = (ItemGroup) item;
-               buildsDiskUsage += getBuildsDiskUsageAllSubItems(subGroup, older, yonger).get("all");
-               locked += getBuildsDiskUsageAllSubItems(subGroup, older, yonger).get("locked");
+               addBuildsDiskUsageAllSubItems((ItemGroup) item, older, yonger, sum);
             }
             if(item instanceof AbstractProject){
-                AbstractProject p = (AbstractProject) item;
-                List<AbstractBuild> builds = p.getBuilds();
-                for(AbstractBuild build : builds){
-                    BuildDiskUsageAction action = build.getAction(BuildDiskUsageAction.class);
-                    if(older!=null && !build.getTimestamp().getTime().before(older))
-                        continue;
-                    if(yonger!=null && !build.getTimestamp().getTime().after(yonger))
-                        continue;
-                    if (action != null) {
-                        buildsDiskUsage += action.getDiskUsage();
-                        if(build.isKeepLog())
-                            locked += action.getDiskUsage();
-                    } 
-                }
+                add(sum, BuildSizeIndex.get((AbstractProject) item).sum(older, yonger));
             }
         }
-        diskUsage.put("all", buildsDiskUsage);
-        diskUsage.put("locked", locked);
-        return diskUsage;
+    }
+    
+    private static void add(long[] to, long[] sizes){
+        for(int i = 0; i < to.length; i++){
+            to[i] += sizes[i];
+        }
     }
     
     public Map<String, Long> getBuildsDiskUsage() {
@@ -165,33 +159,23 @@ public class ProjectDiskUsageAction implements ProminentProjectAction {
     }
     
     /**
-     * @return Disk usage for all builds
+     * @return Disk usage for all builds, sizes are read from {@link BuildSizeIndex}, so builds are not loaded
      */
     public Map<String, Long> getBuildsDiskUsage(Date older, Date yonger) {
         Map<String,Long> diskUsage = new TreeMap<String,Long>();
-        Long buildsDiskUsage = 0l;
-        Long locked = 0l;
+        long[] sum = new long[4];
         if (project != null) {
-            for(AbstractBuild build: project.getBuilds()){
-                if(older!=null && !build.getTimestamp().getTime().before(older))
-                    continue;
-                if(yonger!=null && !build.getTimestamp().getTime().after(yonger))
-                    continue;
-                 BuildDiskUsageAction action = build.getAction(BuildDiskUsageAction.class);
-                 if (action != null) {
-                    buildsDiskUsage += action.getDiskUsage();
-                    if(build.isKeepLog())
-                        locked += action.getDiskUsage();
-                 }
-            }  
+            Long olderTime = older==null ? null : older.getTime();
+            Long yongerTime = yonger==null ? null : yonger.getTime();
+            add(sum, BuildSizeIndex.get(project).sum(olderTime, yongerTime));
             if(project instanceof ItemGroup){
-               ItemGroup group = (ItemGroup) project;
-               buildsDiskUsage += getBuildsDiskUsageAllSubItems(group, older, yonger).get("all");
-               locked += getBuildsDiskUsageAllSubItems(group,older, yonger).get("locked");
+               addBuildsDiskUsageAllSubItems((ItemGroup) project, olderTime, yongerTime, sum);
             }
         }
-        diskUsage.put("all", buildsDiskUsage);
-        diskUsage.put("locked", locked);
+        diskUsage.put("all", sum[0]);
+        diskUsage.put("unique", sum[1]);
+        diskUsage.put("allocated", sum[2]);
+        diskUsage.put("locked", sum[3]);
         return diskUsage;
     }
     
@@ -210,21 +194,22 @@ public class ProjectDiskUsageAction implements ProminentProjectAction {
      */
     public Graph getGraph() throws IOException {
         //TODO if(nothing_changed) return;
-        List<Object[]> usages = new ArrayList<Object[]>();
-        long maxValue = 0;
-        long maxValueWorkspace = 0;
-        maxValueWorkspace = Math.max(getAllCustomOrNonSlaveWorkspaces(), getAllSlaveWorkspaces());
-        maxValue =  getJobRootDirDiskUsage();
+        long jobRootDirDiskUsage = getJobRootDirDiskUsage();
+        long slaveWorkspaces = getAllSlaveWorkspaces();
+        long nonSlaveWorkspaces = getAllCustomOrNonSlaveWorkspaces();
+        long maxValueWorkspace = Math.max(nonSlaveWorkspaces, slaveWorkspaces);
+        long maxValue = jobRootDirDiskUsage;
+        //sizes of builds are read from the index, so builds are not loaded
+        List<BuildSizeIndex.Entry> entries = BuildSizeIndex.get(project).getEntries();
+        List<Long> sizes = new ArrayList<Long>();
         //First iteration just to get scale of the y-axis
-        RunList<? extends AbstractBuild> builds = project.getBuilds();
-        //do it in reverse order
-        for (int i=builds.size()-1; i>=0; i--) {
-            AbstractBuild build = builds.get(i);
-            BuildDiskUsageAction dua = build.getAction(BuildDiskUsageAction.class);
-            if (dua != null) {
-                usages.add(new Object[]{build, getJobRootDirDiskUsage(), dua.getAllDiskUsage(), getAllSlaveWorkspaces(), getAllCustomOrNonSlaveWorkspaces()});
+        for (BuildSizeIndex.Entry entry : entries) {
+            long size = entry.getSize();
+            if(project instanceof ItemGroup){
+                size += getSubBuildsDiskUsage((ItemGroup) project, entry.getNumber());
             }
-            maxValue = Math.max(maxValue, dua.getAllDiskUsage());
+            sizes.add(size);
+            maxValue = Math.max(maxValue, size);
         }
 
         int floor = (int) DiskUsageUtil.getScale(maxValue);
@@ -235,15 +220,90 @@ public class ProjectDiskUsageAction implements ProminentProjectAction {
         double workspaceBase = Math.pow(1024, workspaceFloor);
         DefaultCategoryDataset dataset = new DefaultCategoryDataset();
         DefaultCategoryDataset dataset2 = new DefaultCategoryDataset();
-        for (Object[] usage : usages) {
-            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel((AbstractBuild) usage[0]);
-            dataset.addValue(((Long) usage[1]) / base, "job directory", label);  
-            dataset.addValue(((Long) usage[2]) / base, "build directory", label);
-            dataset2.addValue(((Long) usage[3]) / workspaceBase, "all slave workspaces of job", label);
-            dataset2.addValue(((Long) usage[4]) / workspaceBase, "all non slave workspaces of job", label);
+        for (int i = 0; i < entries.size(); i++) {
+            BuildNumberLabel label = new BuildNumberLabel(entries.get(i).getNumber());
+            dataset.addValue(jobRootDirDiskUsage / base, "job directory", label);  
+            dataset.addValue(sizes.get(i) / base, "build directory", label);
+            dataset2.addValue(slaveWorkspaces / workspaceBase, "all slave workspaces of job", label);
+            dataset2.addValue(nonSlaveWorkspaces / workspaceBase, "all non slave workspaces of job", label);
         }
         return new DiskUsageGraph(dataset, unit, dataset2, workspaceUnit);   
     }
+    
+    private long getSubBuildsDiskUsage(ItemGroup group, int number){
+        long size = 0;
+        for(Object item: group.getItems()){
+            if(item instanceof ItemGroup){
+                size += getSubBuildsDiskUsage((ItemGroup) item, number);
+            }
+            if(item instanceof AbstractProject){
+                BuildSizeIndex.Entry entry = BuildSizeIndex.get((AbstractProject) item).get(number);
+                if(entry!=null)
+                    size += entry.getSize();
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Label of a build in the graph which does not need the build to be loaded
+     */
+    private static class BuildNumberLabel implements Comparable<BuildNumberLabel> {
+        
+        private final int number;
+        
+        public BuildNumberLabel(int number){
+            this.number = number;
+        }
+        
+        public int compareTo(BuildNumberLabel o){
+            return number < o.number ? -1 : (number==o.number ? 0 : 1);
+        }
+        
+        @Override
+        public boolean equals(Object o){
+            return o instanceof BuildNumberLabel && ((BuildNumberLabel) o).number==number;
+        }
+        
+        @Override
+        public int hashCode(){
+            return number;
+        }
+        
+        @Override
+        public String toString(){
+            return "#" + number;
+        }
+    }
+
+    /**
+     * Requests recalculation of builds, job directory and workspaces of the project (only of the enabled scopes),
+     * the request is merged with other waiting requests by {@link DiskUsageCalculationQueue}.
+     */
+    public void doRecordDiskUsage(StaplerRequest req, StaplerResponse res) throws ServletException, IOException {
+        project.checkPermission(Item.BUILD);
+        DiskUsageProjectActionFactory.DescriptorImpl configuration = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class).getConfiguration();
+        DiskUsageCalculationQueue queue = DiskUsageCalculationQueue.getInstance();
+        if(configuration.isCalculationBuildsEnabled())
+            queue.request(DiskUsageCalculationQueue.Scope.BUILDS, project);
+        if(configuration.isCalculationJobsEnabled())
+            queue.request(DiskUsageCalculationQueue.Scope.JOBS, project);
+        if(configuration.isCalculationWorkspaceEnabled())
+            queue.request(DiskUsageCalculationQueue.Scope.WORKSPACES, project);
+        res.forwardToPreviousPage(req);
+    }
+    
+    /**
+     * @return true if any recalculation of the project is waiting (shortcut for the view)
+     */
+    public boolean isCalculationRequested() {
+        DiskUsageCalculationQueue queue = DiskUsageCalculationQueue.getInstance();
+        for(DiskUsageCalculationQueue.Scope scope : DiskUsageCalculationQueue.Scope.values()){
+            if(queue.isPending(scope, project))
+                return true;
+        }
+        return false;
+    }
 
     /** Shortcut for the jelly view */
     public boolean showGraph() {
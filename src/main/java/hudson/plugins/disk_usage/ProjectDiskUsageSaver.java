@@ -0,0 +1,184 @@
+package hudson.plugins.disk_usage;
+
+import hudson.model.Job;
+import hudson.util.DaemonThreadFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Saves changed {@link ProjectDiskUsage} (disk-usage.xml of jobs) in background. A changed disk usage is only marked
+ * as dirty and it is written {@link #DELAY_PROPERTY} milliseconds later, so all changes of one job made by one
+ * calculation (e.g. sizes of all its workspaces) are written once. At most
+ * {@link DiskUsageProjectActionFactory.DescriptorImpl#getDiskUsageWritesPerSecond()} files are written per second,
+ * the rest waits for the next second.
+ *
+ * Every file is written by {@link hudson.XmlFile} into a temporary file which replaces the previous one, so a crash
+ * does not leave a broken file. Waiting changes are written when the plugin stops, and before the file is loaded
+ * again. Changes of a deleted or renamed job are dropped, and nothing is written into a job directory which does
+ * not exist any more, so the old directory is not created again.
+ */
+public class ProjectDiskUsageSaver {
+
+    public static final String DELAY_PROPERTY = ProjectDiskUsageSaver.class.getName() + ".delay";
+
+    private static final long DELAY = Long.getLong(DELAY_PROPERTY, 2000);
+
+    public static final Logger LOGGER = Logger.getLogger(ProjectDiskUsageSaver.class.getName());
+
+    private static ProjectDiskUsageSaver instance;
+
+    private final long delay;
+
+    // 0 means the limit from the global configuration
+    private final int writesPerSecond;
+
+    // path of disk-usage.xml -> disk usage which waits for writing, in order in which they changed
+    private final Map<String,ProjectDiskUsage> dirty = new LinkedHashMap<String,ProjectDiskUsage>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+
+    private boolean scheduled;
+
+    // time when the next batch can be written without exceeding the limit of writes per second
+    private long nextWrite;
+
+    public ProjectDiskUsageSaver(){
+        this(DELAY, 0);
+    }
+
+    ProjectDiskUsageSaver(long delay, int writesPerSecond){
+        this.delay = delay;
+        this.writesPerSecond = writesPerSecond;
+    }
+
+    public static synchronized ProjectDiskUsageSaver getInstance(){
+        if(instance==null)
+            instance = new ProjectDiskUsageSaver();
+        return instance;
+    }
+
+    static synchronized void shutdown(){
+        if(instance!=null){
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    /**
+     * Stops the background writing and writes all waiting changes.
+     */
+    void stop(){
+        executor.shutdownNow();
+        flushAll();
+    }
+
+    /**
+     * Marks the given disk usage as changed, it is written later together with other changes of the same job.
+     */
+    public synchronized void markDirty(ProjectDiskUsage diskUsage){
+        //the newest instance of the job wins (e.g. when the property was replaced)
+        dirty.put(getKey(diskUsage), diskUsage);
+        schedule(delay);
+    }
+
+    /**
+     * Drops waiting changes of the job, it is called when the job is deleted or renamed.
+     *
+     * @param rootDir directory of the job before it was deleted or renamed
+     */
+    public synchronized void forget(File rootDir){
+        dirty.remove(new File(rootDir, ProjectDiskUsage.FILE_NAME).getPath());
+    }
+
+    public void forget(Job job){
+        forget(job.getRootDir());
+    }
+
+    /**
+     * Writes waiting changes of the same file as the given disk usage immediately.
+     */
+    public void flush(ProjectDiskUsage diskUsage){
+        ProjectDiskUsage waiting;
+        synchronized(this){
+            waiting = dirty.remove(getKey(diskUsage));
+        }
+        if(waiting!=null)
+            save(waiting);
+    }
+
+    /**
+     * Writes all waiting changes immediately.
+     */
+    public void flushAll(){
+        List<ProjectDiskUsage> all;
+        synchronized(this){
+            all = new ArrayList<ProjectDiskUsage>(dirty.values());
+            dirty.clear();
+        }
+        for(ProjectDiskUsage diskUsage : all){
+            save(diskUsage);
+        }
+    }
+
+    /**
+     * @return number of jobs whose disk usage waits for writing
+     */
+    public synchronized int getSize(){
+        return dirty.size();
+    }
+
+    private void schedule(long delay){
+        if(scheduled || executor.isShutdown())
+            return;
+        scheduled = true;
+        executor.schedule(new Runnable(){
+            public void run(){
+                write();
+            }
+        }, Math.max(delay, nextWrite - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private void write(){
+        List<ProjectDiskUsage> batch = new ArrayList<ProjectDiskUsage>();
+        synchronized(this){
+            scheduled = false;
+            int limit = writesPerSecond > 0 ? writesPerSecond : Math.max(1, DiskUsageProjectActionFactory.DESCRIPTOR.getDiskUsageWritesPerSecond());
+            Iterator<ProjectDiskUsage> iterator = dirty.values().iterator();
+            while(iterator.hasNext() && batch.size() < limit){
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+            nextWrite = System.currentTimeMillis() + 1000;
+        }
+        for(ProjectDiskUsage diskUsage : batch){
+            save(diskUsage);
+        }
+        synchronized(this){
+            //the rest is written in the next second
+            if(!dirty.isEmpty())
+                schedule(1000);
+        }
+    }
+
+    private static void save(ProjectDiskUsage diskUsage){
+        File file = diskUsage.getConfigFile().getFile();
+        //job was deleted or renamed in the meantime, writing would create its old directory again
+        if(!file.getParentFile().exists()){
+            LOGGER.fine("Directory of " + file + " does not exist any more, disk usage is not saved.");
+            return;
+        }
+        diskUsage.save();
+    }
+
+    private static String getKey(ProjectDiskUsage diskUsage){
+        return diskUsage.getConfigFile().getFile().getPath();
+    }
+}
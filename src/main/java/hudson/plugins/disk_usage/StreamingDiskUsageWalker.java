@@ -0,0 +1,222 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Walker which iterates entries of every directory by {@link DirectoryStream}. Entries of
+ * a directory are never loaded into an array, so memory used by walking does not depend on
+ * number of entries in one directory.
+ *
+ * The walker does not use recursion, so it can walk a tree of any depth. At most
+ * {@link #getMaxOpenDirectories()} directory streams are open at the same time, deeper directories
+ * are deferred and walked when the open ones are finished. If more than
+ * {@link #getMaxDeferredDirectories()} directories are deferred, the remaining ones are not walked
+ * and the result is marked as partial. The result is partial also if the walk is stopped - see
+ * {@link DiskUsageWalker#setDeadline(long)}.
+ *
+ * This class must not be loaded if java.nio.file is not available - see {@link DiskUsageWalker#isNioAvailable()}.
+ */
+public class StreamingDiskUsageWalker extends DiskUsageWalker {
+
+    public static final String MAX_OPEN_DIRECTORIES_PROPERTY = StreamingDiskUsageWalker.class.getName() + ".maxOpenDirectories";
+
+    public static final String MAX_DEFERRED_DIRECTORIES_PROPERTY = StreamingDiskUsageWalker.class.getName() + ".maxDeferredDirectories";
+
+    private final int maxOpenDirectories;
+
+    private final int maxDeferredDirectories;
+
+    public StreamingDiskUsageWalker(){
+        this(Integer.getInteger(MAX_OPEN_DIRECTORIES_PROPERTY, 64), Integer.getInteger(MAX_DEFERRED_DIRECTORIES_PROPERTY, 1000000));
+    }
+
+    public StreamingDiskUsageWalker(int maxOpenDirectories, int maxDeferredDirectories){
+        this.maxOpenDirectories = Math.max(1, maxOpenDirectories);
+        this.maxDeferredDirectories = maxDeferredDirectories;
+    }
+
+    public int getMaxOpenDirectories(){
+        return maxOpenDirectories;
+    }
+
+    public int getMaxDeferredDirectories(){
+        return maxDeferredDirectories;
+    }
+
+    @Override
+    public Long getFileSize(File f, ExcludedPaths excluded) throws IOException {
+        return walk(f, excluded).getSize();
+    }
+
+    @Override
+    public DiskUsageWalkResult walk(File f, ExcludedPaths excluded) throws IOException {
+        Path root = f.getAbsoluteFile().toPath();
+        BasicFileAttributes attributes;
+        try{
+            attributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch(NoSuchFileException e){
+            return new DiskUsageWalkResult(0, false);
+        }
+        if(attributes.isSymbolicLink()){
+            return new DiskUsageWalkResult(f.length(), false);
+        }
+        if(!attributes.isDirectory()){
+            long allocatedSize = getAllocatedSize(isCountAllocatedSize(), root.toFile(), attributes.size());
+            return new DiskUsageWalkResult(attributes.size(), attributes.size(), allocatedSize, false);
+        }
+        Walk walk = new Walk(excluded, getInodeRegistry(), isCountAllocatedSize());
+        walk.run(root, attributes);
+        return new DiskUsageWalkResult(walk.size, walk.uniqueSize, walk.allocatedSize, walk.partial);
+    }
+
+    private class Walk {
+
+        private final ExcludedPaths excluded;
+        private final InodeRegistry registry;
+        private final Deque<OpenDirectory> open = new ArrayDeque<OpenDirectory>();
+        private final Deque<Path> deferred = new ArrayDeque<Path>();
+        private long size;
+        private final boolean countAllocatedSize;
+        private long uniqueSize;
+        private long allocatedSize;
+        private boolean partial;
+        private final Thread caller = Thread.currentThread();
+        private long entries;
+        private int rootDepth;
+
+        public Walk(ExcludedPaths excluded, InodeRegistry registry, boolean countAllocatedSize){
+            this.excluded = excluded;
+            this.registry = registry;
+            this.countAllocatedSize = countAllocatedSize;
+        }
+
+        public void run(Path root, BasicFileAttributes attributes){
+            size += attributes.size();
+            uniqueSize += attributes.size();
+            allocatedSize += getAllocatedSize(countAllocatedSize, root.toFile(), attributes.size());
+            rootDepth = root.getNameCount();
+            try{
+                open(root);
+                while(true){
+                    while(!open.isEmpty()){
+                        if(isStopped(caller)){
+                            LOGGER.warning("Walking of " + root + " was stopped, its size is counted only partially.");
+                            partial = true;
+                            return;
+                        }
+                        Path child = open.peek().next();
+                        if(child==null){
+                            open.pop().close();
+                        }
+                        else{
+                            visit(child);
+                        }
+                    }
+                    Path next = deferred.poll();
+                    if(next==null)
+                        break;
+                    open(next);
+                }
+            }
+            finally{
+                while(!open.isEmpty()){
+                    open.pop().close();
+                }
+            }
+        }
+
+        private void visit(Path child){
+            if(excluded.contains(child.toString()))
+                return;
+            entries++;
+            if(getProgress()!=null)
+                reportProgress(child.getParent().toString(), child.getNameCount() - rootDepth - 1, size, entries);
+            BasicFileAttributes attrs;
+            try{
+                attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            }
+            catch(IOException e){
+                long length = child.toFile().length();
+                size += length;
+                uniqueSize += length;
+                allocatedSize += length;
+                LOGGER.info("Failed to read attributes of " + child + " - ignoring");
+                return;
+            }
+            if(attrs.isSymbolicLink())
+                return;
+            size += attrs.size();
+            allocatedSize += getAllocatedSize(countAllocatedSize, child.toFile(), attrs.size());
+            if(!attrs.isDirectory()){
+                uniqueSize += NioDiskUsageWalker.getUniqueSize(registry, child, attrs);
+                return;
+            }
+            uniqueSize += attrs.size();
+            if(open.size() < maxOpenDirectories){
+                open(child);
+            }
+            else if(deferred.size() < maxDeferredDirectories){
+                deferred.add(child);
+            }
+            else{
+                if(!partial)
+                    LOGGER.warning("Too many directories are waiting for walking, content of " + child + " and other directories is not counted.");
+                partial = true;
+            }
+        }
+
+        private void open(Path dir){
+            try{
+                open.push(new OpenDirectory(dir, Files.newDirectoryStream(dir)));
+            }
+            catch(IOException e){
+                LOGGER.info("Failed to list files in " + dir + " - ignoring");
+            }
+        }
+    }
+
+    private static class OpenDirectory {
+
+        private final Path dir;
+        private final DirectoryStream<Path> stream;
+        private final Iterator<Path> iterator;
+
+        public OpenDirectory(Path dir, DirectoryStream<Path> stream){
+            this.dir = dir;
+            this.stream = stream;
+            this.iterator = stream.iterator();
+        }
+
+        public Path next(){
+            try{
+                if(iterator.hasNext())
+                    return iterator.next();
+            }
+            catch(DirectoryIteratorException e){
+                LOGGER.info("Failed to list all files in " + dir + " - ignoring");
+            }
+            return null;
+        }
+
+        public void close(){
+            try{
+                stream.close();
+            }
+            catch(IOException e){
+                LOGGER.info("Failed to close directory " + dir);
+            }
+        }
+    }
+}
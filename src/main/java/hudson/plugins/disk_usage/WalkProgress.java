@@ -0,0 +1,52 @@
+package hudson.plugins.disk_usage;
+
+/**
+ * Receives progress of a walk from a {@link DiskUsageWalker}. Walkers update it often (for every entry or
+ * directory), but {@link #report(String, int, long, long)} is called at most once per interval, so it can
+ * send the progress through a remoting channel.
+ *
+ * Walkers which use more threads update it concurrently. Only the decision whether to report is made under the
+ * lock, the report itself (e.g. a remote call) runs outside of it, so other walking threads never wait for it -
+ * updates which come while a report is running are skipped.
+ */
+public abstract class WalkProgress {
+
+    private final long interval;
+
+    private long lastReport;
+
+    private boolean reporting;
+
+    /**
+     * @param interval minimal time in milliseconds between two reports
+     */
+    public WalkProgress(long interval){
+        this.interval = interval;
+    }
+
+    /**
+     * @param directory directory which is walked now
+     * @param depth depth of the directory under the root of the walk
+     * @param size size counted so far
+     * @param entries number of entries visited so far
+     */
+    public void update(String directory, int depth, long size, long entries){
+        synchronized(this){
+            long now = System.currentTimeMillis();
+            if(reporting || now - lastReport < interval)
+                return;
+            lastReport = now;
+            reporting = true;
+        }
+        try{
+            report(directory, depth, size, entries);
+        }
+        finally{
+            synchronized(this){
+                reporting = false;
+            }
+        }
+    }
+
+    protected abstract void report(String directory, int depth, long size, long entries);
+}
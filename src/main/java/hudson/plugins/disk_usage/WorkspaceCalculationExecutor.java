@@ -0,0 +1,137 @@
+package hudson.plugins.disk_usage;
+
+import hudson.util.DaemonThreadFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Calculates workspaces of nodes by a pool of threads, so one slow node does not hold up the others. Workspaces
+ * of one node are split into at most the given number of batches, so at most that number of calculations runs on
+ * one node at the same time. Results are handed over to the calling thread in order of completion, so they are
+ * never merged concurrently.
+ *
+ * @param <N> node
+ * @param <R> result of calculation of one batch
+ */
+public class WorkspaceCalculationExecutor<N,R> {
+
+    /**
+     * Calculation of one batch of workspaces of a node, it runs in a thread of the pool.
+     */
+    public interface Calculation<N,R> {
+        R calculate(N node, Map<String,ExcludedPaths> workspaces) throws Exception;
+    }
+
+    /**
+     * Receives results of batches, it is called by the thread which runs the calculation.
+     */
+    public interface Callback<N,R> {
+        void done(N node, Map<String,ExcludedPaths> workspaces, R result);
+    }
+
+    private final int threads;
+    private final int perNode;
+    private final Map<N,Map<String,ExcludedPaths>> workspaces = new LinkedHashMap<N,Map<String,ExcludedPaths>>();
+
+    /**
+     * @param threads maximal number of calculations running at the same time
+     * @param perNode maximal number of calculations running on one node at the same time
+     */
+    public WorkspaceCalculationExecutor(int threads, int perNode){
+        this.threads = Math.max(1, threads);
+        this.perNode = Math.max(1, perNode);
+    }
+
+    public void add(N node, Map<String,ExcludedPaths> nodeWorkspaces){
+        workspaces.put(node, nodeWorkspaces);
+    }
+
+    /**
+     * @return workspaces split into at most perNode batches of similar size, order of workspaces is kept in batches
+     */
+    static List<Map<String,ExcludedPaths>> split(Map<String,ExcludedPaths> workspaces, int perNode){
+        List<Map<String,ExcludedPaths>> parts = new ArrayList<Map<String,ExcludedPaths>>();
+        int i = 0;
+        for(Map.Entry<String,ExcludedPaths> entry : workspaces.entrySet()){
+            if(parts.size() < perNode){
+                parts.add(new LinkedHashMap<String,ExcludedPaths>());
+            }
+            parts.get(i++ % perNode).put(entry.getKey(), entry.getValue());
+        }
+        return parts;
+    }
+
+    /**
+     * Calculates all added workspaces and waits until all calculations finish.
+     */
+    public void run(Calculation<N,R> calculation, Callback<N,R> callback) throws InterruptedException {
+        List<List<Batch>> nodeBatches = new ArrayList<List<Batch>>();
+        int size = 0;
+        for(Map.Entry<N,Map<String,ExcludedPaths>> entry : workspaces.entrySet()){
+            List<Batch> batches = new ArrayList<Batch>();
+            for(Map<String,ExcludedPaths> part : split(entry.getValue(), perNode)){
+                batches.add(new Batch(entry.getKey(), part, calculation));
+            }
+            nodeBatches.add(batches);
+            size += batches.size();
+        }
+        if(size==0)
+            return;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, size), new DaemonThreadFactory());
+        try{
+            CompletionService<Batch> service = new ExecutorCompletionService<Batch>(executor);
+            //the first batches of all nodes are submitted first, so all nodes are calculated from the beginning
+            for(int i = 0; i < perNode; i++){
+                for(List<Batch> batches : nodeBatches){
+                    if(i < batches.size())
+                        service.submit(batches.get(i));
+                }
+            }
+            for(int i = 0; i < size; i++){
+                Batch batch;
+                try{
+                    batch = service.take().get();
+                }
+                catch(ExecutionException e){
+                    LOGGER.log(Level.WARNING, "Disk usage fails to calculate workspaces", e);
+                    continue;
+                }
+                callback.done(batch.node, batch.workspaces, batch.result);
+            }
+        }
+        finally{
+            executor.shutdownNow();
+        }
+    }
+
+    private class Batch implements Callable<Batch> {
+
+        private final N node;
+        private final Map<String,ExcludedPaths> workspaces;
+        private final Calculation<N,R> calculation;
+        private R result;
+
+        public Batch(N node, Map<String,ExcludedPaths> workspaces, Calculation<N,R> calculation){
+            this.node = node;
+            this.workspaces = workspaces;
+            this.calculation = calculation;
+        }
+
+        public Batch call() throws Exception {
+            result = calculation.calculate(node, workspaces);
+            return this;
+        }
+    }
+
+    public static final Logger LOGGER = Logger.getLogger(WorkspaceCalculationExecutor.class.getName());
+}
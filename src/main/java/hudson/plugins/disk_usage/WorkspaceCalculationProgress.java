@@ -0,0 +1,148 @@
+package hudson.plugins.disk_usage;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Progress of running calculations of workspaces, slaves send it during walking. It is shown on the page
+ * of the plugin and it is used to find stalled walks - see {@link Tracker#getLastUpdate()}.
+ */
+public class WorkspaceCalculationProgress {
+
+    // node name -> workspace path -> status
+    private static final Map<String,Map<String,Status>> RUNNING = new ConcurrentHashMap<String,Map<String,Status>>();
+
+    /**
+     * Listener which is exported to the slave, the callable reports progress of its walks through it.
+     */
+    public interface Listener {
+
+        void progress(String workspace, String directory, int depth, long size, long entries);
+    }
+
+    /**
+     * Registers workspaces of the node which are going to be walked by one call.
+     *
+     * @return tracker which records progress of the given workspaces, it has to be finished after the call
+     */
+    public static synchronized Tracker start(String nodeName, Collection<String> workspaces){
+        Map<String,Status> statuses = RUNNING.get(nodeName);
+        if(statuses==null){
+            statuses = new ConcurrentHashMap<String,Status>();
+            RUNNING.put(nodeName, statuses);
+        }
+        Map<String,Status> tracked = new HashMap<String,Status>();
+        for(String workspace : workspaces){
+            Status status = new Status();
+            statuses.put(workspace, status);
+            tracked.put(workspace, status);
+        }
+        return new Tracker(nodeName, tracked);
+    }
+
+    private static synchronized void finish(String nodeName, Map<String,Status> tracked){
+        Map<String,Status> statuses = RUNNING.get(nodeName);
+        if(statuses==null)
+            return;
+        for(Map.Entry<String,Status> entry : tracked.entrySet()){
+            //the same workspace could be registered again by another call
+            if(statuses.get(entry.getKey())==entry.getValue())
+                statuses.remove(entry.getKey());
+        }
+        if(statuses.isEmpty())
+            RUNNING.remove(nodeName);
+    }
+
+    /**
+     * @return running calculations - node name -> workspace path -> status
+     */
+    public static Map<String,Map<String,Status>> getRunning(){
+        return RUNNING;
+    }
+
+    /**
+     * Records progress of workspaces walked by one call.
+     */
+    public static class Tracker implements Listener {
+
+        private final String nodeName;
+        private final Map<String,Status> tracked;
+
+        private Tracker(String nodeName, Map<String,Status> tracked){
+            this.nodeName = nodeName;
+            this.tracked = tracked;
+        }
+
+        public void progress(String workspace, String directory, int depth, long size, long entries){
+            Status status = tracked.get(workspace);
+            if(status!=null){
+                status.update(directory, depth, size, entries);
+            }
+        }
+
+        /**
+         * @return the last time when any of the tracked walks reported progress or when they were started
+         */
+        public long getLastUpdate(){
+            long last = 0;
+            for(Status status : tracked.values()){
+                last = Math.max(last, status.getLastUpdate());
+            }
+            return last;
+        }
+
+        public void finish(){
+            WorkspaceCalculationProgress.finish(nodeName, tracked);
+        }
+    }
+
+    /**
+     * Last reported progress of a walk of one workspace.
+     */
+    public static class Status {
+
+        private final long started = System.currentTimeMillis();
+        private volatile long lastUpdate = started;
+        private volatile String directory;
+        private volatile int depth;
+        private volatile long size;
+        private volatile long entries;
+
+        private void update(String directory, int depth, long size, long entries){
+            this.directory = directory;
+            this.depth = depth;
+            this.size = size;
+            this.entries = entries;
+            lastUpdate = System.currentTimeMillis();
+        }
+
+        public long getStarted(){
+            return started;
+        }
+
+        public long getLastUpdate(){
+            return lastUpdate;
+        }
+
+        /**
+         * @return directory which was walked at the time of the last report, null if nothing was reported yet
+         */
+        public String getDirectory(){
+            return directory;
+        }
+
+        public int getDepth(){
+            return depth;
+        }
+
+        public long getSize(){
+            return size;
+        }
+
+        public long getEntries(){
+            return entries;
+        }
+    }
+}
@@ -14,6 +14,7 @@ import hudson.model.TaskListener;
 import hudson.scheduler.CronTab;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import jenkins.model.Jenkins;
@@ -35,25 +36,23 @@ public class WorkspaceDiskUsageCalculationThread extends DiskUsageCalculation{
     }  
 
     @Override
-    public void execute(TaskListener listener) throws IOException, InterruptedException {                
+    protected void execute(TaskListener listener, boolean requested) throws IOException, InterruptedException {
          DiskUsagePlugin plugin = Jenkins.getInstance().getPlugin(DiskUsagePlugin.class);
         if(plugin.getConfiguration().isCalculationWorkspaceEnabled() && !isExecuting()){
             executing=true;
             try{
-                List<Item> items = new ArrayList<Item>();
                 ItemGroup<? extends Item> itemGroup = Jenkins.getInstance();
-                items.addAll(DiskUsageUtil.getAllProjects(itemGroup));
-
-                for (Object item : items) {
-                    if (item instanceof AbstractProject) {
-                        AbstractProject project = (AbstractProject) item;
-                        try{
-                            DiskUsageUtil.calculateWorkspaceDiskUsage(project);
-                        } catch (Exception ex) {
-                            logger.log(Level.WARNING, "Error when recording disk usage for " + project.getName(), ex);
-                        }               
-                    }
+                DiskUsageScanScheduler scheduler = DiskUsageScanScheduler.getInstance();
+                long targetPeriod = getTargetPeriod();
+                long now = System.currentTimeMillis();
+                List<AbstractProject> projects = new ArrayList<AbstractProject>();
+                for(AbstractProject project : DiskUsageUtil.getAllProjects(itemGroup)){
+                    //workspaces of a job calculated on request (e.g. after its build) are skipped
+                    if(requested || !scheduler.isFresh(getKey(Collections.singletonList(project)), targetPeriod, now))
+                        projects.add(project);
                 }
+                //workspaces of all projects are measured by one call per node, nodes are walked in parallel by the pool of workspace calculations
+                scheduler.scan(Collections.singletonList(new WorkspacesUnit(projects, targetPeriod, DiskUsageScanScheduler.PRIORITY_WORKSPACES)));
             }
             catch(Exception e){
                 logger.log(Level.WARNING, "Error when recording disk usage for workspaces.", e);
@@ -63,6 +62,40 @@ public class WorkspaceDiskUsageCalculationThread extends DiskUsageCalculation{
         
     } 
     
+    /**
+     * Calculation of workspaces of the given jobs on all nodes
+     */
+    static class WorkspacesUnit extends DiskUsageScanScheduler.Unit {
+        
+        private final List<AbstractProject> projects;
+        
+        public WorkspacesUnit(List<AbstractProject> projects, long targetPeriod, int priority){
+            super(getKey(projects), getExpectedSize(projects), targetPeriod, priority);
+            this.projects = projects;
+        }
+        
+        @Override
+        protected void calculate() throws Exception {
+            DiskUsageUtil.calculateWorkspaceDiskUsage(projects);
+        }
+    }
+    
+    private static String getKey(List<AbstractProject> projects){
+        if(projects.size()==1)
+            return "workspaces:" + projects.get(0).getFullName();
+        return "workspaces";
+    }
+    
+    private static long getExpectedSize(List<AbstractProject> projects){
+        long size = 0;
+        for(AbstractProject project : projects){
+            DiskUsageProperty property = (DiskUsageProperty) project.getProperty(DiskUsageProperty.class);
+            if(property!=null)
+                size += property.getAllWorkspaceSize();
+        }
+        return size;
+    }
+    
     @Override
     public AperiodicWork getNewInstance() {  
         if(currentTask!=null){
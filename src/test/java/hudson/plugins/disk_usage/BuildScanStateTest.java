@@ -0,0 +1,76 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link BuildScanState} finds builds which changed since their last calculation.
+ */
+public class BuildScanStateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private File createBuild(File job, String id){
+        File build = new File(job, "builds/" + id);
+        new File(build, "archive").mkdirs();
+        new File(build, "archive").setLastModified(System.currentTimeMillis() - 2 * HOUR);
+        build.setLastModified(System.currentTimeMillis() - 2 * HOUR);
+        return build;
+    }
+
+    private void markClean(File job, File build) throws Exception{
+        BuildScanState state = BuildScanState.load(job);
+        state.markClean(build);
+        state.save();
+    }
+
+    @Test
+    public void testBuildIsDirtyUntilCalculated() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job, "1");
+        Assert.assertTrue("Build which was not calculated yet should be dirty.", BuildScanState.load(job).isDirty(build));
+        markClean(job, build);
+        Assert.assertFalse("Calculated build should not be dirty.", BuildScanState.load(job).isDirty(build));
+    }
+
+    @Test
+    public void testChangedBuildIsDirty() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job, "1");
+        markClean(job, build);
+        build.setLastModified(System.currentTimeMillis() - HOUR);
+        Assert.assertTrue("Build whose root directory changed should be dirty.", BuildScanState.load(job).isDirty(build));
+        markClean(job, build);
+        new File(build, "archive").setLastModified(System.currentTimeMillis() - HOUR);
+        Assert.assertTrue("Build whose artifacts changed should be dirty.", BuildScanState.load(job).isDirty(build));
+    }
+
+    @Test
+    public void testKeptBuildStaysDirty() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job, "1");
+        File other = createBuild(job, "2");
+        BuildScanState state = BuildScanState.load(job);
+        state.markClean(build);
+        state.keep(other);
+        state.save();
+        state = BuildScanState.load(job);
+        Assert.assertFalse("Calculated build should not be dirty.", state.isDirty(build));
+        Assert.assertTrue("Build which was not calculated should stay dirty.", state.isDirty(other));
+    }
+
+    @Test
+    public void testRemovedBuildsAreDropped() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job, "1");
+        markClean(job, build);
+        BuildScanState.load(job).save();
+        Assert.assertTrue("State of builds which were not kept should be dropped.", BuildScanState.load(job).isDirty(build));
+    }
+}
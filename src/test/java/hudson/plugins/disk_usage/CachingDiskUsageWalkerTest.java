@@ -0,0 +1,233 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that walks with {@link DirectoryCache} count the same size as full walks and notice changes of directories.
+ */
+public class CachingDiskUsageWalkerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private void createFile(File parent, String name, int size) throws IOException{
+        parent.mkdirs();
+        FileOutputStream out = new FileOutputStream(new File(parent, name));
+        try{
+            out.write(new byte[size]);
+        }
+        finally{
+            out.close();
+        }
+    }
+
+    /**
+     * Creates job directory with one build, modification time of all directories is set to the past,
+     * so they can be cached.
+     */
+    private File createBuild(File job) throws IOException{
+        File build = new File(job, "builds/1");
+        createFile(build, "log", 100);
+        createFile(new File(build, "archive/target"), "artifact.jar", 20000);
+        createFile(new File(build, "archive/target/classes"), "Main.class", 3000);
+        setOld(build);
+        return build;
+    }
+
+    private void setOld(File f){
+        if(f.isDirectory()){
+            for(File child : f.listFiles()){
+                setOld(child);
+            }
+            f.setLastModified(System.currentTimeMillis() - HOUR);
+        }
+    }
+
+    private String key(String path){
+        return new File(path).getPath();
+    }
+
+    private long walk(File job, File build, boolean fullRescan) throws IOException{
+        DirectoryCache cache = DirectoryCache.load(job);
+        cache.setFullRescan(fullRescan);
+        long size = new CachingDiskUsageWalker(cache).getFileSize(build, new ExcludedPaths());
+        cache.save();
+        return size;
+    }
+
+    @Test
+    public void testCachedWalkCountsSameSizeAsFullWalk() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job);
+        long expected = new StreamingDiskUsageWalker().getFileSize(build, new ExcludedPaths());
+        Assert.assertEquals("First walk should count the same size as full walk.", expected, walk(job, build, false));
+        Assert.assertEquals("Walk with filled cache should count the same size as full walk.", expected, walk(job, build, false));
+        DirectoryCache.Entry entry = DirectoryCache.load(job).get(key("builds/1/archive/target"));
+        Assert.assertNotNull("Cache should contain directories of the build.", entry);
+        Assert.assertArrayEquals("Cache should contain sub-directories of the directory.", new String[]{"classes"}, entry.getDirectories());
+    }
+
+    @Test
+    public void testChangedDirectoryIsListedAgain() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job);
+        walk(job, build, false);
+        createFile(new File(build, "archive/target/classes"), "Other.class", 5000);
+        long expected = new StreamingDiskUsageWalker().getFileSize(build, new ExcludedPaths());
+        Assert.assertEquals("New file in nested directory should be counted.", expected, walk(job, build, false));
+    }
+
+    @Test
+    public void testUnchangedDirectoryIsNotListedAgain() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job);
+        long cached = walk(job, build, false);
+        //content of existing file changes without change of modification time of its directory
+        File dir = new File(build, "archive/target");
+        long lastModified = dir.lastModified();
+        createFile(dir, "artifact.jar", 30000);
+        dir.setLastModified(lastModified);
+        Assert.assertEquals("Size of unchanged directory should be taken from cache.", cached, walk(job, build, false));
+        long expected = new StreamingDiskUsageWalker().getFileSize(build, new ExcludedPaths());
+        Assert.assertEquals("Full rescan should count changed file.", expected, walk(job, build, true));
+        Assert.assertEquals("Full rescan should refresh the cache.", expected, walk(job, build, false));
+    }
+
+    @Test
+    public void testRecentlyModifiedDirectoryIsNotCached() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job);
+        new File(build, "archive").setLastModified(System.currentTimeMillis());
+        walk(job, build, false);
+        DirectoryCache cache = DirectoryCache.load(job);
+        Assert.assertNull("Recently modified directory should not be cached.", cache.get(key("builds/1/archive")));
+        Assert.assertNotNull("Old directory should be cached.", cache.get(key("builds/1/archive/target")));
+    }
+
+    @Test
+    public void testDirectoriesOfRemovedBuildsAreDropped() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job);
+        walk(job, build, false);
+        DirectoryCache cache = DirectoryCache.load(job);
+        cache.save();
+        Assert.assertNull("Directories which were not walked should be dropped.", DirectoryCache.load(job).get(key("builds/1")));
+    }
+
+    @Test
+    public void testCacheStoredOutsideOfWalkedDirectory() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job);
+        File file = new File(folder.newFolder("cache"), "workspace");
+        DirectoryCache cache = DirectoryCache.load(build, file);
+        long expected = new CachingDiskUsageWalker(cache).getFileSize(build, new ExcludedPaths());
+        cache.save();
+        Assert.assertFalse("Temporary file should not be created in the walked directory.", new File(build, DirectoryCache.FILE_NAME + ".tmp").exists());
+        Assert.assertNotNull("Cache should be loaded from the given file.", DirectoryCache.load(build, file).get(key("archive/target")));
+        Assert.assertNull("Cache of another directory should not be used.", DirectoryCache.load(job, file).get(key("archive/target")));
+        Assert.assertEquals("Walk with cache from the given file should count the same size.", expected, new CachingDiskUsageWalker(DirectoryCache.load(build, file)).getFileSize(build, new ExcludedPaths()).longValue());
+    }
+
+    @Test
+    public void testClockIsMeasuredNextToCacheFile() throws Exception{
+        File workspace = folder.newFolder("workspace");
+        File directory = folder.newFolder("cache");
+        long lastModified = System.currentTimeMillis() - HOUR;
+        workspace.setLastModified(lastModified);
+        DirectoryCache cache = DirectoryCache.load(workspace, new File(directory, "workspace"));
+        Assert.assertTrue("Old directory should be stable by the clock of the cache directory.", cache.isStable(System.currentTimeMillis() - HOUR));
+        Assert.assertFalse("Directory modified now should not be stable.", cache.isStable(System.currentTimeMillis()));
+        Assert.assertEquals("Nothing should be written into the walked directory.", 0, workspace.list().length);
+        Assert.assertEquals("Modification time of the walked directory should not change.", lastModified / 1000, workspace.lastModified() / 1000);
+        Assert.assertEquals("Temporary file should be deleted from the cache directory.", 0, directory.list().length);
+    }
+
+    @Test
+    public void testNothingIsCachedIfCacheCanNotBeWritten() throws Exception{
+        File workspace = folder.newFolder("workspace");
+        DirectoryCache cache = DirectoryCache.load(workspace, new File(new File(folder.getRoot(), "missing"), "workspace"));
+        Assert.assertFalse("Directory should not be cached if the cache can not be saved.", cache.isStable(System.currentTimeMillis() - HOUR));
+        Assert.assertEquals("Nothing should be written into the walked directory.", 0, workspace.list().length);
+    }
+
+    @Test
+    public void testConcurrentSavesOfSameCache() throws Exception{
+        File job = folder.newFolder("job");
+        final File build = createBuild(job);
+        final File file = new File(folder.newFolder("cache"), "workspace");
+        final long expected = new StreamingDiskUsageWalker().getFileSize(build, new ExcludedPaths());
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for(int i = 0; i < threads.length; i++){
+            threads[i] = new Thread(){
+                @Override
+                public void run(){
+                    try{
+                        for(int j = 0; j < 20; j++){
+                            DirectoryCache cache = DirectoryCache.load(build, file);
+                            new CachingDiskUsageWalker(cache).getFileSize(build, new ExcludedPaths());
+                            cache.save();
+                        }
+                    }
+                    catch(Throwable t){
+                        failures.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+        Assert.assertTrue("Concurrent saves should not fail: " + failures, failures.isEmpty());
+        Assert.assertArrayEquals("Only the cache file should be left.", new String[]{"workspace"}, file.getParentFile().list());
+        Assert.assertEquals("Saved cache should be complete.", expected, new CachingDiskUsageWalker(DirectoryCache.load(build, file)).getFileSize(build, new ExcludedPaths()).longValue());
+    }
+
+    @Test
+    public void testLoadingDoesNotCreateFiles() throws Exception{
+        File job = folder.newFolder("job");
+        File build = createBuild(job);
+        File tmp = new File(job, DirectoryCache.FILE_NAME + ".tmp");
+        DirectoryCache cache = DirectoryCache.load(job);
+        Assert.assertFalse("Loading of cache should not create temporary file.", tmp.exists());
+        new CachingDiskUsageWalker(cache).getFileSize(build, new ExcludedPaths());
+        Assert.assertFalse("Temporary file should be created only by saving.", tmp.exists());
+        Assert.assertFalse("Cache file should be created only by saving.", new File(job, DirectoryCache.FILE_NAME).exists());
+    }
+
+    @Test
+    public void testLastFullRescanIsSaved() throws Exception{
+        File job = folder.newFolder("job");
+        createBuild(job);
+        DirectoryCache cache = DirectoryCache.load(job);
+        Assert.assertEquals("Full rescan should not be known for a new cache.", 0, cache.getLastFullRescan());
+        cache.fullRescanDone();
+        cache.save();
+        Assert.assertTrue("Time of the last full rescan should be saved.", DirectoryCache.load(job).getLastFullRescan() > 0);
+    }
+
+    @Test
+    public void testUnusedCachesAreDeleted() throws Exception{
+        File directory = folder.newFolder("cache");
+        File used = new File(directory, "used");
+        File unused = new File(directory, "unused");
+        createFile(directory, "used", 10);
+        createFile(directory, "unused", 10);
+        unused.setLastModified(System.currentTimeMillis() - 10 * HOUR);
+        DirectoryCache.deleteUnused(directory, 5 * HOUR);
+        Assert.assertTrue("Recently saved cache should be kept.", used.exists());
+        Assert.assertFalse("Cache which was not saved for a long time should be deleted.", unused.exists());
+    }
+}
@@ -0,0 +1,82 @@
+package hudson.plugins.disk_usage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that {@link DiskUsageComputerListener} calculates connected nodes one by one and drops waiting
+ * calculations when it is shut down.
+ */
+public class DiskUsageComputerListenerTest {
+
+    private static class TestListener extends DiskUsageComputerListener {
+
+        private final List<String> calculated = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Long> starts = Collections.synchronizedList(new ArrayList<Long>());
+
+        public TestListener(long delay, long interval){
+            super(delay, interval);
+        }
+
+        @Override
+        protected void calculate(String nodeName){
+            starts.add(System.currentTimeMillis());
+            calculated.add(nodeName);
+        }
+
+        public void waitForCalculations(int count) throws InterruptedException{
+            long end = System.currentTimeMillis() + 10000;
+            while(calculated.size() < count && System.currentTimeMillis() < end){
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    public void testNodesAreCalculatedOneByOne() throws Exception{
+        TestListener listener = new TestListener(0, 300);
+        try{
+            listener.schedule("node1");
+            listener.schedule("node2");
+            listener.waitForCalculations(2);
+            Assert.assertEquals("Nodes should be calculated in order of connection.", Arrays.asList("node1", "node2"), listener.calculated);
+            Assert.assertTrue("The next node should be calculated at least interval after the previous one.", listener.starts.get(1) - listener.starts.get(0) >= 250);
+        }
+        finally{
+            listener.shutdown();
+        }
+    }
+
+    @Test
+    public void testWaitingNodeIsScheduledOnce() throws Exception{
+        TestListener listener = new TestListener(200, 0);
+        try{
+            listener.schedule("node");
+            listener.schedule("node");
+            Assert.assertEquals("Node which is already waiting should not be queued again.", 1, listener.getQueueSize());
+            listener.waitForCalculations(1);
+            Thread.sleep(300);
+            Assert.assertEquals("Node should be calculated only once.", Collections.singletonList("node"), listener.calculated);
+            Assert.assertEquals("Calculated node should not wait.", 0, listener.getQueueSize());
+        }
+        finally{
+            listener.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownDropsWaitingCalculations() throws Exception{
+        TestListener listener = new TestListener(200, 0);
+        listener.schedule("node");
+        listener.shutdown();
+        Assert.assertEquals("Waiting nodes should be dropped by shutdown.", 0, listener.getQueueSize());
+        listener.schedule("other");
+        Assert.assertEquals("Nodes should not be scheduled after shutdown.", 0, listener.getQueueSize());
+        Thread.sleep(400);
+        Assert.assertTrue("Waiting calculation should not run after shutdown.", listener.calculated.isEmpty());
+    }
+}
@@ -0,0 +1,113 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link DiskUsageHistory} keeps samples and rollups of all resolutions and removes old records.
+ */
+public class DiskUsageHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    private DiskUsageHistory.Sample createSample(long time, long builds){
+        long[] values = new long[DiskUsageHistory.SIZE];
+        values[DiskUsageHistory.BUILDS] = builds;
+        values[DiskUsageHistory.WORKSPACES] = 2 * builds;
+        return new DiskUsageHistory.Sample(time, values);
+    }
+
+    private void addHourly(DiskUsageHistory history, long start, int hours){
+        for(int i = 0; i < hours; i++){
+            history.add(createSample(start + i * HOUR, i));
+        }
+    }
+
+    @Test
+    public void testRollupsKeepLastSampleOfPeriod() throws Exception{
+        DiskUsageHistory history = new DiskUsageHistory(folder.newFolder("history"));
+        addHourly(history, 0, 72);
+        Assert.assertEquals("All samples should be kept as raw samples.", 72, history.getSamples(DiskUsageHistory.Resolution.RAW, 0).size());
+        List<DiskUsageHistory.Sample> daily = history.getSamples(DiskUsageHistory.Resolution.DAILY, 0);
+        Assert.assertEquals("There should be one record for every day.", 3, daily.size());
+        Assert.assertEquals("Daily record should contain the last sample of the day.", 23, daily.get(0).get(DiskUsageHistory.BUILDS));
+        Assert.assertEquals("Values of sample should be kept.", 46, daily.get(0).get(DiskUsageHistory.WORKSPACES));
+        Assert.assertEquals("Record of the current day should contain the last sample.", 71, daily.get(2).get(DiskUsageHistory.BUILDS));
+    }
+
+    @Test
+    public void testHistoryIsLoadedFromFiles() throws Exception{
+        File dir = folder.newFolder("history");
+        addHourly(new DiskUsageHistory(dir), 0, 50);
+        DiskUsageHistory history = new DiskUsageHistory(dir);
+        Assert.assertFalse("Loaded history should not be empty.", history.isEmpty());
+        List<DiskUsageHistory.Sample> daily = history.getSamples(DiskUsageHistory.Resolution.DAILY, 0);
+        Assert.assertEquals("Record of the current day should be taken from raw samples.", 3, daily.size());
+        Assert.assertEquals("Record of the current day should contain the last sample.", 49, daily.get(2).get(DiskUsageHistory.BUILDS));
+        history.add(createSample(3 * DAY, 100));
+        daily = history.getSamples(DiskUsageHistory.Resolution.DAILY, 0);
+        Assert.assertEquals("Record of the finished day should be written once.", 4, daily.size());
+        Assert.assertEquals("Finished day should contain its last sample.", 49, daily.get(2).get(DiskUsageHistory.BUILDS));
+    }
+
+    @Test
+    public void testSamplesAreReadFromGivenTime() throws Exception{
+        DiskUsageHistory history = new DiskUsageHistory(folder.newFolder("history"));
+        addHourly(history, 0, 48);
+        List<DiskUsageHistory.Sample> samples = history.getSamples(DiskUsageHistory.Resolution.RAW, 10 * HOUR);
+        Assert.assertEquals("Samples older than the given time should not be read.", 38, samples.size());
+        Assert.assertEquals("The first sample should not be older than the given time.", 10 * HOUR, samples.get(0).getTime());
+    }
+
+    @Test
+    public void testOldRecordsAreRemoved() throws Exception{
+        DiskUsageHistory history = new DiskUsageHistory(folder.newFolder("history"));
+        history.setRetention(DiskUsageHistory.Resolution.RAW, 1);
+        addHourly(history, 0, 24);
+        Assert.assertEquals("Records should not be removed before they are older than retention.", 24, history.getSamples(DiskUsageHistory.Resolution.RAW, 0).size());
+        addHourly(history, DAY, 14);
+        List<DiskUsageHistory.Sample> samples = history.getSamples(DiskUsageHistory.Resolution.RAW, 0);
+        Assert.assertEquals("Records older than retention should be removed.", 25, samples.size());
+        Assert.assertEquals("The oldest kept record should not be older than retention.", 13 * HOUR, samples.get(0).getTime());
+        Assert.assertEquals("Daily records should be kept.", 2, history.getSamples(DiskUsageHistory.Resolution.DAILY, 0).size());
+    }
+
+    @Test
+    public void testIncompleteRecordIsOverwritten() throws Exception{
+        File dir = folder.newFolder("history");
+        addHourly(new DiskUsageHistory(dir), 0, 10);
+        FileOutputStream out = new FileOutputStream(new File(dir, "raw.dat"), true);
+        try{
+            out.write(new byte[]{1, 2, 3, 4, 5});
+        }
+        finally{
+            out.close();
+        }
+        DiskUsageHistory history = new DiskUsageHistory(dir);
+        Assert.assertEquals("Incomplete record should be ignored.", 10, history.getSamples(DiskUsageHistory.Resolution.RAW, 0).size());
+        history.add(createSample(10 * HOUR, 10));
+        List<DiskUsageHistory.Sample> samples = new DiskUsageHistory(dir).getSamples(DiskUsageHistory.Resolution.RAW, 0);
+        Assert.assertEquals("Incomplete record should be overwritten by the next one.", 11, samples.size());
+        Assert.assertEquals("The next record should be read correctly.", 10, samples.get(10).get(DiskUsageHistory.BUILDS));
+    }
+
+    @Test
+    public void testFailedWriteIsReported() throws Exception{
+        File dir = folder.newFolder("history");
+        DiskUsageHistory history = new DiskUsageHistory(dir);
+        Assert.assertEquals("Empty history should not have time of the last sample.", -1, history.getLastTime());
+        Assert.assertTrue("Written sample should be reported.", history.add(createSample(HOUR, 1)));
+        Assert.assertEquals("Time of the last sample should be returned.", HOUR, history.getLastTime());
+        DiskUsageHistory notWritable = new DiskUsageHistory(new File(folder.newFile("file"), "history"));
+        Assert.assertFalse("Sample which can not be written should be reported.", notWritable.add(createSample(HOUR, 1)));
+    }
+}
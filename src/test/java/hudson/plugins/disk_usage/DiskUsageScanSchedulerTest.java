@@ -0,0 +1,136 @@
+package hudson.plugins.disk_usage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks order in which {@link DiskUsageScanScheduler} calculates waiting units.
+ */
+public class DiskUsageScanSchedulerTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static class TestUnit extends DiskUsageScanScheduler.Unit {
+
+        private final List<String> calculated;
+
+        public TestUnit(String key, long expectedSize, int priority, List<String> calculated){
+            super(key, expectedSize, HOUR, priority);
+            this.calculated = calculated;
+        }
+
+        @Override
+        protected void calculate() throws Exception {
+            calculated.add(getKey());
+        }
+    }
+
+    private Thread scanInThread(final DiskUsageScanScheduler scheduler, final List<? extends DiskUsageScanScheduler.Unit> units){
+        Thread t = new Thread(){
+            public void run(){
+                try{
+                    scheduler.scan(units);
+                }
+                catch(InterruptedException e){
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    @Test
+    public void testUnitsAreOrderedByPriorityAndExpectedSize() throws Exception{
+        DiskUsageScanScheduler scheduler = new DiskUsageScanScheduler(1);
+        final List<String> calculated = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        //occupies the only thread, so the next units wait in the queue together
+        DiskUsageScanScheduler.Unit blocker = new DiskUsageScanScheduler.Unit("blocker", 0, HOUR, 1){
+            @Override
+            protected void calculate() throws Exception {
+                started.countDown();
+                release.await();
+            }
+        };
+        Thread first = scanInThread(scheduler, Collections.singletonList(blocker));
+        started.await();
+        Thread second = scanInThread(scheduler, Arrays.asList(
+                new TestUnit("small", 0, 1, calculated),
+                new TestUnit("big", 1024L * 1024 * 1024, 1, calculated),
+                new TestUnit("requested", 0, DiskUsageScanScheduler.PRIORITY_REQUESTED, calculated)));
+        while(scheduler.getSize() < 3){
+            Thread.sleep(10);
+        }
+        release.countDown();
+        first.join();
+        second.join();
+        Assert.assertEquals("Units should be calculated by priority and expected size.", Arrays.asList("requested", "big", "small"), calculated);
+    }
+
+    @Test
+    public void testRecentlyCalculatedUnitIsLessStale() throws Exception{
+        DiskUsageScanScheduler scheduler = new DiskUsageScanScheduler(1);
+        List<String> calculated = new ArrayList<String>();
+        TestUnit unit = new TestUnit("job", 0, 1, calculated);
+        long now = System.currentTimeMillis();
+        double neverCalculated = scheduler.getScore(unit, now);
+        scheduler.scan(Collections.singletonList(unit));
+        Assert.assertEquals("Unit should be calculated.", Collections.singletonList("job"), calculated);
+        Assert.assertTrue("Calculated unit should have lower score than a unit which was never calculated.", scheduler.getScore(unit, System.currentTimeMillis()) < neverCalculated);
+        Assert.assertTrue("Unit should be more stale after its target period.", scheduler.getScore(unit, System.currentTimeMillis() + 2 * HOUR) > scheduler.getScore(unit, System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testRequestedUnitsGoBeforeAllPeriodicUnits() throws Exception{
+        DiskUsageScanScheduler scheduler = new DiskUsageScanScheduler(1);
+        List<String> calculated = Collections.synchronizedList(new ArrayList<String>());
+        TestUnit requested = new TestUnit("requested", 0, DiskUsageScanScheduler.PRIORITY_REQUESTED, calculated);
+        //requested unit was just calculated, so its score is the lowest possible
+        scheduler.scan(Collections.singletonList(requested));
+        calculated.clear();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DiskUsageScanScheduler.Unit blocker = new DiskUsageScanScheduler.Unit("blocker", 0, HOUR, 1){
+            @Override
+            protected void calculate() throws Exception {
+                started.countDown();
+                release.await();
+            }
+        };
+        Thread first = scanInThread(scheduler, Collections.singletonList(blocker));
+        started.await();
+        TestUnit periodic = new TestUnit("periodic", 1024L * 1024 * 1024 * 1024, DiskUsageScanScheduler.PRIORITY_BUILDS, calculated);
+        Assert.assertTrue("Periodic unit should have higher score than the fresh requested unit.", scheduler.getScore(periodic, System.currentTimeMillis()) > scheduler.getScore(requested, System.currentTimeMillis()));
+        Thread second = scanInThread(scheduler, Arrays.asList(periodic, requested));
+        while(scheduler.getSize() < 2){
+            Thread.sleep(10);
+        }
+        release.countDown();
+        first.join();
+        second.join();
+        Assert.assertEquals("Requested unit should go before periodic units regardless of score.", Arrays.asList("requested", "periodic"), calculated);
+    }
+
+    @Test
+    public void testFreshUnitsAreSkippedByPeriodicCalculation() throws Exception{
+        DiskUsageScanScheduler scheduler = new DiskUsageScanScheduler(1);
+        List<String> calculated = new ArrayList<String>();
+        long now = System.currentTimeMillis();
+        Assert.assertFalse("Unit which was never calculated should not be fresh.", scheduler.isFresh("builds:job", HOUR, now));
+        //unit calculated on request, e.g. after a build
+        scheduler.scan(Collections.singletonList(new TestUnit("builds:job", 0, DiskUsageScanScheduler.PRIORITY_REQUESTED, calculated)));
+        List<TestUnit> periodic = Arrays.asList(new TestUnit("builds:job", 0, DiskUsageScanScheduler.PRIORITY_BUILDS, calculated),
+                new TestUnit("builds:other", 0, DiskUsageScanScheduler.PRIORITY_BUILDS, calculated));
+        List<TestUnit> stale = scheduler.getStale(periodic);
+        Assert.assertEquals("Unit calculated on request should be skipped by the periodic calculation.", 1, stale.size());
+        Assert.assertEquals("Unit which was not calculated should not be skipped.", "builds:other", stale.get(0).getKey());
+        Assert.assertFalse("Unit should not be fresh after half of its target period.", scheduler.isFresh("builds:job", HOUR, System.currentTimeMillis() + HOUR / 2));
+    }
+}
@@ -0,0 +1,418 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that all walkers count the same size of a directory tree.
+ */
+public class DiskUsageWalkerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void createFile(File parent, String name, int size) throws IOException{
+        parent.mkdirs();
+        FileOutputStream out = new FileOutputStream(new File(parent, name));
+        try{
+            out.write(new byte[size]);
+        }
+        finally{
+            out.close();
+        }
+    }
+
+    private File createTree() throws IOException{
+        File root = folder.newFolder("root");
+        createFile(root, "file1", 100);
+        createFile(new File(root, "a"), "file2", 2000);
+        createFile(new File(root, "a/b/c"), "file3", 30000);
+        createFile(new File(root, "excluded"), "file4", 400000);
+        new File(root, "empty").mkdirs();
+        return root;
+    }
+
+    private long getExpectedSize(File f, List<File> exceedFiles){
+        long size = f.length();
+        File[] children = f.listFiles();
+        if(children!=null){
+            for(File child : children){
+                if(!exceedFiles.contains(child))
+                    size += getExpectedSize(child, exceedFiles);
+            }
+        }
+        return size;
+    }
+
+    @Test
+    public void testNioWalkerCountsSameSizeAsFileWalker() throws Exception{
+        File root = createTree();
+        List<File> exceedFiles = new ArrayList<File>();
+        Long size = getExpectedSize(root, exceedFiles);
+        Assert.assertEquals("java.io.File walker counts wrong size.", size, new FileDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("java.nio.file walker counts wrong size.", size, new NioDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("Streaming walker counts wrong size.", size, new StreamingDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("Parallel walker counts wrong size.", size, new ForkJoinDiskUsageWalker(4).getFileSize(root, exceedFiles));
+    }
+
+    @Test
+    public void testParallelWalkerCountsSameSizeAsSequentialWalker() throws Exception{
+        File root = folder.newFolder("wide");
+        for(int i=0; i<20; i++){
+            for(int j=0; j<5; j++){
+                createFile(new File(root, "dir" + i + "/sub" + j), "file", i * 100 + j);
+            }
+        }
+        List<File> exceedFiles = new ArrayList<File>();
+        Assert.assertEquals("Parallel walker counts different size than sequential walker.", new StreamingDiskUsageWalker().getFileSize(root, exceedFiles), new ForkJoinDiskUsageWalker(8).getFileSize(root, exceedFiles));
+    }
+
+    @Test
+    public void testParallelWalkersSharePool() throws Exception{
+        File root = createTree();
+        List<File> exceedFiles = new ArrayList<File>();
+        Long size = getExpectedSize(root, exceedFiles);
+        Assert.assertSame("Walks with the same parallelism should use the same pool.", ForkJoinDiskUsageWalker.getPool(3), ForkJoinDiskUsageWalker.getPool(3));
+        Assert.assertEquals("Pool should have parallelism of the walker.", 3, ForkJoinDiskUsageWalker.getPool(3).getParallelism());
+        Assert.assertEquals("Parallel walker counts wrong size in shared pool.", size, new ForkJoinDiskUsageWalker(3).getFileSize(root, exceedFiles));
+        Assert.assertEquals("Parallel walker counts wrong size in shared pool used again.", size, new ForkJoinDiskUsageWalker(3).getFileSize(root, exceedFiles));
+        ForkJoinDiskUsageWalker.shutdownPools();
+        Assert.assertEquals("Parallel walker counts wrong size after pools were stopped.", size, new ForkJoinDiskUsageWalker(3).getFileSize(root, exceedFiles));
+    }
+
+    @Test
+    public void testWalkersCountDirectoryWithManyEntries() throws Exception{
+        File root = folder.newFolder("many");
+        for(int i=0; i<5000; i++){
+            createFile(root, "file" + i, i % 10);
+        }
+        List<File> exceedFiles = new ArrayList<File>();
+        Long size = getExpectedSize(root, exceedFiles);
+        Assert.assertEquals("Streaming walker counts wrong size of directory with many entries.", size, new StreamingDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("Parallel walker counts wrong size of directory with many entries.", size, new ForkJoinDiskUsageWalker(4).getFileSize(root, exceedFiles));
+    }
+
+    @Test
+    public void testStreamingWalkerCountsDeepTreeWithLimitedOpenDirectories() throws Exception{
+        File root = folder.newFolder("deep");
+        File dir = root;
+        for(int i=0; i<50; i++){
+            dir = new File(dir, "d" + i);
+            createFile(dir, "file", i);
+            createFile(new File(dir, "side"), "file", i);
+        }
+        List<File> exceedFiles = new ArrayList<File>();
+        Long size = getExpectedSize(root, exceedFiles);
+        DiskUsageWalkResult result = new StreamingDiskUsageWalker(3, 1000).walk(root, new ExcludedPaths());
+        Assert.assertEquals("Streaming walker with limited number of open directories counts wrong size.", size, result.getSize(), 0);
+        Assert.assertFalse("Result of complete walking should not be partial.", result.isPartial());
+    }
+
+    @Test
+    public void testParallelWalkerCountsTreeDeeperThanForkedTasks() throws Exception{
+        File root = folder.newFolder("deep");
+        File dir = root;
+        for(int i=0; i<ForkJoinDiskUsageWalker.MAX_FORK_DEPTH + 20; i++){
+            dir = new File(dir, "d");
+            createFile(dir, "file", i);
+            createFile(new File(dir, "side"), "file", i);
+        }
+        List<File> exceedFiles = new ArrayList<File>();
+        exceedFiles.add(new File(dir.getParentFile(), "side"));
+        Long size = getExpectedSize(root, exceedFiles);
+        DiskUsageWalkResult result = new ForkJoinDiskUsageWalker(4).walk(root, new ExcludedPaths(exceedFiles));
+        Assert.assertEquals("Parallel walker counts wrong size of directories deeper than forked tasks.", size, result.getSize(), 0);
+        Assert.assertEquals("Parallel walker counts wrong unique size of directories deeper than forked tasks.", size, result.getUniqueSize(), 0);
+        Assert.assertFalse("Result of complete walking should not be partial.", result.isPartial());
+    }
+
+    @Test
+    public void testJobTreeWalkerAttributesEntriesToParts() throws Exception{
+        File job = folder.newFolder("job");
+        createFile(job, "config.xml", 100);
+        createFile(job, "excluded", 5000);
+        File build1 = new File(job, "builds/1");
+        File build2 = new File(job, "builds/2");
+        createFile(new File(build1, "archive"), "artifact", 2000);
+        createFile(build2, "log", 300);
+        File child = new File(job, "configurations/axis/a");
+        File childBuild = new File(child, "builds/1");
+        createFile(child, "config.xml", 40);
+        createFile(childBuild, "log", 700);
+        List<File> exceedFiles = new ArrayList<File>();
+        exceedFiles.add(new File(job, "excluded"));
+        List<File> parts = new ArrayList<File>();
+        parts.add(build1);
+        parts.add(build2);
+        parts.add(child);
+        parts.add(childBuild);
+        Map<File,DiskUsageWalkResult> results = new JobTreeDiskUsageWalker().walk(job, parts, new ExcludedPaths(exceedFiles));
+        Assert.assertEquals("Build should contain whole its directory.", getExpectedSize(build1, exceedFiles), results.get(build1).getSize());
+        Assert.assertEquals("Build should contain whole its directory.", getExpectedSize(build2, exceedFiles), results.get(build2).getSize());
+        Assert.assertEquals("Build of child project should contain whole its directory.", getExpectedSize(childBuild, exceedFiles), results.get(childBuild).getSize());
+        List<File> childExceeded = new ArrayList<File>(exceedFiles);
+        childExceeded.add(childBuild);
+        Assert.assertEquals("Child project should not contain its builds.", getExpectedSize(child, childExceeded), results.get(child).getSize());
+        List<File> jobExceeded = new ArrayList<File>(exceedFiles);
+        jobExceeded.add(build1);
+        jobExceeded.add(build2);
+        jobExceeded.add(child);
+        Assert.assertEquals("Job should not contain its builds and child projects.", getExpectedSize(job, jobExceeded), results.get(job).getSize());
+        Assert.assertEquals("Unique size should be the same as size without hard links.", results.get(job).getSize(), results.get(job).getUniqueSize());
+        long total = 0;
+        for(DiskUsageWalkResult result : results.values()){
+            Assert.assertFalse("Result of complete walking should not be partial.", result.isPartial());
+            total += result.getSize();
+        }
+        Assert.assertEquals("Parts together should contain the whole tree.", new StreamingDiskUsageWalker().getFileSize(job, exceedFiles).longValue(), total);
+    }
+
+    @Test
+    public void testJobTreeWalkerCountsMissingPartAsEmpty() throws Exception{
+        File job = createTree();
+        File missing = new File(job, "builds/3");
+        Map<File,DiskUsageWalkResult> results = new JobTreeDiskUsageWalker().walk(job, Collections.singletonList(missing), new ExcludedPaths());
+        Assert.assertEquals("Part which does not exist should be empty.", 0, results.get(missing).getSize());
+        Assert.assertEquals("Root without parts should be counted as whole.", getExpectedSize(job, new ArrayList<File>()), results.get(job).getSize());
+    }
+
+    @Test
+    public void testStreamingWalkerReturnsPartialResultWhenLimitIsReached() throws Exception{
+        File root = createTree();
+        List<File> exceedFiles = new ArrayList<File>();
+        Long size = getExpectedSize(root, exceedFiles);
+        DiskUsageWalkResult result = new StreamingDiskUsageWalker(1, 0).walk(root, new ExcludedPaths());
+        Assert.assertTrue("Result should be partial if some directories are not walked.", result.isPartial());
+        Assert.assertTrue("Partial result should contain size of the counted files.", result.getSize() > 0 && result.getSize() < size);
+    }
+
+    @Test
+    public void testWalkersReturnPartialResultWhenDeadlineIsReached() throws Exception{
+        File root = createTree();
+        Long size = getExpectedSize(root, new ArrayList<File>());
+        DiskUsageWalker[] walkers = new DiskUsageWalker[]{new FileDiskUsageWalker(), new NioDiskUsageWalker(), new StreamingDiskUsageWalker(), new ForkJoinDiskUsageWalker(4), new JobTreeDiskUsageWalker()};
+        for(DiskUsageWalker walker : walkers){
+            walker.setDeadline(System.currentTimeMillis() - 1);
+            DiskUsageWalkResult result = walker.walk(root, new ExcludedPaths());
+            Assert.assertTrue(walker.getClass().getSimpleName() + " should return partial result after deadline.", result.isPartial());
+            Assert.assertTrue(walker.getClass().getSimpleName() + " should not count the whole tree after deadline.", result.getSize() < size);
+        }
+    }
+
+    @Test
+    public void testWalkerStopsIfCallerIsInterrupted() throws Exception{
+        File root = createTree();
+        Thread.currentThread().interrupt();
+        try{
+            DiskUsageWalkResult result = new StreamingDiskUsageWalker().walk(root, new ExcludedPaths());
+            Assert.assertTrue("Walk should be stopped if the calling thread is interrupted.", result.isPartial());
+        }
+        finally{
+            Thread.interrupted();
+        }
+        Assert.assertFalse("Walk without deadline should count the whole tree.", new StreamingDiskUsageWalker().walk(root, new ExcludedPaths()).isPartial());
+    }
+
+    @Test
+    public void testWalkersReportProgress() throws Exception{
+        File root = createTree();
+        Long size = getExpectedSize(root, new ArrayList<File>());
+        DiskUsageWalker[] walkers = new DiskUsageWalker[]{new FileDiskUsageWalker(), new NioDiskUsageWalker(), new StreamingDiskUsageWalker(), new ForkJoinDiskUsageWalker(4), new CachingDiskUsageWalker(DirectoryCache.load(folder.newFolder()))};
+        for(DiskUsageWalker walker : walkers){
+            final long[] last = new long[3];
+            walker.setProgress(new WalkProgress(0){
+                @Override
+                protected void report(String directory, int depth, long size, long entries){
+                    last[0] = Math.max(last[0], size);
+                    last[1] = Math.max(last[1], entries);
+                    last[2] = Math.max(last[2], depth);
+                }
+            });
+            walker.walk(root, new ExcludedPaths());
+            String name = walker.getClass().getSimpleName();
+            Assert.assertTrue(name + " should report counted size.", last[0] > 0 && last[0] <= size);
+            Assert.assertTrue(name + " should report visited entries.", last[1] > 0);
+            Assert.assertTrue(name + " should report depth of walked directories.", last[2] >= 2);
+        }
+    }
+
+    @Test
+    public void testProgressIsReportedOncePerInterval() throws Exception{
+        final int[] reports = new int[1];
+        WalkProgress progress = new WalkProgress(60000){
+            @Override
+            protected void report(String directory, int depth, long size, long entries){
+                reports[0]++;
+            }
+        };
+        for(int i=0; i<100; i++){
+            progress.update("dir", 1, i, i);
+        }
+        Assert.assertEquals("Progress should be reported only once per interval.", 1, reports[0]);
+    }
+
+    @Test
+    public void testUpdateDoesNotWaitForRunningReport() throws Exception{
+        final CountDownLatch reportStarted = new CountDownLatch(1);
+        final CountDownLatch releaseReport = new CountDownLatch(1);
+        final int[] reports = new int[1];
+        final WalkProgress progress = new WalkProgress(0){
+            @Override
+            protected void report(String directory, int depth, long size, long entries){
+                reports[0]++;
+                reportStarted.countDown();
+                try{
+                    releaseReport.await(10, TimeUnit.SECONDS);
+                }
+                catch(InterruptedException e){
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        Thread reporter = new Thread(){
+            public void run(){
+                progress.update("dir", 1, 1, 1);
+            }
+        };
+        reporter.start();
+        reportStarted.await();
+        //slow report (e.g. remote call) must not block other walking threads
+        Thread walker = new Thread(){
+            public void run(){
+                progress.update("dir", 2, 2, 2);
+            }
+        };
+        walker.start();
+        walker.join(5000);
+        boolean blocked = walker.isAlive();
+        releaseReport.countDown();
+        reporter.join();
+        walker.join();
+        Assert.assertFalse("Update should not wait for running report.", blocked);
+        Assert.assertEquals("Update during running report should be skipped.", 1, reports[0]);
+        progress.update("dir", 3, 3, 3);
+        Assert.assertEquals("Update after finished report should be reported.", 2, reports[0]);
+    }
+
+    @Test
+    public void testWalkersSkipExceededFiles() throws Exception{
+        File root = createTree();
+        List<File> exceedFiles = new ArrayList<File>();
+        exceedFiles.add(new File(root, "excluded"));
+        exceedFiles.add(new File(root, "file1"));
+        Long size = getExpectedSize(root, exceedFiles);
+        Assert.assertEquals("java.io.File walker does not skip exceeded files.", size, new FileDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("java.nio.file walker does not skip exceeded files.", size, new NioDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("Streaming walker does not skip exceeded files.", size, new StreamingDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("Parallel walker does not skip exceeded files.", size, new ForkJoinDiskUsageWalker(4).getFileSize(root, exceedFiles));
+    }
+
+    @Test
+    public void testWalkersDoNotFollowSymlinks() throws Exception{
+        File root = createTree();
+        List<File> exceedFiles = new ArrayList<File>();
+        Long size = getExpectedSize(root, exceedFiles);
+        Files.createSymbolicLink(new File(root, "link").toPath(), new File(root, "excluded").toPath());
+        Assert.assertEquals("java.io.File walker follows symlinks.", size, new FileDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("java.nio.file walker follows symlinks.", size, new NioDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("Streaming walker follows symlinks.", size, new StreamingDiskUsageWalker().getFileSize(root, exceedFiles));
+        Assert.assertEquals("Parallel walker follows symlinks.", size, new ForkJoinDiskUsageWalker(4).getFileSize(root, exceedFiles));
+    }
+
+    @Test
+    public void testWalkersReturnZeroForNonExistingFile() throws Exception{
+        File file = new File(folder.getRoot(), "does-not-exist");
+        List<File> exceedFiles = new ArrayList<File>();
+        Assert.assertEquals("java.io.File walker counts size of non-existing file.", 0l, new FileDiskUsageWalker().getFileSize(file, exceedFiles), 0);
+        Assert.assertEquals("java.nio.file walker counts size of non-existing file.", 0l, new NioDiskUsageWalker().getFileSize(file, exceedFiles), 0);
+        Assert.assertEquals("Streaming walker counts size of non-existing file.", 0l, new StreamingDiskUsageWalker().getFileSize(file, exceedFiles), 0);
+        Assert.assertEquals("Parallel walker counts size of non-existing file.", 0l, new ForkJoinDiskUsageWalker(4).getFileSize(file, exceedFiles), 0);
+    }
+
+    @Test
+    public void testHardLinksAreCountedOnceIntoUniqueSize() throws Exception{
+        File build1 = folder.newFolder("build1");
+        File build2 = folder.newFolder("build2");
+        createFile(build1, "artifact", 10000);
+        Files.createLink(new File(build2, "artifact").toPath(), new File(build1, "artifact").toPath());
+        long dirSize = build2.length();
+        DiskUsageWalker[] walkers = new DiskUsageWalker[]{new NioDiskUsageWalker(), new StreamingDiskUsageWalker(), new ForkJoinDiskUsageWalker(4), new JobTreeDiskUsageWalker()};
+        for(DiskUsageWalker walker : walkers){
+            InodeRegistry registry = new InodeRegistry();
+            walker.setInodeRegistry(registry);
+            DiskUsageWalkResult first = walker.walk(build1, new ExcludedPaths());
+            DiskUsageWalkResult second = walker.walk(build2, new ExcludedPaths());
+            String name = walker.getClass().getSimpleName();
+            Assert.assertEquals(name + " does not count hard-linked file into apparent size.", dirSize + 10000, second.getSize());
+            Assert.assertEquals(name + " does not count first occurrence of hard-linked file into unique size.", first.getSize(), first.getUniqueSize());
+            Assert.assertEquals(name + " counts hard-linked file into unique size twice.", dirSize, second.getUniqueSize());
+        }
+    }
+
+    @Test
+    public void testUniqueSizeWithoutRegistry() throws Exception{
+        File root = createTree();
+        Files.createLink(new File(root, "link").toPath(), new File(root, "file1").toPath());
+        DiskUsageWalkResult result = new StreamingDiskUsageWalker().walk(root, new ExcludedPaths());
+        Assert.assertEquals("Unique size should be the same as size if no registry is used.", result.getSize(), result.getUniqueSize());
+    }
+
+    @Test
+    public void testWalkersCountSameAllocatedSize() throws Exception{
+        File root = createTree();
+        DiskUsageWalker[] walkers = new DiskUsageWalker[]{new FileDiskUsageWalker(), new NioDiskUsageWalker(), new StreamingDiskUsageWalker(), new ForkJoinDiskUsageWalker(4), new JobTreeDiskUsageWalker()};
+        long expected = -1;
+        for(DiskUsageWalker walker : walkers){
+            walker.setCountAllocatedSize(true);
+            DiskUsageWalkResult result = walker.walk(root, new ExcludedPaths());
+            if(expected < 0)
+                expected = result.getAllocatedSize();
+            Assert.assertEquals(walker.getClass().getSimpleName() + " counts different allocated size.", expected, result.getAllocatedSize());
+        }
+    }
+
+    @Test
+    public void testAllocatedSizeOfSparseFile() throws Exception{
+        File root = folder.newFolder("sparse");
+        RandomAccessFile file = new RandomAccessFile(new File(root, "image"), "rw");
+        try{
+            file.setLength(100 * 1024 * 1024);
+        }
+        finally{
+            file.close();
+        }
+        StreamingDiskUsageWalker walker = new StreamingDiskUsageWalker();
+        walker.setCountAllocatedSize(true);
+        DiskUsageWalkResult result = walker.walk(root, new ExcludedPaths());
+        Assert.assertEquals("Apparent size should contain whole length of sparse file.", root.length() + 100 * 1024 * 1024, result.getSize());
+        Assert.assertTrue("Allocated size should not be higher than rounded apparent size.", result.getAllocatedSize() <= AllocatedSize.roundUp(root.length(), 4096) + 100 * 1024 * 1024);
+    }
+
+    @Test
+    public void testAllocatedSizeIsNotCountedByDefault() throws Exception{
+        File root = createTree();
+        DiskUsageWalkResult result = new StreamingDiskUsageWalker().walk(root, new ExcludedPaths());
+        Assert.assertEquals("Allocated size should be the same as size if it is not counted.", result.getSize(), result.getAllocatedSize());
+    }
+
+    @Test
+    public void testRoundUpToBlocks(){
+        Assert.assertEquals("Empty file should not occupy any block.", 0, AllocatedSize.roundUp(0, 4096));
+        Assert.assertEquals("Small file should occupy one block.", 4096, AllocatedSize.roundUp(1, 4096));
+        Assert.assertEquals("File of block size should occupy one block.", 4096, AllocatedSize.roundUp(4096, 4096));
+        Assert.assertEquals("File larger than block should occupy two blocks.", 8192, AllocatedSize.roundUp(4097, 4096));
+    }
+}
@@ -0,0 +1,91 @@
+package hudson.plugins.disk_usage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of {@link ExcludedPaths}.
+ */
+public class ExcludedPathsTest {
+
+    @Test
+    public void testContains(){
+        File root = new File("jobs/project1").getAbsoluteFile();
+        ExcludedPaths excluded = new ExcludedPaths();
+        excluded.add(new File(root, "builds/1"));
+        excluded.add(new File(root, "builds/2").getAbsolutePath());
+        Assert.assertTrue("Excluded file is not found.", excluded.contains(new File(root, "builds/1")));
+        Assert.assertTrue("Excluded path is not found.", excluded.contains(new File(root, "builds/2").getAbsolutePath()));
+        Assert.assertFalse("File which is not excluded is found.", excluded.contains(new File(root, "builds/3")));
+        Assert.assertFalse("Parent of excluded file is found.", excluded.contains(new File(root, "builds")));
+        //relative path is resolved against working directory
+        Assert.assertTrue("Relative path of excluded file is not found.", excluded.contains(new File("jobs/project1/builds/1")));
+    }
+
+    @Test
+    public void testAddAfterLookup(){
+        ExcludedPaths excluded = new ExcludedPaths();
+        File file = new File("file").getAbsoluteFile();
+        Assert.assertFalse("Empty excluded paths contain file.", excluded.contains(file));
+        excluded.add(file);
+        Assert.assertTrue("File added after first lookup is not found.", excluded.contains(file));
+    }
+
+    @Test
+    public void testSerialization() throws Exception{
+        File root = new File("workspace/project1").getAbsoluteFile();
+        ExcludedPaths excluded = new ExcludedPaths();
+        List<String> paths = new ArrayList<String>();
+        for(int i=0; i<1000; i++){
+            paths.add(new File(root, "axis/axis" + i + "/label/slave1").getPath());
+        }
+        for(String path : paths){
+            excluded.add(path);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(excluded);
+        out.close();
+        ExcludedPaths copy = (ExcludedPaths) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        Assert.assertEquals("Deserialized paths should contain all paths.", 1000, copy.size());
+        for(String path : paths){
+            Assert.assertTrue("Deserialized paths should contain " + path, copy.contains(path));
+        }
+        Assert.assertFalse("Deserialized paths should not contain other paths.", copy.contains(root.getPath()));
+        int length = 0;
+        for(String path : paths){
+            length += path.length();
+        }
+        Assert.assertTrue("Shared prefixes should be serialized only once.", bytes.size() < length / 2);
+    }
+
+    /**
+     * Simulates walking of job root directory which contains many builds - every entry of the job root
+     * is looked up in the excluded builds.
+     */
+    @Test
+    public void testLookupOfManyBuilds(){
+        File root = new File("jobs/project1/builds").getAbsoluteFile();
+        int entries = 10000;
+        ExcludedPaths excluded = new ExcludedPaths();
+        //only even builds are excluded, so paths which are prefixes of excluded paths are looked up too
+        for(int i=0; i<entries; i+=2){
+            excluded.add(new File(root, Integer.toString(i)));
+        }
+        Assert.assertEquals("All excluded builds should be kept.", entries / 2, excluded.size());
+        for(int i=0; i<entries; i++){
+            File build = new File(root, Integer.toString(i));
+            Assert.assertEquals("Wrong answer for build " + i + ".", i % 2 == 0, excluded.contains(build));
+            Assert.assertEquals("Wrong answer for path of build " + i + ".", i % 2 == 0, excluded.contains(build.getAbsolutePath()));
+            Assert.assertFalse("File in build " + i + " should not be excluded.", excluded.contains(new File(build, "log")));
+        }
+        Assert.assertFalse("Directory of builds should not be excluded.", excluded.contains(root));
+    }
+}
@@ -0,0 +1,80 @@
+package hudson.plugins.disk_usage;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that {@link GlobalDiskUsage} keeps totals consistent with changes of single builds and jobs.
+ */
+public class GlobalDiskUsageTest {
+
+    private GlobalDiskUsage createCounted(){
+        GlobalDiskUsage global = new GlobalDiskUsage();
+        Map<String,long[]> contributions = new HashMap<String,long[]>();
+        long[] job = new long[GlobalDiskUsage.SIZE];
+        job[GlobalDiskUsage.BUILDS] = 1000;
+        job[GlobalDiskUsage.JOBS_WITHOUT_BUILDS] = 100;
+        job[GlobalDiskUsage.WORKSPACES] = 500;
+        contributions.put("folder/job", job);
+        long[] other = new long[GlobalDiskUsage.SIZE];
+        other[GlobalDiskUsage.BUILDS] = 2000;
+        contributions.put("other", other);
+        global.reset(contributions);
+        return global;
+    }
+
+    @Test
+    public void testChangesBeforeSweepAreIgnored(){
+        GlobalDiskUsage global = new GlobalDiskUsage();
+        global.addBuild("job", 100, 100, 100, 0);
+        global.setJob("job", 10, 10, 10, 0);
+        Assert.assertFalse("Totals should not be counted before the first sweep.", global.isInitialized());
+        Assert.assertEquals("Change before the first sweep should be ignored.", 0, global.get(GlobalDiskUsage.BUILDS));
+        global.reset(new HashMap<String,long[]>());
+        Assert.assertTrue("Totals should be counted after the sweep.", global.isInitialized());
+    }
+
+    @Test
+    public void testBuildChangesAreAdded(){
+        GlobalDiskUsage global = createCounted();
+        Assert.assertEquals("Totals should be counted by the sweep.", 3000, global.get(GlobalDiskUsage.BUILDS));
+        global.addBuild("folder/job", 300, 200, 400, 300);
+        global.addBuild("new", 50, 50, 50, 0);
+        Assert.assertEquals("Size of changed builds should be added.", 3350, global.get(GlobalDiskUsage.BUILDS));
+        Assert.assertEquals("Unique size of changed builds should be added.", 250, global.get(GlobalDiskUsage.UNIQUE_BUILDS));
+        Assert.assertEquals("Size of locked builds should be added.", 300, global.get(GlobalDiskUsage.LOCKED_BUILDS));
+        Assert.assertEquals("Contribution of the job should contain its builds.", 1300, global.getJobContribution("folder/job")[GlobalDiskUsage.BUILDS]);
+    }
+
+    @Test
+    public void testJobSizesAreReplaced(){
+        GlobalDiskUsage global = createCounted();
+        global.setJob("folder/job", 150, 150, 300, 100);
+        global.setJob("folder/job", 200, 200, 600, 100);
+        Assert.assertEquals("Size of job without builds should be replaced.", 200, global.get(GlobalDiskUsage.JOBS_WITHOUT_BUILDS));
+        Assert.assertEquals("Size of workspaces should be replaced.", 600, global.get(GlobalDiskUsage.WORKSPACES));
+        Assert.assertEquals("Size of non slave workspaces should be replaced.", 100, global.get(GlobalDiskUsage.NON_SLAVE_WORKSPACES));
+    }
+
+    @Test
+    public void testRemovedJobIsSubtracted(){
+        GlobalDiskUsage global = createCounted();
+        global.removeJob("folder");
+        Assert.assertEquals("Builds of job in removed folder should be subtracted.", 2000, global.get(GlobalDiskUsage.BUILDS));
+        Assert.assertEquals("Workspaces of job in removed folder should be subtracted.", 0, global.get(GlobalDiskUsage.WORKSPACES));
+        global.removeJob("oth");
+        Assert.assertEquals("Job with the same prefix should not be subtracted.", 2000, global.get(GlobalDiskUsage.BUILDS));
+    }
+
+    @Test
+    public void testRenamedJobKeepsItsContribution(){
+        GlobalDiskUsage global = createCounted();
+        global.renameJob("folder", "renamed");
+        Assert.assertEquals("Totals should not change by renaming.", 3000, global.get(GlobalDiskUsage.BUILDS));
+        Assert.assertEquals("Contribution should be moved to the new name.", 1000, global.getJobContribution("renamed/job")[GlobalDiskUsage.BUILDS]);
+        global.removeJob("renamed/job");
+        Assert.assertEquals("Renamed job should be subtracted by its new name.", 2000, global.get(GlobalDiskUsage.BUILDS));
+    }
+}
@@ -0,0 +1,79 @@
+package hudson.plugins.disk_usage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link LegacyBuildSizeReader} reads sizes which older versions stored in build.xml.
+ */
+public class LegacyBuildSizeReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createBuild(String dir, String content) throws IOException{
+        File build = folder.newFolder(dir);
+        FileOutputStream out = new FileOutputStream(new File(build, LegacyBuildSizeReader.BUILD_FILE));
+        try{
+            out.write(("<?xml version='1.0' encoding='UTF-8'?>\n<build>\n" + content + "</build>\n").getBytes("UTF-8"));
+        }
+        finally{
+            out.close();
+        }
+        return build;
+    }
+
+    @Test
+    public void testSizesOfActionAreRead() throws Exception{
+        File build = createBuild("2", "  <actions>\n    <hudson.model.CauseAction/>\n"
+                + "    <hudson.plugins.disk__usage.BuildDiskUsageAction>\n      <buildDiskUsage>5000</buildDiskUsage>\n"
+                + "      <uniqueDiskUsage>3000</uniqueDiskUsage>\n      <allocatedDiskUsage>8192</allocatedDiskUsage>\n"
+                + "      <build class=\"build\" reference=\"../../..\"/>\n    </hudson.plugins.disk__usage.BuildDiskUsageAction>\n  </actions>\n"
+                + "  <number>2</number>\n  <timestamp>1300000000000</timestamp>\n  <keepLog>true</keepLog>\n");
+        BuildSizeIndex.Entry entry = LegacyBuildSizeReader.read(build);
+        Assert.assertNotNull("Sizes stored in build.xml should be read.", entry);
+        Assert.assertEquals("Number of the build should be read.", 2, entry.getNumber());
+        Assert.assertEquals("Timestamp of the build should be read.", 1300000000000L, entry.getTimestamp());
+        Assert.assertEquals("Size of the build should be read.", 5000, entry.getSize());
+        Assert.assertEquals("Unique size of the build should be read.", 3000, entry.getUniqueSize());
+        Assert.assertEquals("Allocated size of the build should be read.", 8192, entry.getAllocatedSize());
+        Assert.assertTrue("Keeping of log should be read.", entry.isKeepLog());
+    }
+
+    @Test
+    public void testOldestFormatAndIdOfBuildAreRead() throws Exception{
+        String id = "2012-05-01_12-30-00";
+        File build = createBuild(id, "  <actions>\n    <hudson.plugins.disk__usage.BuildDiskUsageAction>\n"
+                + "      <diskUsage>\n        <buildUsage>4000</buildUsage>\n        <wsUsage>100</wsUsage>\n      </diskUsage>\n"
+                + "    </hudson.plugins.disk__usage.BuildDiskUsageAction>\n  </actions>\n  <number>7</number>\n");
+        BuildSizeIndex.Entry entry = LegacyBuildSizeReader.read(build);
+        Assert.assertNotNull("Size stored in DiskUsage should be read.", entry);
+        Assert.assertEquals("Size stored in DiskUsage should be read.", 4000, entry.getSize());
+        Assert.assertEquals("Unique size which was not stored should be the same as size.", 4000, entry.getUniqueSize());
+        Assert.assertEquals("Timestamp should be taken from id of the build.", new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").parse(id).getTime(), entry.getTimestamp());
+        Assert.assertFalse("Log should not be kept.", entry.isKeepLog());
+    }
+
+    @Test
+    public void testBuildWithoutSizesIsSkipped() throws Exception{
+        Assert.assertNull("Build without action should be skipped.", LegacyBuildSizeReader.read(createBuild("1", "  <actions/>\n  <number>1</number>\n")));
+        Assert.assertNull("Element of another action should not be read.", LegacyBuildSizeReader.read(createBuild("3",
+                "  <actions>\n    <other.Action>\n      <buildDiskUsage>100</buildDiskUsage>\n    </other.Action>\n  </actions>\n")));
+        Assert.assertNull("Broken file should be skipped.", LegacyBuildSizeReader.read(createBuild("4", "  <actions>\n")));
+        Assert.assertNull("Directory without build.xml should be skipped.", LegacyBuildSizeReader.read(folder.newFolder("5")));
+    }
+
+    @Test
+    public void testNumberIsTakenFromDirectory() throws Exception{
+        BuildSizeIndex.Entry entry = LegacyBuildSizeReader.read(createBuild("12", "  <actions>\n    <hudson.plugins.disk__usage.BuildDiskUsageAction>\n"
+                + "      <buildDiskUsage>100</buildDiskUsage>\n    </hudson.plugins.disk__usage.BuildDiskUsageAction>\n  </actions>\n"));
+        Assert.assertNotNull("Build without number in build.xml should be read.", entry);
+        Assert.assertEquals("Number should be taken from the name of the directory.", 12, entry.getNumber());
+    }
+}
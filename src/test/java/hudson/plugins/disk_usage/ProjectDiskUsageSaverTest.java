@@ -0,0 +1,119 @@
+package hudson.plugins.disk_usage;
+
+import hudson.XmlFile;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link ProjectDiskUsageSaver} coalesces changes of one job, keeps the limit of writes per second and
+ * writes waiting changes when it stops.
+ */
+public class ProjectDiskUsageSaverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //changes wait long enough, so they are not written during the test
+    private static final long LONG_DELAY = 60 * 60 * 1000;
+
+    private final List<File> saved = Collections.synchronizedList(new ArrayList<File>());
+
+    /**
+     * Disk usage of a job in the given directory which records its writes instead of writing the file.
+     */
+    private class TestDiskUsage extends ProjectDiskUsage {
+
+        private final File rootDir;
+
+        public TestDiskUsage(File rootDir){
+            this.rootDir = rootDir;
+        }
+
+        @Override
+        public XmlFile getConfigFile(){
+            return new XmlFile(new File(rootDir, FILE_NAME));
+        }
+
+        @Override
+        public synchronized void save(){
+            saved.add(rootDir);
+        }
+    }
+
+    private void waitForWrites(int count) throws InterruptedException{
+        long end = System.currentTimeMillis() + 10000;
+        while(saved.size() < count && System.currentTimeMillis() < end){
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testChangesOfOneJobAreWrittenOnce() throws Exception{
+        ProjectDiskUsageSaver saver = new ProjectDiskUsageSaver(200, 10);
+        try{
+            File job = folder.newFolder("job");
+            TestDiskUsage diskUsage = new TestDiskUsage(job);
+            saver.markDirty(diskUsage);
+            saver.markDirty(diskUsage);
+            saver.markDirty(new TestDiskUsage(job));
+            Assert.assertEquals("Changes of the same job should wait as one write.", 1, saver.getSize());
+            waitForWrites(1);
+            Thread.sleep(300);
+            Assert.assertEquals("Changes of the same job should be written once.", Collections.singletonList(job), saved);
+            Assert.assertEquals("Written changes should not wait.", 0, saver.getSize());
+        }
+        finally{
+            saver.stop();
+        }
+    }
+
+    @Test
+    public void testLimitOfWritesPerSecondIsKept() throws Exception{
+        ProjectDiskUsageSaver saver = new ProjectDiskUsageSaver(100, 2);
+        try{
+            for(int i = 0; i < 5; i++){
+                saver.markDirty(new TestDiskUsage(folder.newFolder("job" + i)));
+            }
+            Thread.sleep(600);
+            Assert.assertEquals("Only the limit of files should be written in the first second.", 2, saved.size());
+            waitForWrites(5);
+            Assert.assertEquals("The rest should be written in the next seconds.", 5, saved.size());
+            Assert.assertEquals("Files should be written in order in which they changed.", new File(folder.getRoot(), "job0"), saved.get(0));
+        }
+        finally{
+            saver.stop();
+        }
+    }
+
+    @Test
+    public void testWaitingChangesAreWrittenOnStop() throws Exception{
+        ProjectDiskUsageSaver saver = new ProjectDiskUsageSaver(LONG_DELAY, 1);
+        File job = folder.newFolder("job");
+        File other = folder.newFolder("other");
+        saver.markDirty(new TestDiskUsage(job));
+        saver.markDirty(new TestDiskUsage(other));
+        saver.stop();
+        Assert.assertEquals("All waiting changes should be written on stop regardless of the limit.", 2, saved.size());
+        Assert.assertEquals("No change should wait after stop.", 0, saver.getSize());
+    }
+
+    @Test
+    public void testChangesOfRemovedJobAreNotWritten() throws Exception{
+        ProjectDiskUsageSaver saver = new ProjectDiskUsageSaver(LONG_DELAY, 1);
+        File renamed = folder.newFolder("renamed");
+        File deleted = new File(folder.getRoot(), "deleted");
+        saver.markDirty(new TestDiskUsage(renamed));
+        saver.markDirty(new TestDiskUsage(deleted));
+        saver.forget(renamed);
+        Assert.assertEquals("Changes of forgotten job should be dropped.", 1, saver.getSize());
+        saver.stop();
+        Assert.assertTrue("Nothing should be written into directory which does not exist.", saved.isEmpty());
+        Assert.assertFalse("Directory of deleted job should not be created again.", deleted.exists());
+    }
+}
@@ -0,0 +1,129 @@
+package hudson.plugins.disk_usage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that {@link WorkspaceCalculationExecutor} calculates nodes at the same time and keeps the limit of one node.
+ */
+public class WorkspaceCalculationExecutorTest {
+
+    private Map<String,ExcludedPaths> createWorkspaces(String node, int count){
+        Map<String,ExcludedPaths> workspaces = new LinkedHashMap<String,ExcludedPaths>();
+        for(int i = 0; i < count; i++){
+            workspaces.put(node + "/workspace" + i, new ExcludedPaths());
+        }
+        return workspaces;
+    }
+
+    /**
+     * Counts calculations running on every node and keeps the highest number.
+     */
+    private static class CountingCalculation implements WorkspaceCalculationExecutor.Calculation<String,Integer> {
+
+        private final Map<String,AtomicInteger> running = new HashMap<String,AtomicInteger>();
+        private final Map<String,AtomicInteger> max = new HashMap<String,AtomicInteger>();
+        private final CountDownLatch allNodesStarted;
+
+        public CountingCalculation(CountDownLatch allNodesStarted, String... nodes){
+            this.allNodesStarted = allNodesStarted;
+            for(String node : nodes){
+                running.put(node, new AtomicInteger());
+                max.put(node, new AtomicInteger());
+            }
+        }
+
+        public Integer calculate(String node, Map<String,ExcludedPaths> workspaces) throws Exception {
+            int current = running.get(node).incrementAndGet();
+            synchronized(max){
+                if(current > max.get(node).get())
+                    max.get(node).set(current);
+            }
+            allNodesStarted.countDown();
+            //calculation of one node can finish only when the other node is calculated too
+            if(!allNodesStarted.await(10, TimeUnit.SECONDS))
+                throw new IllegalStateException("Nodes are not calculated at the same time.");
+            Thread.sleep(20);
+            running.get(node).decrementAndGet();
+            return workspaces.size();
+        }
+    }
+
+    @Test
+    public void testNodesAreCalculatedConcurrentlyWithinLimitOfNode() throws Exception{
+        WorkspaceCalculationExecutor<String,Integer> executor = new WorkspaceCalculationExecutor<String,Integer>(4, 1);
+        executor.add("node1", createWorkspaces("node1", 3));
+        executor.add("node2", createWorkspaces("node2", 3));
+        CountingCalculation calculation = new CountingCalculation(new CountDownLatch(2), "node1", "node2");
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger calculated = new AtomicInteger();
+        executor.run(calculation, new WorkspaceCalculationExecutor.Callback<String,Integer>(){
+            public void done(String node, Map<String,ExcludedPaths> workspaces, Integer result){
+                done.add(node);
+                if(result!=null)
+                    calculated.addAndGet(result);
+            }
+        });
+        Assert.assertEquals("Both nodes should be calculated, each by one batch.", 2, done.size());
+        Assert.assertEquals("All workspaces should be calculated.", 6, calculated.get());
+        Assert.assertEquals("Only one calculation should run on node1 at the same time.", 1, calculation.max.get("node1").get());
+        Assert.assertEquals("Only one calculation should run on node2 at the same time.", 1, calculation.max.get("node2").get());
+    }
+
+    @Test
+    public void testLimitOfNodeIsKeptWithMoreThreads() throws Exception{
+        WorkspaceCalculationExecutor<String,Integer> executor = new WorkspaceCalculationExecutor<String,Integer>(8, 2);
+        executor.add("node1", createWorkspaces("node1", 5));
+        executor.add("node2", createWorkspaces("node2", 1));
+        //both batches of node1 and the only batch of node2 have to run at the same time
+        CountingCalculation calculation = new CountingCalculation(new CountDownLatch(3), "node1", "node2");
+        final AtomicInteger batches = new AtomicInteger();
+        executor.run(calculation, new WorkspaceCalculationExecutor.Callback<String,Integer>(){
+            public void done(String node, Map<String,ExcludedPaths> workspaces, Integer result){
+                Assert.assertNotNull("Batch should be calculated.", result);
+                batches.incrementAndGet();
+            }
+        });
+        Assert.assertEquals("Workspaces of node1 should be split into two batches.", 3, batches.get());
+        Assert.assertEquals("At most two calculations should run on node1 at the same time.", 2, calculation.max.get("node1").get());
+        Assert.assertEquals("Node with one workspace should be calculated by one batch.", 1, calculation.max.get("node2").get());
+    }
+
+    @Test
+    public void testWorkspacesAreSplitToLimitOfNode() throws Exception{
+        List<Map<String,ExcludedPaths>> parts = WorkspaceCalculationExecutor.split(createWorkspaces("node", 5), 2);
+        Assert.assertEquals("Workspaces should be split into the given number of batches.", 2, parts.size());
+        Assert.assertEquals("Batches should have similar size.", 3, parts.get(0).size());
+        Assert.assertEquals("Batches should have similar size.", 2, parts.get(1).size());
+        Assert.assertEquals("Node with less workspaces than the limit should have batch for every workspace.", 2, WorkspaceCalculationExecutor.split(createWorkspaces("node", 2), 4).size());
+    }
+
+    @Test
+    public void testFailedBatchDoesNotStopOthers() throws Exception{
+        WorkspaceCalculationExecutor<String,Integer> executor = new WorkspaceCalculationExecutor<String,Integer>(2, 1);
+        executor.add("failing", createWorkspaces("failing", 1));
+        executor.add("node", createWorkspaces("node", 2));
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        executor.run(new WorkspaceCalculationExecutor.Calculation<String,Integer>(){
+            public Integer calculate(String node, Map<String,ExcludedPaths> workspaces) throws Exception {
+                if(node.equals("failing"))
+                    throw new IllegalStateException("failure of node");
+                return workspaces.size();
+            }
+        }, new WorkspaceCalculationExecutor.Callback<String,Integer>(){
+            public void done(String node, Map<String,ExcludedPaths> workspaces, Integer result){
+                done.add(node);
+            }
+        });
+        Assert.assertEquals("Only result of the node which did not fail should be handed over.", Collections.singletonList("node"), done);
+    }
+}
@@ -0,0 +1,133 @@
+package hudson.plugins.disk_usage.integration;
+
+import hudson.model.AbstractBuild;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.disk_usage.BuildDiskUsageQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+/**
+ * Checks coalescing, order and shutdown of {@link BuildDiskUsageQueue}.
+ */
+public class BuildDiskUsageQueueTest extends HudsonTestCase {
+
+    /**
+     * Records calculated builds instead of calculating them, calculation of the blocking build waits until it is released.
+     */
+    private static class TestQueue extends BuildDiskUsageQueue {
+
+        private final List<String> calculated = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch blockerStarted = new CountDownLatch(1);
+        private final CountDownLatch releaseBlocker = new CountDownLatch(1);
+        private final CountDownLatch finished;
+        private AbstractBuild blocker;
+
+        public TestQueue(int expectedCalculations){
+            super(1, 10);
+            finished = new CountDownLatch(expectedCalculations);
+        }
+
+        public void block(AbstractBuild build) throws InterruptedException{
+            blocker = build;
+            add(build);
+            blockerStarted.await();
+        }
+
+        @Override
+        protected String calculate(AbstractBuild build, boolean includeWorkspace) throws Exception {
+            if(build==blocker){
+                blockerStarted.countDown();
+                releaseBlocker.await();
+                return "blocker";
+            }
+            calculated.add(build.getFullDisplayName() + (includeWorkspace ? " with workspace" : ""));
+            finished.countDown();
+            return "Disk usage of " + build.getFullDisplayName() + " is calculated.";
+        }
+    }
+
+    @Test
+    public void testBuildsOfSameWorkspaceAreCoalesced() throws Exception{
+        FreeStyleProject blocking = createFreeStyleProject("blocking");
+        FreeStyleProject project = createFreeStyleProject("project");
+        FreeStyleBuild build1 = project.scheduleBuild2(0).get();
+        FreeStyleBuild build2 = project.scheduleBuild2(0).get();
+        TestQueue queue = new TestQueue(2);
+        try{
+            queue.block(blocking.scheduleBuild2(0).get());
+            assertTrue("Build should be queued.", queue.add(build1));
+            assertTrue("Build should be queued.", queue.add(build2));
+            assertEquals("Builds of the same workspace should wait as one request while the blocking build is calculated.", 2, queue.getSize());
+            queue.releaseBlocker.countDown();
+            assertTrue("Builds should be calculated.", queue.finished.await(10, TimeUnit.SECONDS));
+            assertEquals("Both builds should be calculated, but the workspace only with the latest one.",
+                    Arrays.asList(build1.getFullDisplayName(), build2.getFullDisplayName() + " with workspace"), queue.calculated);
+        }
+        finally{
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestsAreCalculatedInOrder() throws Exception{
+        FreeStyleProject blocking = createFreeStyleProject("blocking");
+        FreeStyleBuild first = createFreeStyleProject("first").scheduleBuild2(0).get();
+        FreeStyleBuild second = createFreeStyleProject("second").scheduleBuild2(0).get();
+        TestQueue queue = new TestQueue(2);
+        try{
+            queue.block(blocking.scheduleBuild2(0).get());
+            queue.add(first);
+            queue.add(second);
+            queue.releaseBlocker.countDown();
+            assertTrue("Builds should be calculated.", queue.finished.await(10, TimeUnit.SECONDS));
+            assertEquals("Builds of different jobs should be calculated in order of completion.",
+                    Arrays.asList(first.getFullDisplayName() + " with workspace", second.getFullDisplayName() + " with workspace"), queue.calculated);
+        }
+        finally{
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testSummaryIsAppendedToLogOfBuild() throws Exception{
+        FreeStyleProject blocking = createFreeStyleProject("blocking");
+        FreeStyleBuild build = createFreeStyleProject("project").scheduleBuild2(0).get();
+        TestQueue queue = new TestQueue(1);
+        try{
+            queue.block(blocking.scheduleBuild2(0).get());
+            queue.add(build);
+            queue.releaseBlocker.countDown();
+            assertTrue("Build should be calculated.", queue.finished.await(10, TimeUnit.SECONDS));
+            //summary is written after the calculation returns
+            String summary = "Disk usage of " + build.getFullDisplayName() + " is calculated.";
+            long end = System.currentTimeMillis() + 10000;
+            while(!build.getLog().contains(summary) && System.currentTimeMillis() < end){
+                Thread.sleep(10);
+            }
+            assertTrue("Summary of the calculation should be appended to the log of the build.", build.getLog().contains(summary));
+        }
+        finally{
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownDiscardsWaitingBuilds() throws Exception{
+        FreeStyleProject blocking = createFreeStyleProject("blocking");
+        FreeStyleBuild build = createFreeStyleProject("project").scheduleBuild2(0).get();
+        TestQueue queue = new TestQueue(1);
+        queue.block(blocking.scheduleBuild2(0).get());
+        queue.add(build);
+        queue.shutdown();
+        assertFalse("Build should not be queued after shutdown.", queue.add(build));
+        assertFalse("Waiting build should not be calculated after shutdown.", queue.finished.await(500, TimeUnit.MILLISECONDS));
+        assertTrue("No build should be calculated after shutdown.", queue.calculated.isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package hudson.plugins.disk_usage.integration;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.disk_usage.BuildDiskUsageAction;
+import hudson.plugins.disk_usage.BuildSizeIndex;
+import java.io.File;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+/**
+ * Checks that sizes which older versions stored in build.xml are moved to {@link BuildSizeIndex} and are not lost
+ * when the build is saved again.
+ */
+public class BuildSizeIndexTest extends HudsonTestCase {
+
+    private static final String ACTION_ELEMENT = "<hudson.plugins.disk__usage.BuildDiskUsageAction";
+
+    /**
+     * Stores sizes into build.xml of the build in the format of older versions.
+     */
+    private void writeLegacySizes(FreeStyleBuild build, long size, long uniqueSize) throws Exception{
+        build.save();
+        File file = new File(build.getRootDir(), "build.xml");
+        String xml = FileUtils.readFileToString(file);
+        int start = xml.indexOf(ACTION_ELEMENT);
+        assertTrue("build.xml should contain disk usage action.", start >= 0);
+        int end = xml.indexOf(">", start) + 1;
+        xml = xml.substring(0, end) + "<buildDiskUsage>" + size + "</buildDiskUsage><uniqueDiskUsage>" + uniqueSize + "</uniqueDiskUsage>" + xml.substring(end);
+        FileUtils.writeStringToFile(file, xml);
+    }
+
+    private FreeStyleProject reload() throws Exception{
+        jenkins.reload();
+        return (FreeStyleProject) jenkins.getItem("project");
+    }
+
+    @Test
+    public void testLegacySizesAreMovedToIndex() throws Exception{
+        FreeStyleProject project = createFreeStyleProject("project");
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        assertNotNull("Disk usage of the build should be calculated.", build.getAction(BuildDiskUsageAction.class));
+        writeLegacySizes(build, 5000, 3000);
+        File file = BuildSizeIndex.get(project).getFile();
+        assertTrue("Index should be deleted.", file.delete());
+        project = reload();
+        BuildSizeIndex.get(project);
+        assertTrue("Index created from builds should be saved.", file.exists());
+        BuildSizeIndex.forget(project);
+        BuildSizeIndex.Entry entry = BuildSizeIndex.get(project).get(1);
+        assertNotNull("Saved index should contain the build.", entry);
+        assertEquals("Size from build.xml should be stored in the index.", 5000, entry.getSize());
+        assertEquals("Unique size from build.xml should be stored in the index.", 3000, entry.getUniqueSize());
+    }
+
+    @Test
+    public void testSaveOfBuildDoesNotLoseMovedSize() throws Exception{
+        FreeStyleProject project = createFreeStyleProject("project");
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        writeLegacySizes(build, 5000, 3000);
+        //index exists, but it does not know the build, so sizes are moved when they are read
+        BuildSizeIndex index = BuildSizeIndex.get(project);
+        index.remove(1);
+        index.flush();
+        project = reload();
+        build = project.getBuildByNumber(1);
+        assertEquals("Size from build.xml should be read.", Long.valueOf(5000), build.getAction(BuildDiskUsageAction.class).getDiskUsage());
+        build.save();
+        assertFalse("Moved sizes should not be saved in build.xml again.", FileUtils.readFileToString(new File(build.getRootDir(), "build.xml")).contains("<buildDiskUsage>"));
+        project = reload();
+        assertEquals("Size should not be lost by saving of the build.", Long.valueOf(5000), project.getBuildByNumber(1).getAction(BuildDiskUsageAction.class).getDiskUsage());
+    }
+
+    @Test
+    public void testIndexOfRenamedJobIsSavedIntoNewDirectory() throws Exception{
+        FreeStyleProject project = createFreeStyleProject("project");
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        //the change waits in memory
+        build.getAction(BuildDiskUsageAction.class).setDiskUsage(7000L);
+        project.renameTo("renamed");
+        assertTrue("Index should be saved into the new directory of the job.", new File(project.getRootDir(), BuildSizeIndex.FILE_NAME).exists());
+        BuildSizeIndex.forget(project);
+        assertEquals("Change made before renaming should be saved.", 7000, BuildSizeIndex.get(project).get(1).getSize());
+    }
+}
@@ -0,0 +1,67 @@
+package hudson.plugins.disk_usage.integration;
+
+import hudson.model.FreeStyleProject;
+import hudson.plugins.disk_usage.DiskUsageCalculationQueue;
+import hudson.plugins.disk_usage.DiskUsageCalculationQueue.Scope;
+import org.junit.Test;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+/**
+ * Checks merging of waiting requests in {@link DiskUsageCalculationQueue}.
+ */
+public class DiskUsageCalculationQueueTest extends HudsonTestCase {
+
+    //requests wait long enough, so they are not calculated during the test
+    private static final long DELAY = 60 * 60 * 1000;
+
+    @Test
+    public void testRequestsOfSameJobAndScopeAreMerged() throws Exception{
+        FreeStyleProject project = createFreeStyleProject("project");
+        FreeStyleProject other = createFreeStyleProject("other");
+        DiskUsageCalculationQueue queue = new DiskUsageCalculationQueue(DELAY);
+        try{
+            queue.request(Scope.WORKSPACES, project);
+            queue.request(Scope.WORKSPACES, project);
+            assertEquals("Requests of the same job and scope should be merged.", 1, queue.getSize());
+            assertTrue("Request of the job should be waiting.", queue.isPending(Scope.WORKSPACES, project));
+            assertFalse("Request of another scope should not be waiting.", queue.isPending(Scope.BUILDS, project));
+            queue.request(Scope.BUILDS, project);
+            queue.request(Scope.WORKSPACES, other);
+            assertEquals("Requests of other scope or job should not be merged.", 3, queue.getSize());
+        }
+        finally{
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void testRequestOfInstanceAbsorbsRequestsOfJobs() throws Exception{
+        FreeStyleProject project = createFreeStyleProject("project");
+        FreeStyleProject other = createFreeStyleProject("other");
+        DiskUsageCalculationQueue queue = new DiskUsageCalculationQueue(DELAY);
+        try{
+            queue.request(Scope.JOBS, project);
+            queue.request(Scope.JOBS, other);
+            queue.request(Scope.JOBS);
+            assertEquals("Request of the whole instance should replace waiting requests of jobs.", 1, queue.getSize());
+            assertTrue("Job should be calculated by the request of the whole instance.", queue.isPending(Scope.JOBS, project));
+            queue.request(Scope.JOBS, createFreeStyleProject("third"));
+            assertEquals("Request of a job should be merged into the waiting request of the whole instance.", 1, queue.getSize());
+            assertFalse("Request of the whole instance should not cover other scopes.", queue.isPending(Scope.WORKSPACES, project));
+        }
+        finally{
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void testStoppedQueueDoesNotAcceptRequests() throws Exception{
+        FreeStyleProject project = createFreeStyleProject("project");
+        DiskUsageCalculationQueue queue = new DiskUsageCalculationQueue(DELAY);
+        queue.request(Scope.BUILDS, project);
+        queue.stop();
+        assertEquals("Waiting requests should be dropped.", 0, queue.getSize());
+        queue.request(Scope.BUILDS, project);
+        assertFalse("Stopped queue should not accept requests.", queue.isPending(Scope.BUILDS, project));
+    }
+}
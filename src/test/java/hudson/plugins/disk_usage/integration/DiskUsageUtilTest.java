@@ -12,6 +12,7 @@ import org.jvnet.hudson.test.recipes.LocalData;
 import java.util.ArrayList;
 import hudson.model.AbstractBuild;
 import java.io.File;
+import org.apache.commons.io.FileUtils;
 import hudson.model.AbstractProject;
 import hudson.model.FreeStyleProject;
 import hudson.model.Slave;
@@ -68,6 +69,59 @@ public class DiskUsageUtilTest extends HudsonTestCase{
         
     }
     
+    @Test
+    public void testCalculateDiskUsageForJobWithoutFilesOfPlugin() throws Exception{
+        FreeStyleProject project = createFreeStyleProject("project1");
+        DiskUsageUtil.calculateDiskUsageForProject(project);
+        Long size = project.getAction(ProjectDiskUsageAction.class).getDiskUsageWithoutBuilds();
+        //bigger than the difference which is ignored by the calculation
+        byte[] content = new byte[10000];
+        for(String name : DiskUsageUtil.JOB_FILES){
+            FileUtils.writeByteArrayToFile(new File(project.getRootDir(), name), content);
+            FileUtils.writeByteArrayToFile(new File(project.getRootDir(), name + ".tmp"), content);
+        }
+        DiskUsageUtil.calculateDiskUsageForProject(project);
+        Assert.assertEquals("Files of disk usage plugin should not be counted into disk usage of job.", size, project.getAction(ProjectDiskUsageAction.class).getDiskUsageWithoutBuilds());
+    }
+    
+    @Test
+    public void testCalculateDiskUsageForJobTreeInOnePass() throws Exception{
+        MatrixProject project = createMatrixProject("project1");
+        project.setAxes(new AxisList(new TextAxis("axis", "a", "b")));
+        buildAndAssertSuccess(project);
+        buildAndAssertSuccess(project);
+        //content which is bigger than the difference ignored by the calculation
+        FileUtils.writeByteArrayToFile(new File(project.getBuildByNumber(1).getRootDir(), "artifact"), new byte[10000]);
+        FileUtils.writeByteArrayToFile(new File(project.getRootDir(), "file"), new byte[20000]);
+        DiskUsageUtil.calculateDiskUsageForJobTree(project, null, true, true);
+        List<AbstractProject> projects = new ArrayList<AbstractProject>();
+        projects.add(project);
+        projects.addAll(project.getItems());
+        List<Long> sizes = new ArrayList<Long>();
+        for(AbstractProject p : projects){
+            sizes.add(((DiskUsageProperty) p.getProperty(DiskUsageProperty.class)).getDiskUsageWithoutBuilds());
+            for(Object build : p.getBuilds()){
+                sizes.add(((AbstractBuild) build).getAction(BuildDiskUsageAction.class).getDiskUsage());
+            }
+        }
+        //separate walks of every part
+        for(AbstractProject p : projects){
+            DiskUsageUtil.calculateDiskUsageForProject(p);
+            for(Object build : p.getBuilds()){
+                DiskUsageUtil.calculateDiskUsageForBuild((AbstractBuild) build);
+            }
+        }
+        int i = 0;
+        for(AbstractProject p : projects){
+            Assert.assertEquals("Job " + p.getName() + " should have the same size as counted by separate walk.", sizes.get(i++), ((DiskUsageProperty) p.getProperty(DiskUsageProperty.class)).getDiskUsageWithoutBuilds());
+            for(Object build : p.getBuilds()){
+                Assert.assertEquals("Build " + build + " should have the same size as counted by separate walk.", sizes.get(i++), ((AbstractBuild) build).getAction(BuildDiskUsageAction.class).getDiskUsage());
+            }
+        }
+        Assert.assertTrue("Build should contain its artifact.", project.getBuildByNumber(1).getAction(BuildDiskUsageAction.class).getDiskUsage() > 10000);
+        Assert.assertTrue("Job should contain its files.", ((DiskUsageProperty) project.getProperty(DiskUsageProperty.class)).getDiskUsageWithoutBuilds() > 20000);
+    }
+    
     @Test
     @LocalData
     public void testCalculateDiskUsageForMatrixJob() throws Exception{
@@ -242,6 +296,32 @@ public class DiskUsageUtilTest extends HudsonTestCase{
         assertTrue("Disk usage should contains slave1, there is a workspace for project1.", prop.getSlaveWorkspaceUsage().containsKey(slave1.getNodeName()));
     }
     
+    @Test
+    public void testCalculateDiskUsageWorkspaceForMoreProjectsTogether() throws Exception{
+        RunListener listener = RunListener.all().get(DiskUsageBuildListener.class);
+        jenkins.getExtensionList(RunListener.class).remove(listener);
+        Slave slave1 = DiskUsageTestUtil.createSlave("slave1", new File(hudson.getRootDir(),"workspace1").getPath(), jenkins, createComputerLauncher(null));
+        Slave slave2 = DiskUsageTestUtil.createSlave("slave2", new File(hudson.getRootDir(),"workspace2").getPath(), jenkins, createComputerLauncher(null));
+        FreeStyleProject project1 = createFreeStyleProject("project1");
+        FreeStyleProject project2 = createFreeStyleProject("project2");
+        project1.setAssignedNode(slave1);
+        project2.setAssignedNode(slave1);
+        buildAndAssertSuccess(project1);
+        buildAndAssertSuccess(project2);
+        DiskUsageProperty prop =new DiskUsageProperty();
+        project2.addProperty(prop);
+        prop.putSlaveWorkspaceSize(slave2, slave2.getWorkspaceFor((TopLevelItem)project2).getRemote(), 54356l);
+        List<AbstractProject> projects = new ArrayList<AbstractProject>();
+        projects.add(project1);
+        projects.add(project2);
+        DiskUsageUtil.calculateWorkspaceDiskUsage(projects);
+        Long size1 = new File(slave1.getWorkspaceFor(project1).getRemote()).length();
+        Long size2 = new File(slave1.getWorkspaceFor(project2).getRemote()).length();
+        Assert.assertEquals("Calculation of workspaces of more projects does not return right size.", size1, project1.getAction(ProjectDiskUsageAction.class).getDiskUsageWorkspace());
+        Assert.assertEquals("Calculation of workspaces of more projects does not return right size.", size2, project2.getAction(ProjectDiskUsageAction.class).getDiskUsageWorkspace());
+        assertFalse("Slave slave2 should be removed from disk usage, because a workspace for project2 does not exist on this slave.",prop.getSlaveWorkspaceUsage().containsKey(slave2.getNodeName()));
+    }
+    
     @Test
     public void testParseExcludedJobsFromString() throws Exception{
         FreeStyleProject projectWithSpace = createFreeStyleProject("Project with space");
@@ -3,6 +3,7 @@ package hudson.plugins.disk_usage.integration;
 import hudson.plugins.disk_usage.*;
 import hudson.matrix.MatrixConfiguration;
 import hudson.matrix.MatrixProject;
+import hudson.model.AbstractBuild;
 import hudson.model.AperiodicWork;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
@@ -104,6 +105,40 @@ public class JobDiskUsageCalculationThreadTest extends HudsonTestCase{
         }
     }
     
+    @Test
+    @LocalData
+    public void testMatrixProjectInSinglePass() throws IOException, InterruptedException{
+        //turn off run listener
+        RunListener listener = RunListener.all().get(DiskUsageBuildListener.class);
+        jenkins.getExtensionList(RunListener.class).remove(listener);
+        DiskUsageProjectActionFactory.DESCRIPTOR.setSinglePassCalculation(true);
+        Map<String,Long> matrixConfigurationsSize = new TreeMap<String,Long>();
+        MatrixProject project = (MatrixProject) jenkins.getItem("project1");
+        FreeStyleProject project2 = (FreeStyleProject) jenkins.getItem("project2");
+        File file = new File(project.getRootDir(),"fileList");
+        Long projectSize = getSize(readFileList(file)) + project.getRootDir().length();
+        file = new File(project2.getRootDir(),"fileList");
+        Long project2Size = getSize(readFileList(file)) + project2.getRootDir().length();
+        for(MatrixConfiguration config: project.getItems()){
+            File f = new File(config.getRootDir(),"fileList");
+            Long size = getSize(readFileList(f)) + config.getRootDir().length();
+            matrixConfigurationsSize.put(config.getDisplayName(), size);
+        }
+        //jobs are calculated by calculation of builds
+        new JobWithoutBuildsDiskUsageCalculation().execute(TaskListener.NULL);
+        assertEquals("Calculation of jobs should not calculate jobs in single pass mode.", 0, project2.getAction(ProjectDiskUsageAction.class).getDiskUsageWithoutBuilds(), 0);
+        new BuildDiskUsageCalculationThread().execute(TaskListener.NULL);
+        assertEquals("Project project has wrong job size.", projectSize, project.getAction(ProjectDiskUsageAction.class).getDiskUsageWithoutBuilds(), 0);
+        assertEquals("Project project2 has wrong job size.", project2Size, project2.getAction(ProjectDiskUsageAction.class).getDiskUsageWithoutBuilds(), 0);
+        for(MatrixConfiguration config: project.getItems()){
+            assertEquals("Configuration " + config.getDisplayName() + " has wrong job size.", matrixConfigurationsSize.get(config.getDisplayName()), config.getAction(ProjectDiskUsageAction.class).getDiskUsageWithoutBuilds(), 0);           
+        }
+        for(AbstractBuild build : project2.getBuilds()){
+            Long size = DiskUsageUtil.getFileSize(build.getRootDir(), new ArrayList<File>());
+            assertEquals("Build " + build.getNumber() + " of project2 has wrong size.", size, build.getAction(BuildDiskUsageAction.class).getDiskUsage(), 0);
+        }
+    }
+    
     public void testDoNotExecuteDiskUsageWhenPreviousCalculationIsInProgress() throws Exception{
         FreeStyleProject project = new FreeStyleProject(jenkins, "execution"){
             @Override
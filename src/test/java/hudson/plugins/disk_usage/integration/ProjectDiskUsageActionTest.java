@@ -118,6 +118,33 @@ public class ProjectDiskUsageActionTest {
         
     }
     
+    @Test
+    public void testGetBuildsAllocatedDiskUsage() throws Exception{
+        MatrixProject matrixProject = j.jenkins.createProject(MatrixProject.class, "project1");
+        AxisList list = new AxisList();
+        list.add(new TextAxis("axis", "axisA", "axisB"));
+        matrixProject.setAxes(list);
+        j.buildAndAssertSuccess(matrixProject);
+        j.buildAndAssertSuccess(matrixProject);
+        Long allocated = 0l;
+        long size = 4096;
+        for(MatrixBuild matrixBuild : matrixProject.getBuilds()){
+            matrixBuild.getAction(BuildDiskUsageAction.class).setDiskUsage(size);
+            matrixBuild.getAction(BuildDiskUsageAction.class).setAllocatedDiskUsage(2 * size);
+            allocated += 2 * size;
+            size += 4096;
+        }
+        for(MatrixConfiguration c: matrixProject.getItems()){
+            for(AbstractBuild configurationBuild : c.getBuilds()){
+                configurationBuild.getAction(BuildDiskUsageAction.class).setDiskUsage(size);
+                configurationBuild.getAction(BuildDiskUsageAction.class).setAllocatedDiskUsage(3 * size);
+                allocated += 3 * size;
+                size += 4096;
+            }
+        }
+        assertEquals("Allocated size of builds of MatrixProject " + matrixProject.getDisplayName() + " should be sum of allocated sizes of all its builds and sub-builds.", allocated, matrixProject.getAction(ProjectDiskUsageAction.class).getBuildsDiskUsage().get("allocated"));
+    }
+
     @Test
      public void getAllBuildDiskUsageFiltered() throws Exception{
         ProjectTest project = new ProjectTest(j.jenkins, "project");